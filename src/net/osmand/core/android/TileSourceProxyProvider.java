@@ -56,13 +56,13 @@ public class TileSourceProxyProvider extends interface_ImageMapLayerProvider {
 		byte[] image;
 		try {
 			ResourceManager rm = app.getResourceManager();
-			String tileFilename = rm.calculateTileId(tileSource, request.getTileId().getX(), request.getTileId().getY(),
+			long tileKey = rm.calculateTileKey(tileSource, request.getTileId().getX(), request.getTileId().getY(),
 					request.getZoom().swigValue());
 
 			final TileReadyCallback tileReadyCallback = new TileReadyCallback(tileSource,
 					request.getTileId().getX(), request.getTileId().getY(), request.getZoom().swigValue());
 			rm.getMapTileDownloader().addDownloaderCallback(tileReadyCallback);
-			while (rm.getTileImageForMapAsync(tileFilename, tileSource, request.getTileId().getX(), request.getTileId().getY(),
+			while (rm.getTileImageForMapAsync(tileKey, tileSource, request.getTileId().getX(), request.getTileId().getY(),
 					request.getZoom().swigValue(), true) == null) {
 				synchronized (tileReadyCallback.getSync()) {
 					if (tileReadyCallback.isReady()) {
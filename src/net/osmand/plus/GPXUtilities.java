@@ -22,6 +22,7 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -30,6 +31,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
@@ -38,21 +40,35 @@ import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Stack;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class GPXUtilities {
 	public final static Log log = PlatformUtil.getLog(GPXUtilities.class);
 
 	private final static String GPX_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'"; //$NON-NLS-1$
 
+	// points of a segment analysed by one thread
+	private static final int ANALYSIS_CHUNK_SIZE = 4096;
+	private static ExecutorService analysisExecutor;
+
 	private final static NumberFormat latLonFormat = new DecimalFormat("0.00#####", new DecimalFormatSymbols(
 			new Locale("EN", "US")));
 
@@ -204,24 +220,227 @@ public class GPXUtilities {
 		}
 	}
 
+	/**
+	 * Compact storage of plain track points (coordinates, time, elevation, speed and hdop) as parallel arrays
+	 */
+	public static class TrackColumns {
+		public int size;
+		public double[] lat;
+		public double[] lon;
+		public long[] time;
+		public float[] ele;
+		public float[] speed;
+		public float[] hdop;
+
+		public TrackColumns() {
+			this(16);
+		}
+
+		public TrackColumns(int capacity) {
+			lat = new double[capacity];
+			lon = new double[capacity];
+			time = new long[capacity];
+			ele = new float[capacity];
+			speed = new float[capacity];
+			hdop = new float[capacity];
+		}
+
+		public void add(double lat, double lon, long time, double ele, double speed, double hdop) {
+			insert(size, lat, lon, time, ele, speed, hdop);
+		}
+
+		public void insert(int index, double lat, double lon, long time, double ele, double speed, double hdop) {
+			if (size == this.lat.length) {
+				ensureCapacity(Math.max(16, size * 2));
+			}
+			if (index < size) {
+				move(index, index + 1, size - index);
+			}
+			size++;
+			set(index, lat, lon, time, ele, speed, hdop);
+		}
+
+		public void set(int index, double lat, double lon, long time, double ele, double speed, double hdop) {
+			this.lat[index] = lat;
+			this.lon[index] = lon;
+			this.time[index] = time;
+			this.ele[index] = (float) ele;
+			this.speed[index] = (float) speed;
+			this.hdop[index] = (float) hdop;
+		}
+
+		public void remove(int index) {
+			move(index + 1, index, size - index - 1);
+			size--;
+		}
+
+		private void move(int from, int to, int length) {
+			System.arraycopy(lat, from, lat, to, length);
+			System.arraycopy(lon, from, lon, to, length);
+			System.arraycopy(time, from, time, to, length);
+			System.arraycopy(ele, from, ele, to, length);
+			System.arraycopy(speed, from, speed, to, length);
+			System.arraycopy(hdop, from, hdop, to, length);
+		}
+
+		public WptPt getPoint(int i) {
+			return new WptPt(lat[i], lon[i], time[i], ele[i], speed[i], hdop[i]);
+		}
+
+		public void ensureCapacity(int capacity) {
+			if (capacity > lat.length) {
+				lat = Arrays.copyOf(lat, capacity);
+				lon = Arrays.copyOf(lon, capacity);
+				time = Arrays.copyOf(time, capacity);
+				ele = Arrays.copyOf(ele, capacity);
+				speed = Arrays.copyOf(speed, capacity);
+				hdop = Arrays.copyOf(hdop, capacity);
+			}
+		}
+	}
+
+	/**
+	 * Points of the columns as list : points are created on demand, so changes of returned points are not stored
+	 * (only list operations are)
+	 */
+	private static class ColumnPoints extends AbstractList<WptPt> implements RandomAccess {
+		private final TrackColumns columns;
+
+		ColumnPoints(TrackColumns columns) {
+			this.columns = columns;
+		}
+
+		@Override
+		public WptPt get(int index) {
+			checkIndex(index, columns.size);
+			return columns.getPoint(index);
+		}
+
+		@Override
+		public int size() {
+			return columns.size;
+		}
+
+		@Override
+		public void add(int index, WptPt p) {
+			checkIndex(index, columns.size + 1);
+			columns.insert(index, p.lat, p.lon, p.time, p.ele, p.speed, p.hdop);
+			modCount++;
+		}
+
+		@Override
+		public WptPt set(int index, WptPt p) {
+			WptPt prev = get(index);
+			columns.set(index, p.lat, p.lon, p.time, p.ele, p.speed, p.hdop);
+			return prev;
+		}
+
+		@Override
+		public WptPt remove(int index) {
+			WptPt prev = get(index);
+			columns.remove(index);
+			modCount++;
+			return prev;
+		}
+
+		private static void checkIndex(int index, int size) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+	}
+
 	public static class TrkSegment extends GPXExtensions {
 		public List<WptPt> points = new ArrayList<WptPt>();
+		// compact storage of the points (then points list is a view of it), null if the points are objects
+		private TrackColumns columns;
+		// analysis of the splits by type and interval, valid while the number of points is the same
+		private Map<String, List<GPXTrackAnalysis>> splits;
+		private int splitsPoints;
 		private OsmandMapTileView view;
 
 		public List<Renderable.RenderableSegment> renders = new ArrayList<>();
 
+		public TrackColumns getColumns() {
+			return columns;
+		}
+
+		public void setColumns(TrackColumns columns) {
+			this.columns = columns;
+			this.points = new ColumnPoints(columns);
+		}
+
+		/**
+		 * Converts the points to the compact storage if all of them are plain fixes : no names, descriptions
+		 * and extensions except speed (elevation, speed and hdop are stored as floats as they are read from gpx).
+		 * Only for segments which points are read, not changed in place.
+		 * @return true if the points are stored in columns
+		 */
+		public boolean compact() {
+			if (columns != null) {
+				return true;
+			}
+			for (WptPt p : points) {
+				if (p.name != null || p.link != null || p.category != null || p.desc != null || p.comment != null
+						|| p.deleted || p.colourARGB != 0 || p.distance != 0 || (p.extensions != null
+						&& (p.extensions.size() > 1 || !p.extensions.containsKey("speed")))) {
+					return false;
+				}
+			}
+			TrackColumns c = new TrackColumns(Math.max(1, points.size()));
+			for (WptPt p : points) {
+				c.add(p.lat, p.lon, p.time, p.ele, p.speed, p.hdop);
+			}
+			setColumns(c);
+			return true;
+		}
+
+		public double getLat(int i) {
+			return columns != null ? columns.lat[i] : points.get(i).lat;
+		}
+
+		public double getLon(int i) {
+			return columns != null ? columns.lon[i] : points.get(i).lon;
+		}
+
+		public long getTime(int i) {
+			return columns != null ? columns.time[i] : points.get(i).time;
+		}
+
+		public double getEle(int i) {
+			return columns != null ? columns.ele[i] : points.get(i).ele;
+		}
+
+		public double getSpeed(int i) {
+			return columns != null ? columns.speed[i] : points.get(i).speed;
+		}
+
+		public double getHdop(int i) {
+			return columns != null ? columns.hdop[i] : points.get(i).hdop;
+		}
+
 		public List<GPXTrackAnalysis> splitByDistance(double meters) {
-			return split(getDistanceMetric(), getTimeSplit(), meters);
+			return split("distance_" + meters, getDistanceMetric(), getTimeSplit(), meters); //$NON-NLS-1$
 		}
 
 		public List<GPXTrackAnalysis> splitByTime(int seconds) {
-			return split(getTimeSplit(), getDistanceMetric(), seconds);
+			return split("time_" + seconds, getTimeSplit(), getDistanceMetric(), seconds); //$NON-NLS-1$
 		}
 
-		private List<GPXTrackAnalysis> split(SplitMetric metric, SplitMetric secondaryMetric, double metricLimit) {
-			List<SplitSegment> splitSegments = new ArrayList<GPXUtilities.SplitSegment>();
-			splitSegment(metric, secondaryMetric, metricLimit, splitSegments, this);
-			return convert(splitSegments);
+		private synchronized List<GPXTrackAnalysis> split(String key, SplitMetric metric, SplitMetric secondaryMetric,
+				double metricLimit) {
+			if (splits == null || splitsPoints != points.size()) {
+				splits = new HashMap<String, List<GPXTrackAnalysis>>();
+				splitsPoints = points.size();
+			}
+			List<GPXTrackAnalysis> res = splits.get(key);
+			if (res == null) {
+				List<SplitSegment> splitSegments = new ArrayList<GPXUtilities.SplitSegment>();
+				splitSegment(metric, secondaryMetric, metricLimit, splitSegments, this);
+				res = Collections.unmodifiableList(convert(splitSegments));
+				splits.put(key, res);
+			}
+			return res;
 		}
 
 		public void drawRenderers(double zoom, Paint p, Canvas c, RotatedTileBox tb) {
@@ -296,146 +515,62 @@ public class GPXUtilities {
 		}
 
 		public GPXTrackAnalysis prepareInformation(long filestamp, SplitSegment... splitSegments) {
-			float[] calculations = new float[1];
+			return prepareInformation(filestamp, true, splitSegments);
+		}
 
-			float totalElevation = 0;
-			int elevationPoints = 0;
-			int speedCount = 0;
-			double totalSpeedSum = 0;
+		/**
+		 * @param parallel parts of long segments are analysed in the analysis threads
+		 */
+		private GPXTrackAnalysis prepareInformation(long filestamp, boolean parallel, SplitSegment... splitSegments) {
+			PartialAnalysis total = new PartialAnalysis();
 			points = 0;
-
-			double channelThresMin = 5;            // Minimum oscillation amplitude considered as noise for Up/Down analysis
-			double channelThres = channelThresMin; // Actual oscillation amplitude considered as noise, try depedency on current hdop
-			double channelBase;
-			double channelTop;
-			double channelBottom;
+			// direction of the elevation trend continues from the previous segment
 			boolean climb = false;
 
 			for (SplitSegment s : splitSegments) {
 				final int numberOfPoints = s.getNumberOfPoints();
 
-				channelBase = 99999;
-				channelTop = channelBase;
-				channelBottom = channelBase;
-				channelThres = channelThresMin;
-
 				metricEnd += s.metricEnd;
 				secondaryMetricEnd += s.secondaryMetricEnd;
 				points += numberOfPoints;
-				for (int j = 0; j < numberOfPoints; j++) {
-					WptPt point = s.get(j);
-					if (j == 0 && locationStart == null) {
-						locationStart = point;
-					}
-					if (j == numberOfPoints - 1) {
-						locationEnd = point;
-					}
-					long time = point.time;
-					if (time != 0) {
-						startTime = Math.min(startTime, time);
-						endTime = Math.max(endTime, time);
-					}
-
-					double elevation = point.ele;
-					if (!Double.isNaN(elevation)) {
-						totalElevation += elevation;
-						elevationPoints++;
-						minElevation = Math.min(elevation, minElevation);
-						maxElevation = Math.max(elevation, maxElevation);
-					}
-
-					float speed = (float) point.speed;
-					if (speed > 0) {
-						totalSpeedSum += speed;
-						maxSpeed = Math.max(speed, maxSpeed);
-						speedCount++;
-					}
-
-					// Trend channel approach for elevation gain/loss, Hardy 2015-09-22
-					// Self-adjusting turnarund threshold added for testing 2015-09-25: Current rule is now: "All up/down trends of amplitude <X are ignored to smooth the noise, where X is the maximum observed DOP value of any point which contributed to the current trend (but at least 5 m as the minimum noise threshold)".
-					if (!Double.isNaN(point.ele)) {
-						// Init channel
-						if (channelBase == 99999) {
-							channelBase = point.ele;
-							channelTop = channelBase;
-							channelBottom = channelBase;
-							channelThres = channelThresMin;
-						}
-						// Channel maintenance
-						if (point.ele > channelTop) {
-							channelTop = point.ele;
-							if (!Double.isNaN(point.hdop)) {
-								channelThres = Math.max(channelThres, 2.0 * point.hdop);  //Try empirical 2*hdop, may better serve very flat tracks, or high dop tracks
-							}
-						} else if (point.ele < channelBottom) {
-							channelBottom = point.ele;
-							if (!Double.isNaN(point.hdop)) {
-								channelThres = Math.max(channelThres, 2.0 * point.hdop);
-							}
-						}
-						// Turnaround (breakout) detection
-						if ((point.ele <= (channelTop - channelThres)) && (climb == true)) {
-							if ((channelTop - channelBase) >= channelThres) {
-								diffElevationUp += channelTop - channelBase;
-							}
-							channelBase = channelTop;
-							channelBottom = point.ele;
-							climb = false;
-							channelThres = channelThresMin;
-						} else if ((point.ele >= (channelBottom + channelThres)) && (climb == false)) {
-							if ((channelBase - channelBottom) >= channelThres) {
-								diffElevationDown += channelBase - channelBottom;
-							}
-							channelBase = channelBottom;
-							channelTop = point.ele;
-							climb = true;
-							channelThres = channelThresMin;
-						}
-						// End detection without breakout
-						if (j == (numberOfPoints - 1)) {
-							if ((channelTop - channelBase) >= channelThres) {
-								diffElevationUp += channelTop - channelBase;
-							}
-							if ((channelBase - channelBottom) >= channelThres) {
-								diffElevationDown += channelBase - channelBottom;
-							}
-						}
+				if (numberOfPoints <= 0) {
+					continue;
+				}
+				if (locationStart == null) {
+					locationStart = s.get(0);
+				}
+				locationEnd = s.get(numberOfPoints - 1);
+				// interpolated end points are created before the segment is read by several threads
+				s.getApprox(0);
+				s.getApprox(numberOfPoints - 1);
+
+				int parts = parallel ? Math.min(getAnalysisThreads(), numberOfPoints / ANALYSIS_CHUNK_SIZE) : 1;
+				if (parts > 1) {
+					List<Callable<PartialAnalysis>> tasks = new ArrayList<Callable<PartialAnalysis>>(parts);
+					for (int k = 0; k < parts; k++) {
+						tasks.add(createPartialAnalysis(s, numberOfPoints * k / parts, numberOfPoints * (k + 1) / parts));
 					}
-
-					if (j > 0) {
-						WptPt prev = s.get(j - 1);
-
-						// Old complete summation approach for elevation gain/loss
-						//if (!Double.isNaN(point.ele) && !Double.isNaN(prev.ele)) {
-						//	double diff = point.ele - prev.ele;
-						//	if (diff > 0) {
-						//		diffElevationUp += diff;
-						//	} else {
-						//		diffElevationDown -= diff;
-						//	}
-						//}
-
-						// totalDistance += MapUtils.getDistance(prev.lat, prev.lon, point.lat, point.lon);
-						// using ellipsoidal 'distanceBetween' instead of spherical haversine (MapUtils.getDistance) is
-						// a little more exact, also seems slightly faster:
-						net.osmand.Location.distanceBetween(prev.lat, prev.lon, point.lat, point.lon, calculations);
-						totalDistance += calculations[0];
-
-						// Motion detection:
-						//   speed > 0  uses GPS chipset's motion detection
-						//   calculations[0] > minDisplacment * time  is heuristic needed because tracks may be filtered at recording time, so points at rest may not be present in file at all
-						if ((speed > 0) && (calculations[0] > 0.1 / 1000f * (point.time - prev.time)) && point.time != 0 && prev.time != 0) {
-							timeMoving = timeMoving + (point.time - prev.time);
-							totalDistanceMoving += calculations[0];
-						}
-						//Next few lines for Issue 3222 heuristic testing only
-						//	if (speed > 0 && point.time != 0 && prev.time != 0) {
-						//		timeMoving0 = timeMoving0 + (point.time - prev.time);
-						//		totalDistanceMoving0 += calculations[0];
-						//	}
+					List<Future<PartialAnalysis>> futures = submitAll(tasks);
+					// the trend channel isn't mergeable, it is calculated meanwhile in the calling thread
+					climb = calculateElevationTrend(s, numberOfPoints, climb);
+					for (PartialAnalysis p : waitAll(futures, tasks)) {
+						total.merge(p);
 					}
+				} else {
+					PartialAnalysis p = new PartialAnalysis();
+					p.calculate(s, 0, numberOfPoints);
+					total.merge(p);
+					climb = calculateElevationTrend(s, numberOfPoints, climb);
 				}
 			}
+			startTime = Math.min(startTime, total.startTime);
+			endTime = Math.max(endTime, total.endTime);
+			totalDistance += (float) total.totalDistance;
+			totalDistanceMoving += (float) total.totalDistanceMoving;
+			timeMoving += total.timeMoving;
+			minElevation = Math.min(minElevation, total.minElevation);
+			maxElevation = Math.max(maxElevation, total.maxElevation);
+			maxSpeed = Math.max(maxSpeed, total.maxSpeed);
 			if (!isTimeSpecified()) {
 				startTime = filestamp;
 				endTime = filestamp;
@@ -448,18 +583,18 @@ public class GPXUtilities {
 
 			// 3. Time moving, if any
 			// 4. Elevation, eleUp, eleDown, if recorded
-			if (elevationPoints > 0) {
-				avgElevation = totalElevation / elevationPoints;
+			if (total.elevationPoints > 0) {
+				avgElevation = total.totalElevation / total.elevationPoints;
 			}
 
 
 			// 5. Max speed and Average speed, if any. Average speed is NOT overall (effective) speed, but only calculated for "moving" periods.
 			//    Averaging speed values is less precise than totalDistanceMoving/timeMoving
-			if (speedCount > 0) {
+			if (total.speedCount > 0) {
 				if (timeMoving > 0) {
 					avgSpeed = (float) totalDistanceMoving / (float) timeMoving * 1000f;
 				} else {
-					avgSpeed = (float) totalSpeedSum / (float) speedCount;
+					avgSpeed = (float) total.totalSpeedSum / (float) total.speedCount;
 				}
 			} else {
 				avgSpeed = -1;
@@ -467,6 +602,250 @@ public class GPXUtilities {
 			return this;
 		}
 
+		private static Callable<PartialAnalysis> createPartialAnalysis(final SplitSegment s, final int from,
+				final int to) {
+			return new Callable<PartialAnalysis>() {
+				@Override
+				public PartialAnalysis call() {
+					PartialAnalysis p = new PartialAnalysis();
+					p.calculate(s, from, to);
+					return p;
+				}
+			};
+		}
+
+		/**
+		 * Adds elevation gain / loss of the segment
+		 * @return direction of the trend at the end of the segment
+		 */
+		private boolean calculateElevationTrend(SplitSegment s, int numberOfPoints, boolean climb) {
+			double channelThresMin = 5;            // Minimum oscillation amplitude considered as noise for Up/Down analysis
+			double channelThres = channelThresMin; // Actual oscillation amplitude considered as noise, try depedency on current hdop
+			double channelBase = 99999;
+			double channelTop = channelBase;
+			double channelBottom = channelBase;
+
+			for (int j = 0; j < numberOfPoints; j++) {
+				double elevation = s.getEle(j);
+				// Trend channel approach for elevation gain/loss, Hardy 2015-09-22
+				// Self-adjusting turnarund threshold added for testing 2015-09-25: Current rule is now: "All up/down trends of amplitude <X are ignored to smooth the noise, where X is the maximum observed DOP value of any point which contributed to the current trend (but at least 5 m as the minimum noise threshold)".
+				if (!Double.isNaN(elevation)) {
+					double hdop = s.getHdop(j);
+					// Init channel
+					if (channelBase == 99999) {
+						channelBase = elevation;
+						channelTop = channelBase;
+						channelBottom = channelBase;
+						channelThres = channelThresMin;
+					}
+					// Channel maintenance
+					if (elevation > channelTop) {
+						channelTop = elevation;
+						if (!Double.isNaN(hdop)) {
+							channelThres = Math.max(channelThres, 2.0 * hdop);  //Try empirical 2*hdop, may better serve very flat tracks, or high dop tracks
+						}
+					} else if (elevation < channelBottom) {
+						channelBottom = elevation;
+						if (!Double.isNaN(hdop)) {
+							channelThres = Math.max(channelThres, 2.0 * hdop);
+						}
+					}
+					// Turnaround (breakout) detection
+					if ((elevation <= (channelTop - channelThres)) && (climb == true)) {
+						if ((channelTop - channelBase) >= channelThres) {
+							diffElevationUp += channelTop - channelBase;
+						}
+						channelBase = channelTop;
+						channelBottom = elevation;
+						climb = false;
+						channelThres = channelThresMin;
+					} else if ((elevation >= (channelBottom + channelThres)) && (climb == false)) {
+						if ((channelBase - channelBottom) >= channelThres) {
+							diffElevationDown += channelBase - channelBottom;
+						}
+						channelBase = channelBottom;
+						channelTop = elevation;
+						climb = true;
+						channelThres = channelThresMin;
+					}
+					// End detection without breakout
+					if (j == (numberOfPoints - 1)) {
+						if ((channelTop - channelBase) >= channelThres) {
+							diffElevationUp += channelTop - channelBase;
+						}
+						if ((channelBase - channelBottom) >= channelThres) {
+							diffElevationDown += channelBase - channelBottom;
+						}
+					}
+				}
+			}
+			return climb;
+		}
+
+	}
+
+	/**
+	 * Statistics of a part of the points of a split segment. Parts are calculated independently (in parallel)
+	 * and merged exactly. Elevation gain / loss is not here : the trend channel depends on all previous points.
+	 */
+	private static class PartialAnalysis {
+		long startTime = Long.MAX_VALUE;
+		long endTime = Long.MIN_VALUE;
+		double totalDistance = 0;
+		double totalDistanceMoving = 0;
+		long timeMoving = 0;
+		double totalElevation = 0;
+		int elevationPoints = 0;
+		double minElevation = 99999;
+		double maxElevation = -100;
+		float maxSpeed = 0;
+		double totalSpeedSum = 0;
+		int speedCount = 0;
+
+		/**
+		 * Points [from, to) and the lines to them from the previous points
+		 */
+		void calculate(SplitSegment s, int from, int to) {
+			float[] calculations = new float[1];
+			double prevLat = 0;
+			double prevLon = 0;
+			long prevTime = 0;
+			if (from > 0) {
+				prevLat = s.getLat(from - 1);
+				prevLon = s.getLon(from - 1);
+				prevTime = s.getTime(from - 1);
+			}
+			for (int j = from; j < to; j++) {
+				double lat = s.getLat(j);
+				double lon = s.getLon(j);
+				long time = s.getTime(j);
+				if (time != 0) {
+					startTime = Math.min(startTime, time);
+					endTime = Math.max(endTime, time);
+				}
+
+				double elevation = s.getEle(j);
+				if (!Double.isNaN(elevation)) {
+					totalElevation += elevation;
+					elevationPoints++;
+					minElevation = Math.min(elevation, minElevation);
+					maxElevation = Math.max(elevation, maxElevation);
+				}
+
+				float speed = (float) s.getSpeed(j);
+				if (speed > 0) {
+					totalSpeedSum += speed;
+					maxSpeed = Math.max(speed, maxSpeed);
+					speedCount++;
+				}
+
+				if (j > 0) {
+					// using ellipsoidal 'distanceBetween' instead of spherical haversine (MapUtils.getDistance) is
+					// a little more exact, also seems slightly faster:
+					net.osmand.Location.distanceBetween(prevLat, prevLon, lat, lon, calculations);
+					totalDistance += calculations[0];
+
+					// Motion detection:
+					//   speed > 0  uses GPS chipset's motion detection
+					//   calculations[0] > minDisplacment * time  is heuristic needed because tracks may be filtered at recording time, so points at rest may not be present in file at all
+					if ((speed > 0) && (calculations[0] > 0.1 / 1000f * (time - prevTime)) && time != 0 && prevTime != 0) {
+						timeMoving = timeMoving + (time - prevTime);
+						totalDistanceMoving += calculations[0];
+					}
+				}
+				prevLat = lat;
+				prevLon = lon;
+				prevTime = time;
+			}
+		}
+
+		void merge(PartialAnalysis p) {
+			startTime = Math.min(startTime, p.startTime);
+			endTime = Math.max(endTime, p.endTime);
+			totalDistance += p.totalDistance;
+			totalDistanceMoving += p.totalDistanceMoving;
+			timeMoving += p.timeMoving;
+			totalElevation += p.totalElevation;
+			elevationPoints += p.elevationPoints;
+			minElevation = Math.min(minElevation, p.minElevation);
+			maxElevation = Math.max(maxElevation, p.maxElevation);
+			maxSpeed = Math.max(maxSpeed, p.maxSpeed);
+			totalSpeedSum += p.totalSpeedSum;
+			speedCount += p.speedCount;
+		}
+	}
+
+	private static synchronized ExecutorService getAnalysisExecutor() {
+		if (analysisExecutor == null) {
+			analysisExecutor = Executors.newFixedThreadPool(getAnalysisThreads(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Track analysis"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return analysisExecutor;
+	}
+
+	private static int getAnalysisThreads() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+
+	private static <T> List<Future<T>> submitAll(List<Callable<T>> tasks) {
+		ExecutorService executor = getAnalysisExecutor();
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for (Callable<T> t : tasks) {
+			futures.add(executor.submit(t));
+		}
+		return futures;
+	}
+
+	/**
+	 * Waits for the results. When the calling thread is interrupted unfinished tasks are run by it,
+	 * so the results are always complete.
+	 */
+	private static <T> List<T> waitAll(List<Future<T>> futures, List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(futures.size());
+		boolean interrupted = false;
+		for (int i = 0; i < futures.size(); i++) {
+			Future<T> f = futures.get(i);
+			T result = null;
+			boolean done = false;
+			if (!interrupted) {
+				try {
+					result = f.get();
+					done = true;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw rethrow(e.getCause());
+				}
+			}
+			if (!done) {
+				f.cancel(false);
+				try {
+					result = tasks.get(i).call();
+				} catch (Exception e) {
+					throw rethrow(e);
+				}
+			}
+			results.add(result);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return results;
+	}
+
+	private static RuntimeException rethrow(Throwable e) {
+		if (e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		}
+		return new IllegalStateException(e);
 	}
 
 	private static class SplitSegment {
@@ -477,6 +856,8 @@ public class GPXUtilities {
 		int endPointInd;
 		double metricEnd;
 		double secondaryMetricEnd;
+		private WptPt first;
+		private WptPt last;
 
 		public SplitSegment(TrkSegment s) {
 			startPointInd = 0;
@@ -515,6 +896,53 @@ public class GPXUtilities {
 		}
 
 
+		// values of the segment points are read directly, only the interpolated first and last points are created
+		private WptPt getApprox(int j) {
+			if (j == 0 && startCoeff != 0) {
+				if (first == null) {
+					first = get(j);
+				}
+				return first;
+			}
+			if (j == getNumberOfPoints() - 1 && endCoeff != 1) {
+				if (last == null) {
+					last = get(j);
+				}
+				return last;
+			}
+			return null;
+		}
+
+		public double getLat(int j) {
+			WptPt p = getApprox(j);
+			return p != null ? p.lat : segment.getLat(j + startPointInd);
+		}
+
+		public double getLon(int j) {
+			WptPt p = getApprox(j);
+			return p != null ? p.lon : segment.getLon(j + startPointInd);
+		}
+
+		public long getTime(int j) {
+			WptPt p = getApprox(j);
+			return p != null ? p.time : segment.getTime(j + startPointInd);
+		}
+
+		public double getEle(int j) {
+			WptPt p = getApprox(j);
+			return p != null ? p.ele : segment.getEle(j + startPointInd);
+		}
+
+		public double getSpeed(int j) {
+			WptPt p = getApprox(j);
+			return p != null ? p.speed : segment.getSpeed(j + startPointInd);
+		}
+
+		public double getHdop(int j) {
+			WptPt p = getApprox(j);
+			return p != null ? p.hdop : segment.getHdop(j + startPointInd);
+		}
+
 		private WptPt approx(WptPt w1, WptPt w2, double cf) {
 			long time = value(w1.time, w2.time, 0, cf);
 			double speed = value(w1.speed, w2.speed, 0, cf);
@@ -547,6 +975,7 @@ public class GPXUtilities {
 		public double setLastPoint(int pointInd, double endCf) {
 			endCoeff = endCf;
 			endPointInd = pointInd;
+			last = null;
 			return endCoeff;
 		}
 
@@ -558,8 +987,8 @@ public class GPXUtilities {
 			private float[] calculations = new float[1];
 
 			@Override
-			public double metric(WptPt p1, WptPt p2) {
-				net.osmand.Location.distanceBetween(p1.lat, p1.lon, p2.lat, p2.lon, calculations);
+			public double metric(TrkSegment s, int i1, int i2) {
+				net.osmand.Location.distanceBetween(s.getLat(i1), s.getLon(i1), s.getLat(i2), s.getLon(i2), calculations);
 				return calculations[0];
 			}
 		};
@@ -569,9 +998,11 @@ public class GPXUtilities {
 		return new SplitMetric() {
 
 			@Override
-			public double metric(WptPt p1, WptPt p2) {
-				if (p1.time != 0 && p2.time != 0) {
-					return (int) Math.abs((p2.time - p1.time) / 1000l);
+			public double metric(TrkSegment s, int i1, int i2) {
+				long t1 = s.getTime(i1);
+				long t2 = s.getTime(i2);
+				if (t1 != 0 && t2 != 0) {
+					return (int) Math.abs((t2 - t1) / 1000l);
 				}
 				return 0;
 			}
@@ -580,7 +1011,7 @@ public class GPXUtilities {
 
 	private abstract static class SplitMetric {
 
-		public abstract double metric(WptPt p1, WptPt p2);
+		public abstract double metric(TrkSegment s, int i1, int i2);
 
 	}
 
@@ -591,12 +1022,10 @@ public class GPXUtilities {
 		double secondaryMetricEnd = 0;
 		SplitSegment sp = new SplitSegment(segment, 0, 0);
 		double total = 0;
-		WptPt prev = null;
 		for (int k = 0; k < segment.points.size(); k++) {
-			WptPt point = segment.points.get(k);
 			if (k > 0) {
-				double currentSegment = metric.metric(prev, point);
-				secondaryMetricEnd += secondaryMetric.metric(prev, point);
+				double currentSegment = metric.metric(segment, k - 1, k);
+				secondaryMetricEnd += secondaryMetric.metric(segment, k - 1, k);
 				while (total + currentSegment > currentMetricEnd) {
 					double p = currentMetricEnd - total;
 					double cf = (p / currentSegment);
@@ -607,11 +1036,9 @@ public class GPXUtilities {
 
 					sp = new SplitSegment(segment, k - 1, cf);
 					currentMetricEnd += metricLimit;
-					prev = sp.get(0);
 				}
 				total += currentSegment;
 			}
-			prev = point;
 		}
 		if (segment.points.size() > 0
 				&& !(sp.endPointInd == segment.points.size() - 1 && sp.startCoeff == 1)) {
@@ -623,13 +1050,24 @@ public class GPXUtilities {
 	}
 
 	private static List<GPXTrackAnalysis> convert(List<SplitSegment> splitSegments) {
-		List<GPXTrackAnalysis> ls = new ArrayList<GPXUtilities.GPXTrackAnalysis>();
-		for (SplitSegment s : splitSegments) {
-			GPXTrackAnalysis a = new GPXTrackAnalysis();
-			a.prepareInformation(0, s);
-			ls.add(a);
+		if (splitSegments.size() <= 1) {
+			List<GPXTrackAnalysis> ls = new ArrayList<GPXUtilities.GPXTrackAnalysis>();
+			for (SplitSegment s : splitSegments) {
+				ls.add(new GPXTrackAnalysis().prepareInformation(0, s));
+			}
+			return ls;
+		}
+		// splits are analysed in parallel, each one in a single thread
+		List<Callable<GPXTrackAnalysis>> tasks = new ArrayList<Callable<GPXTrackAnalysis>>(splitSegments.size());
+		for (final SplitSegment s : splitSegments) {
+			tasks.add(new Callable<GPXTrackAnalysis>() {
+				@Override
+				public GPXTrackAnalysis call() {
+					return new GPXTrackAnalysis().prepareInformation(0, false, s);
+				}
+			});
 		}
-		return ls;
+		return waitAll(submitAll(tasks), tasks);
 	}
 
 	public static class GPXFile extends GPXExtensions {
@@ -758,7 +1196,11 @@ public class GPXUtilities {
 					if (ts.points.size() > 0) {
 						TrkSegment sgmt = new TrkSegment();
 						tpoints.add(sgmt);
-						sgmt.points.addAll(ts.points);
+						if (ts.getColumns() != null) {
+							sgmt.setColumns(ts.getColumns());
+						} else {
+							sgmt.points.addAll(ts.points);
+						}
 						sgmt.setColor(trackColor);
 					}
 				}
@@ -960,6 +1402,226 @@ public class GPXUtilities {
 		writeExtensions(serializer, p);
 	}
 
+	/**
+	 * Writes gpx without building of {@link GPXFile} : points are written one by one into the buffered stream,
+	 * so memory doesn't depend on the size of the track. Formatting is the same as of {@link #writeGpx}.
+	 * Existing file could be continued : its closing tag is cut off and new tracks are appended.
+	 */
+	public static class GPXStreamWriter {
+
+		private static final String GPX_END_TAG = "</gpx>"; //$NON-NLS-1$
+		// tail of the file where the closing tag is looked for
+		private static final int TAIL_SIZE = 64;
+
+		private final Writer output;
+		private final SimpleDateFormat format;
+		private boolean trackStarted;
+
+		private GPXStreamWriter(Writer output) {
+			this.output = output;
+			format = new SimpleDateFormat(GPX_TIME_FORMAT, Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+
+		public static GPXStreamWriter create(File fout, OsmandApplication ctx) throws IOException {
+			GPXStreamWriter w = new GPXStreamWriter(new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(fout), "UTF-8"))); //$NON-NLS-1$
+			w.output.write("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>\n"); //$NON-NLS-1$
+			w.output.write("<gpx version=\"1.1\" creator=\""); //$NON-NLS-1$
+			w.output.write(escape(Version.getAppName(ctx)));
+			w.output.write("\" xmlns=\"http://www.topografix.com/GPX/1/1\"" //$NON-NLS-1$
+					+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" //$NON-NLS-1$
+					+ " xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd\">\n"); //$NON-NLS-1$
+			return w;
+		}
+
+		/**
+		 * @return writer continuing the file or null if the file doesn't end with the closing tag of gpx
+		 */
+		public static GPXStreamWriter append(File fout) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(fout, "rw"); //$NON-NLS-1$
+			try {
+				long length = raf.length();
+				int tail = (int) Math.min(length, TAIL_SIZE);
+				byte[] bytes = new byte[tail];
+				raf.seek(length - tail);
+				raf.readFully(bytes);
+				// tag and whitespaces are ascii in utf-8
+				String s = new String(bytes, "ISO-8859-1"); //$NON-NLS-1$
+				int ind = s.lastIndexOf(GPX_END_TAG);
+				if (ind == -1 || s.substring(ind + GPX_END_TAG.length()).trim().length() > 0) {
+					return null;
+				}
+				raf.setLength(length - tail + ind);
+			} finally {
+				raf.close();
+			}
+			return new GPXStreamWriter(new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(fout, true), "UTF-8"))); //$NON-NLS-1$
+		}
+
+		/**
+		 * Starts new track with one segment
+		 */
+		public void startTrack() throws IOException {
+			closeTrack();
+			output.write("  <trk>\n    <trkseg>\n"); //$NON-NLS-1$
+			trackStarted = true;
+		}
+
+		/**
+		 * Starts new segment of the current track (new track if there is none)
+		 */
+		public void startSegment() throws IOException {
+			if (!trackStarted) {
+				startTrack();
+			} else {
+				output.write("    </trkseg>\n    <trkseg>\n"); //$NON-NLS-1$
+			}
+		}
+
+		public void writeTrackPoint(double lat, double lon, long time, double ele, double speed, double hdop)
+				throws IOException {
+			if (!trackStarted) {
+				startTrack();
+			}
+			output.write("      <trkpt"); //$NON-NLS-1$
+			writeLatLon(lat, lon);
+			String indent = "        "; //$NON-NLS-1$
+			writeCommon(indent, ele, time);
+			if (!Double.isNaN(hdop)) {
+				writeText(indent, "hdop", hdop + ""); //$NON-NLS-1$
+			}
+			if (speed > 0) {
+				output.write(indent);
+				output.write("<extensions>\n"); //$NON-NLS-1$
+				writeText(indent + "  ", "speed", speed + ""); //$NON-NLS-1$
+				output.write(indent);
+				output.write("</extensions>\n"); //$NON-NLS-1$
+			}
+			output.write("      </trkpt>\n"); //$NON-NLS-1$
+		}
+
+		/**
+		 * Writes waypoint (tracks are closed, so waypoints should be written after them)
+		 */
+		public void writeWayPoint(WptPt p) throws IOException {
+			closeTrack();
+			output.write("  <wpt"); //$NON-NLS-1$
+			writeLatLon(p.lat, p.lon);
+			String indent = "    "; //$NON-NLS-1$
+			writeCommon(indent, p.ele, p.time);
+			writeText(indent, "name", p.name); //$NON-NLS-1$
+			writeText(indent, "desc", p.desc); //$NON-NLS-1$
+			if (p.link != null) {
+				output.write(indent);
+				output.write("<link href=\""); //$NON-NLS-1$
+				output.write(escape(p.link));
+				output.write("\" />\n"); //$NON-NLS-1$
+			}
+			writeText(indent, "type", p.category); //$NON-NLS-1$
+			writeText(indent, "cmt", p.comment); //$NON-NLS-1$
+			if (!Double.isNaN(p.hdop)) {
+				writeText(indent, "hdop", p.hdop + ""); //$NON-NLS-1$
+			}
+			if (p.speed > 0) {
+				p.getExtensionsToWrite().put("speed", p.speed + ""); //$NON-NLS-1$
+			}
+			Map<String, String> extensions = p.getExtensionsToRead();
+			if (!extensions.isEmpty()) {
+				output.write(indent);
+				output.write("<extensions>\n"); //$NON-NLS-1$
+				for (Map.Entry<String, String> e : extensions.entrySet()) {
+					writeText(indent + "  ", e.getKey(), e.getValue());
+				}
+				output.write(indent);
+				output.write("</extensions>\n"); //$NON-NLS-1$
+			}
+			output.write("  </wpt>\n"); //$NON-NLS-1$
+		}
+
+		/**
+		 * Closes open tags and the file
+		 */
+		public void close() throws IOException {
+			try {
+				closeTrack();
+				output.write(GPX_END_TAG);
+				output.write("\n"); //$NON-NLS-1$
+			} finally {
+				output.close();
+			}
+		}
+
+		private void closeTrack() throws IOException {
+			if (trackStarted) {
+				output.write("    </trkseg>\n  </trk>\n"); //$NON-NLS-1$
+				trackStarted = false;
+			}
+		}
+
+		private void writeLatLon(double lat, double lon) throws IOException {
+			output.write(" lat=\""); //$NON-NLS-1$
+			output.write(latLonFormat.format(lat));
+			output.write("\" lon=\""); //$NON-NLS-1$
+			output.write(latLonFormat.format(lon));
+			output.write("\">\n"); //$NON-NLS-1$
+		}
+
+		private void writeCommon(String indent, double ele, long time) throws IOException {
+			if (!Double.isNaN(ele)) {
+				writeText(indent, "ele", (float) ele + ""); //$NON-NLS-1$
+			}
+			if (time != 0) {
+				writeText(indent, "time", format.format(new Date(time))); //$NON-NLS-1$
+			}
+		}
+
+		private void writeText(String indent, String tag, String value) throws IOException {
+			if (value != null) {
+				output.write(indent);
+				output.write('<');
+				output.write(tag);
+				output.write('>');
+				output.write(escape(value));
+				output.write("</"); //$NON-NLS-1$
+				output.write(tag);
+				output.write(">\n"); //$NON-NLS-1$
+			}
+		}
+
+		private static String escape(String s) {
+			StringBuilder b = null;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				String r;
+				if (c == '&') {
+					r = "&amp;"; //$NON-NLS-1$
+				} else if (c == '<') {
+					r = "&lt;"; //$NON-NLS-1$
+				} else if (c == '>') {
+					r = "&gt;"; //$NON-NLS-1$
+				} else if (c == '"') {
+					r = "&quot;"; //$NON-NLS-1$
+				} else if (c < ' ' && c != '\n' && c != '\r' && c != '\t') {
+					// not allowed in xml 1.0
+					r = ""; //$NON-NLS-1$
+				} else {
+					if (b != null) {
+						b.append(c);
+					}
+					continue;
+				}
+				if (b == null) {
+					b = new StringBuilder(s.length() + 16);
+					b.append(s, 0, i);
+				}
+				b.append(r);
+			}
+			return b == null ? s : b.toString();
+		}
+	}
+
 	public static class GPXFileResult {
 		public ArrayList<List<Location>> locations = new ArrayList<List<Location>>();
 		public ArrayList<WptPt> wayPoints = new ArrayList<WptPt>();
@@ -1030,8 +1692,8 @@ public class GPXUtilities {
 	public static GPXFile loadGPXFile(Context ctx, InputStream f) {
 		//@Source (mayInclude = {"centerLocationOnMap","selectedMarker", "favFromFile",	"hisFromFile","routeInfo","trackInfo"}, id="0A1")
 		GPXFile res = new GPXFile();
-		SimpleDateFormat format = new SimpleDateFormat(GPX_TIME_FORMAT, Locale.US);
-		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		// only for times which are not parsed by parseTime
+		SimpleDateFormat format = null;
 		try {
 			XmlPullParser parser = PlatformUtil.newXMLPullParser();
 			parser.setInput(getUTF8Reader(f)); //$NON-NLS-1$
@@ -1142,9 +1804,18 @@ public class GPXUtilities {
 							} else if (parser.getName().equals("time")) {
 								String text = readText(parser, "time");
 								if (text != null) {
-									try {
-										((WptPt) parse).time = format.parse(text).getTime();
-									} catch (ParseException e) {
+									long time = parseTime(text);
+									if (time != -1) {
+										((WptPt) parse).time = time;
+									} else {
+										try {
+											if (format == null) {
+												format = new SimpleDateFormat(GPX_TIME_FORMAT, Locale.US);
+												format.setTimeZone(TimeZone.getTimeZone("UTC"));
+											}
+											((WptPt) parse).time = format.parse(text).getTime();
+										} catch (ParseException e) {
+										}
 									}
 								}
 							}
@@ -1204,6 +1875,184 @@ public class GPXUtilities {
 		return res;
 	}
 
+	/**
+	 * Receives track points of a gpx file read by {@link #readGPXTracks} : no objects are created for the points
+	 */
+	public interface GPXTrackVisitor {
+
+		void startSegment();
+
+		void visitTrackPoint(double lat, double lon, long time, double ele, double speed, double hdop);
+
+		void visitWayPoint(double lat, double lon);
+	}
+
+	/**
+	 * Streaming reading of track segments and waypoints (names, descriptions and extensions are skipped).
+	 * Values are the same as ones of {@link #loadGPXFile(Context, InputStream)}.
+	 */
+	public static void readGPXTracks(InputStream f, GPXTrackVisitor visitor) throws IOException,
+			XmlPullParserException {
+		XmlPullParser parser = PlatformUtil.newXMLPullParser();
+		parser.setInput(getUTF8Reader(f));
+		SimpleDateFormat format = null;
+		boolean segment = false;
+		boolean point = false;
+		double lat = 0;
+		double lon = 0;
+		long time = 0;
+		double ele = Double.NaN;
+		double speed = 0;
+		double hdop = Double.NaN;
+		int tok;
+		while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (tok == XmlPullParser.START_TAG) {
+				String tag = parser.getName();
+				if (point) {
+					if (tag.equals("ele")) {
+						ele = parseFloat(readText(parser, "ele"), ele);
+					} else if (tag.equals("hdop")) {
+						hdop = parseFloat(readText(parser, "hdop"), hdop);
+					} else if (tag.equals("speed")) {
+						speed = parseFloat(readText(parser, "speed"), speed);
+					} else if (tag.equals("time")) {
+						String text = readText(parser, "time");
+						if (text != null) {
+							long t = parseTime(text);
+							if (t != -1) {
+								time = t;
+							} else {
+								try {
+									if (format == null) {
+										format = new SimpleDateFormat(GPX_TIME_FORMAT, Locale.US);
+										format.setTimeZone(TimeZone.getTimeZone("UTC"));
+									}
+									time = format.parse(text).getTime();
+								} catch (ParseException e) {
+								}
+							}
+						}
+					}
+				} else if (tag.equals("trkseg")) {
+					segment = true;
+					visitor.startSegment();
+				} else if (segment && tag.equals("trkpt")) {
+					point = true;
+					lat = parseDouble(parser.getAttributeValue("", "lat")); //$NON-NLS-1$ //$NON-NLS-2$
+					lon = parseDouble(parser.getAttributeValue("", "lon")); //$NON-NLS-1$ //$NON-NLS-2$
+					time = 0;
+					ele = Double.NaN;
+					speed = 0;
+					hdop = Double.NaN;
+				} else if (tag.equals("wpt")) {
+					visitor.visitWayPoint(parseDouble(parser.getAttributeValue("", "lat")), //$NON-NLS-1$ //$NON-NLS-2$
+							parseDouble(parser.getAttributeValue("", "lon"))); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			} else if (tok == XmlPullParser.END_TAG) {
+				String tag = parser.getName();
+				if (point && tag.equals("trkpt")) {
+					point = false;
+					visitor.visitTrackPoint(lat, lon, time, ele, speed, hdop);
+				} else if (tag.equals("trkseg")) {
+					segment = false;
+				}
+			}
+		}
+	}
+
+	private static double parseDouble(String text) {
+		if (text != null) {
+			try {
+				return Double.parseDouble(text);
+			} catch (NumberFormatException e) {
+			}
+		}
+		return 0;
+	}
+
+	private static double parseFloat(String text, double def) {
+		if (text != null) {
+			try {
+				return Float.parseFloat(text);
+			} catch (NumberFormatException e) {
+			}
+		}
+		return def;
+	}
+
+	/**
+	 * Parses ISO 8601 time of gpx files (yyyy-MM-ddTHH:mm:ss[.SSS][Z|+hh:mm|-hh:mm], UTC if zone is missing)
+	 * without allocations.
+	 * @return time in milliseconds or -1 if the text has other format
+	 */
+	public static long parseTime(String text) {
+		int len = text.length();
+		if (len < 19 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+				|| text.charAt(13) != ':' || text.charAt(16) != ':') {
+			return -1;
+		}
+		int year = parseDigits(text, 0, 4);
+		int month = parseDigits(text, 5, 2);
+		int day = parseDigits(text, 8, 2);
+		int hour = parseDigits(text, 11, 2);
+		int minute = parseDigits(text, 14, 2);
+		int second = parseDigits(text, 17, 2);
+		if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+				|| minute > 59 || second < 0 || second > 60) {
+			return -1;
+		}
+		int pos = 19;
+		int millis = 0;
+		if (pos < len && text.charAt(pos) == '.') {
+			pos++;
+			int start = pos;
+			int scale = 100;
+			while (pos < len && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+				millis += (text.charAt(pos) - '0') * scale;
+				scale /= 10;
+				pos++;
+			}
+			if (pos == start) {
+				return -1;
+			}
+		}
+		int offset = 0;
+		if (pos < len) {
+			char c = text.charAt(pos);
+			if (c == 'Z' && pos + 1 == len) {
+				offset = 0;
+			} else if ((c == '+' || c == '-') && (len == pos + 6 && text.charAt(pos + 3) == ':' || len == pos + 5)) {
+				int h = parseDigits(text, pos + 1, 2);
+				int m = parseDigits(text, len - 2, 2);
+				if (h < 0 || m < 0) {
+					return -1;
+				}
+				offset = (c == '+' ? 1 : -1) * (h * 60 + m);
+			} else {
+				return -1;
+			}
+		}
+		// days from 1970-01-01 of the proleptic gregorian calendar
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long days = era * 146097L + yoe * 365 + yoe / 4 - yoe / 100 + doy - 719468;
+		return (((days * 24 + hour) * 60 + minute - offset) * 60 + second) * 1000 + millis;
+	}
+
+	private static int parseDigits(String text, int start, int count) {
+		int r = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			r = r * 10 + (c - '0');
+		}
+		return r;
+	}
+
 	private static Reader getUTF8Reader(InputStream f) throws IOException {
 		BufferedInputStream bis = new BufferedInputStream(f);
 		assert bis.markSupported();
@@ -33,10 +33,16 @@ public class GpxSelectionHelper {
 	@NonNull
 	private List<SelectedGpxFile> selectedGPXFiles = new java.util.ArrayList<>();
 	private SavingTrackHelper savingTrackHelper;
+	private GpxTracksCache tracksCache;
 
 	public GpxSelectionHelper(OsmandApplication osmandApplication, SavingTrackHelper trackHelper) {
 		this.app = osmandApplication;
 		savingTrackHelper = trackHelper;
+		tracksCache = new GpxTracksCache(osmandApplication);
+	}
+
+	public GpxTracksCache getTracksCache() {
+		return tracksCache;
 	}
 
 	public void clearAllGpxFileToShow() {
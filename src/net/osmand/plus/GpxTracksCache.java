@@ -0,0 +1,287 @@
+package net.osmand.plus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.plus.GPXUtilities.GPXFile;
+import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
+import net.osmand.plus.GPXUtilities.GPXTrackVisitor;
+import net.osmand.plus.GPXUtilities.Track;
+import net.osmand.plus.GPXUtilities.TrackColumns;
+import net.osmand.plus.GPXUtilities.TrkSegment;
+import net.osmand.plus.GPXUtilities.WptPt;
+
+import org.apache.commons.logging.Log;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Binary sidecar cache of gpx tracks analysis.
+ * Entry is valid while size and modification time of the gpx file are the same, so lists of many tracks
+ * show statistics without parsing of xml. Points are read into {@link TrackColumns} only to calculate
+ * the analysis and are not stored.
+ */
+public class GpxTracksCache {
+
+	private static final Log log = PlatformUtil.getLog(GpxTracksCache.class);
+
+	private static final String CACHE_DIR = "gpx_tracks"; //$NON-NLS-1$
+	private static final String CACHE_EXT = ".bin"; //$NON-NLS-1$
+	private static final int VERSION = 2;
+
+	private final OsmandApplication app;
+
+	public GpxTracksCache(OsmandApplication app) {
+		this.app = app;
+	}
+
+	/**
+	 * @return analysis if the cache of the file is valid, null otherwise (the file is not read)
+	 */
+	public GPXTrackAnalysis getCachedAnalysis(File gpx) {
+		DataInputStream in = openCache(gpx);
+		if (in != null) {
+			try {
+				return readAnalysis(in);
+			} catch (IOException e) {
+				log.error("Error reading gpx cache", e); //$NON-NLS-1$
+			} finally {
+				close(in);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return analysis from the cache, the file is read and cached if it is needed. Null if the file can't be read
+	 */
+	public GPXTrackAnalysis getAnalysis(File gpx) {
+		GPXTrackAnalysis analysis = getCachedAnalysis(gpx);
+		if (analysis == null) {
+			long size = gpx.length();
+			long modified = gpx.lastModified();
+			analysis = calculateAnalysis(gpx);
+			if (analysis != null) {
+				writeCache(gpx, size, modified, analysis);
+			}
+		}
+		return analysis;
+	}
+
+	public void remove(File gpx) {
+		getCacheFile(gpx).delete();
+	}
+
+	/**
+	 * Deletes entries of gpx files which don't exist anymore and entries of old versions
+	 */
+	public void prune() {
+		File[] files = getCacheDir().listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File cache : files) {
+			boolean valid = false;
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)));
+				valid = in.readInt() == VERSION && new File(in.readUTF()).exists();
+			} catch (IOException e) {
+				// deleted as invalid
+			} finally {
+				close(in);
+			}
+			if (!valid) {
+				cache.delete();
+			}
+		}
+	}
+
+	private File getCacheDir() {
+		return new File(app.getCacheDir(), CACHE_DIR);
+	}
+
+	private File getCacheFile(File gpx) {
+		String path = gpx.getAbsolutePath();
+		return new File(getCacheDir(), Integer.toHexString(path.hashCode()) + "_"
+				+ Integer.toHexString(path.length()) + CACHE_EXT);
+	}
+
+	private DataInputStream openCache(File gpx) {
+		File cache = getCacheFile(gpx);
+		if (!cache.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)));
+			if (in.readInt() == VERSION && in.readUTF().equals(gpx.getAbsolutePath())
+					&& in.readLong() == gpx.length() && in.readLong() == gpx.lastModified()) {
+				return in;
+			}
+		} catch (IOException e) {
+			log.error("Error reading gpx cache", e); //$NON-NLS-1$
+		}
+		close(in);
+		cache.delete();
+		return null;
+	}
+
+	private GPXTrackAnalysis calculateAnalysis(File gpx) {
+		final List<TrackColumns> segments = new ArrayList<TrackColumns>();
+		final int[] wptPoints = new int[1];
+		InputStream fis = null;
+		try {
+			fis = new FileInputStream(gpx);
+			GPXUtilities.readGPXTracks(fis, new GPXTrackVisitor() {
+
+				@Override
+				public void startSegment() {
+					segments.add(new TrackColumns());
+				}
+
+				@Override
+				public void visitTrackPoint(double lat, double lon, long time, double ele, double speed, double hdop) {
+					segments.get(segments.size() - 1).add(lat, lon, time, ele, speed, hdop);
+				}
+
+				@Override
+				public void visitWayPoint(double lat, double lon) {
+					wptPoints[0]++;
+				}
+			});
+		} catch (IOException e) {
+			log.error("Error reading gpx", e); //$NON-NLS-1$
+			return null;
+		} catch (XmlPullParserException e) {
+			log.error("Error reading gpx", e); //$NON-NLS-1$
+			return null;
+		} finally {
+			close(fis);
+		}
+		// analysis is calculated as for the loaded file
+		GPXFile file = new GPXFile();
+		Track track = new Track();
+		file.tracks.add(track);
+		for (TrackColumns c : segments) {
+			TrkSegment segment = new TrkSegment();
+			segment.setColumns(c);
+			track.segments.add(segment);
+		}
+		GPXTrackAnalysis analysis = file.getAnalysis(gpx.lastModified());
+		analysis.wptPoints = wptPoints[0];
+		return analysis;
+	}
+
+	private synchronized void writeCache(File gpx, long size, long modified, GPXTrackAnalysis analysis) {
+		File cache = getCacheFile(gpx);
+		File tmp = new File(cache.getParentFile(), cache.getName() + ".tmp"); //$NON-NLS-1$
+		cache.getParentFile().mkdirs();
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(VERSION);
+			out.writeUTF(gpx.getAbsolutePath());
+			out.writeLong(size);
+			out.writeLong(modified);
+			writeAnalysis(out, analysis);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(cache)) {
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			log.error("Error writing gpx cache", e); //$NON-NLS-1$
+			close(out);
+			tmp.delete();
+		}
+	}
+
+	private static void writeAnalysis(DataOutputStream out, GPXTrackAnalysis a) throws IOException {
+		out.writeFloat(a.totalDistance);
+		out.writeInt(a.totalTracks);
+		out.writeLong(a.startTime);
+		out.writeLong(a.endTime);
+		out.writeLong(a.timeSpan);
+		out.writeLong(a.timeMoving);
+		out.writeFloat(a.totalDistanceMoving);
+		out.writeDouble(a.diffElevationUp);
+		out.writeDouble(a.diffElevationDown);
+		out.writeDouble(a.avgElevation);
+		out.writeDouble(a.minElevation);
+		out.writeDouble(a.maxElevation);
+		out.writeFloat(a.maxSpeed);
+		out.writeFloat(a.avgSpeed);
+		out.writeInt(a.points);
+		out.writeInt(a.wptPoints);
+		out.writeDouble(a.metricEnd);
+		out.writeDouble(a.secondaryMetricEnd);
+		writePoint(out, a.locationStart);
+		writePoint(out, a.locationEnd);
+	}
+
+	private static GPXTrackAnalysis readAnalysis(DataInputStream in) throws IOException {
+		GPXTrackAnalysis a = new GPXTrackAnalysis();
+		a.totalDistance = in.readFloat();
+		a.totalTracks = in.readInt();
+		a.startTime = in.readLong();
+		a.endTime = in.readLong();
+		a.timeSpan = in.readLong();
+		a.timeMoving = in.readLong();
+		a.totalDistanceMoving = in.readFloat();
+		a.diffElevationUp = in.readDouble();
+		a.diffElevationDown = in.readDouble();
+		a.avgElevation = in.readDouble();
+		a.minElevation = in.readDouble();
+		a.maxElevation = in.readDouble();
+		a.maxSpeed = in.readFloat();
+		a.avgSpeed = in.readFloat();
+		a.points = in.readInt();
+		a.wptPoints = in.readInt();
+		a.metricEnd = in.readDouble();
+		a.secondaryMetricEnd = in.readDouble();
+		a.locationStart = readPoint(in);
+		a.locationEnd = readPoint(in);
+		return a;
+	}
+
+	private static void writePoint(DataOutputStream out, WptPt p) throws IOException {
+		out.writeBoolean(p != null);
+		if (p != null) {
+			out.writeDouble(p.lat);
+			out.writeDouble(p.lon);
+			out.writeLong(p.time);
+			out.writeDouble(p.ele);
+			out.writeDouble(p.speed);
+			out.writeDouble(p.hdop);
+		}
+	}
+
+	private static WptPt readPoint(DataInputStream in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		return new WptPt(in.readDouble(), in.readDouble(), in.readLong(), in.readDouble(), in.readDouble(),
+				in.readDouble());
+	}
+
+	private static void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
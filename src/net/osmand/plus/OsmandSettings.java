@@ -1005,6 +1005,12 @@ public class OsmandSettings {
 	// temporarily for new version
 	public final CommonPreference<Boolean> DISABLE_COMPLEX_ROUTING = new BooleanPreference("disable_complex_routing", false).makeGlobal();
 
+	// calculate legs between intermediate points in parallel (java router)
+	public final CommonPreference<Boolean> PARALLEL_ROUTE_LEGS = new BooleanPreference("parallel_route_legs", false).makeGlobal();
+
+	// precalculate routes from the next junctions in case the turn is missed (offline router)
+	public final CommonPreference<Boolean> SPECULATIVE_ROUTE_DETOURS = new BooleanPreference("speculative_route_detours", false).makeGlobal();
+
 	public final CommonPreference<Boolean> SHOW_TRAFFIC_WARNINGS = new BooleanPreference("show_traffic_warnings", false).makeProfile().cache();
 
 	{
@@ -1127,6 +1133,15 @@ public class OsmandSettings {
 	// this value string is synchronized with settings_pref.xml preference name
 	public final OsmandPreference<Boolean> DEBUG_RENDERING_INFO = new BooleanPreference("debug_rendering", false).makeGlobal();
 
+	// render polygons and lines of the vector map by sub tiles in parallel (java renderer)
+	public final OsmandPreference<Boolean> TILED_MAP_RENDERING = new BooleanPreference("tiled_map_rendering", false).makeGlobal();
+
+	// keep rendered vector map tiles on disk and reuse them (java renderer)
+	public final OsmandPreference<Boolean> RENDERED_TILES_CACHE = new BooleanPreference("rendered_tiles_cache", false).makeGlobal();
+
+	// show the vector map after polygons and lines are drawn, before the whole rendering is finished (java renderer)
+	public final OsmandPreference<Boolean> PROGRESSIVE_MAP_RENDERING = new BooleanPreference("progressive_map_rendering", false).makeGlobal();
+
 	// this value string is synchronized with settings_pref.xml preference name
 	public final OsmandPreference<Boolean> SHOW_FAVORITES = new BooleanPreference("show_favorites", true).makeGlobal().cache();
 
@@ -1311,6 +1326,8 @@ public class OsmandSettings {
 			return checkAmongAvailableTileSources(dir, knownTemplates);
 		} else if (tileName.endsWith(IndexConstants.SQLITE_EXT)) {
 			return new SQLiteTileSource(ctx, dir, knownTemplates);
+		} else if (tileName.endsWith(TilePackSource.EXT)) {
+			return new TilePackSource(dir);
 		} else if (dir.isDirectory() && !dir.getName().startsWith(".")) {
 			TileSourceTemplate t = TileSourceManager.createTileSourceTemplate(dir);
 			if (warnWhenSelected && !t.isRuleAcceptable()) {
@@ -1365,7 +1382,7 @@ public class OsmandSettings {
 			});
 			if (files != null) {
 				for (File f : files) {
-					if (f.getName().endsWith(IndexConstants.SQLITE_EXT)) {
+					if (f.getName().endsWith(IndexConstants.SQLITE_EXT) || f.getName().endsWith(TilePackSource.EXT)) {
 						if (sqlite) {
 							String n = f.getName();
 							map.put(f.getName(), n.substring(0, n.lastIndexOf('.')));
@@ -5,8 +5,13 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import net.osmand.IndexConstants;
 import net.osmand.PlatformUtil;
@@ -51,6 +56,16 @@ public class SQLiteTileSource implements ITileSource {
 	private OsmandApplication ctx;
 	private boolean onlyReadonlyAvailable = false;
 	
+	private static final long PENDING_COORD_MASK = (1L << 29) - 1;
+	private static final long WRITER_IDLE_TIMEOUT = 5000;
+	private static final long WRITER_COMMIT_DELAY = 200;
+	private static final int WRITER_MAX_BATCH = 64;
+	// downloaded tiles not yet written to the database
+	private final Map<Long, byte[]> pendingWrites = new ConcurrentHashMap<Long, byte[]>();
+	private final LinkedBlockingQueue<Long> writeQueue = new LinkedBlockingQueue<Long>();
+	private final Object writeLock = new Object();
+	private boolean writerRunning;
+	
 	
 	
 	public SQLiteTileSource(OsmandApplication ctx, File f, List<TileSourceTemplate> toFindUrl){
@@ -116,11 +131,14 @@ public class SQLiteTileSource implements ITileSource {
 
 		if(TileSourceManager.RULE_BEANSHELL.equalsIgnoreCase(rule)){
 			try {
-				if(bshInterpreter == null){
-					bshInterpreter = new Interpreter();
-					bshInterpreter.eval(urlTemplate);
+				// tiles are requested from several loader threads
+				synchronized (this) {
+					if(bshInterpreter == null){
+						bshInterpreter = new Interpreter();
+						bshInterpreter.eval(urlTemplate);
+					}
+					return (String) bshInterpreter.eval("getTileUrl("+zoom+","+x+","+y+");");
 				}
-				return (String) bshInterpreter.eval("getTileUrl("+zoom+","+x+","+y+");");
 			} catch (bsh.EvalError e) {
 				LOG.debug("getUrlToLoad Error" + e.getMessage());
 				Toast.makeText(ctx, e.getMessage(), Toast.LENGTH_LONG).show();
@@ -164,7 +182,7 @@ public class SQLiteTileSource implements ITileSource {
 		return true;
 	}
 	
-	protected SQLiteConnection getDatabase(){
+	protected synchronized SQLiteConnection getDatabase(){
 		if((db == null || db.isClosed()) && file.exists() ){
 			LOG.debug("Open " + file.getAbsolutePath());
 			try {
@@ -268,6 +286,9 @@ public class SQLiteTileSource implements ITileSource {
 	}
 	
 	public boolean exists(int x, int y, int zoom) {
+		if (pendingWrites.containsKey(getPendingKey(x, y, zoom))) {
+			return true;
+		}
 		SQLiteConnection db = getDatabase();
 		if (db == null) {
 			return false;
@@ -291,6 +312,120 @@ public class SQLiteTileSource implements ITileSource {
 		}
 	}
 	
+	public interface TileVisitor {
+		
+		void visitTile(int x, int y, int zoom);
+	}
+	
+	public interface TileBytesVisitor {
+		
+		void visitTile(int x, int y, byte[] blob, long time);
+	}
+	
+	/**
+	 * Reads all tiles of the rectangle (inclusive bounds) with a single query
+	 * @return false if database couldn't be read
+	 */
+	public boolean getTilesBytes(int zoom, int left, int top, int right, int bottom, TileBytesVisitor visitor) {
+		SQLiteConnection db = getDatabase();
+		if (db == null || zoom > maxZoom) {
+			return false;
+		}
+		long ts = System.currentTimeMillis();
+		int cnt = 0;
+		try {
+			String[] params = new String[] { getFileZoom(zoom) + "", left + "", right + "", top + "", bottom + "" };
+			SQLiteCursor cursor = db.rawQuery("SELECT x, y, image" + (timeSupported ? ", time" : "")
+					+ " FROM tiles WHERE z = ? AND x BETWEEN ? AND ? AND y BETWEEN ? AND ?", params); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				if (cursor.moveToFirst()) {
+					do {
+						int x = (int) cursor.getInt(0);
+						int y = (int) cursor.getInt(1);
+						if (!pendingWrites.containsKey(getPendingKey(x, y, zoom))) {
+							visitor.visitTile(x, y, cursor.getBlob(2), timeSupported ? cursor.getLong(3) : 0);
+							cnt++;
+						}
+					} while (cursor.moveToNext());
+				}
+			} finally {
+				cursor.close();
+			}
+		} catch (SQLiteDiskIOException e) {
+			return false;
+		}
+		for (Map.Entry<Long, byte[]> e : pendingWrites.entrySet()) {
+			long key = e.getKey();
+			int x = (int) ((key >> 29) & PENDING_COORD_MASK);
+			int y = (int) (key & PENDING_COORD_MASK);
+			if ((int) (key >>> 58) == zoom && x >= left && x <= right && y >= top && y <= bottom) {
+				visitor.visitTile(x, y, e.getValue(), ts);
+				cnt++;
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Load " + cnt + " tiles " + left + "-" + right + "/" + top + "-" + bottom + "/" + zoom + " for "
+					+ (System.currentTimeMillis() - ts) + " ms ");
+		}
+		return true;
+	}
+	
+	public int getTilesCount() {
+		SQLiteConnection db = getDatabase();
+		if (db == null) {
+			return 0;
+		}
+		SQLiteCursor cursor = db.rawQuery("SELECT count(*) FROM tiles", null); //$NON-NLS-1$
+		try {
+			return cursor.moveToFirst() ? (int) cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * @return definition of the tiles table or null if it couldn't be read
+	 */
+	public String getTilesTableSchema() {
+		SQLiteConnection db = getDatabase();
+		if (db == null) {
+			return null;
+		}
+		SQLiteCursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'tiles'", null); //$NON-NLS-1$
+		try {
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Iterates over coordinates of all stored tiles
+	 * @return false if database couldn't be read
+	 */
+	public boolean visitTiles(TileVisitor visitor) {
+		SQLiteConnection db = getDatabase();
+		if (db == null) {
+			return false;
+		}
+		try {
+			SQLiteCursor cursor = db.rawQuery("SELECT x, y, z FROM tiles", null); //$NON-NLS-1$
+			try {
+				if (cursor.moveToFirst()) {
+					do {
+						// zoom conversion is symmetric
+						visitor.visitTile((int) cursor.getInt(0), (int) cursor.getInt(1), getFileZoom((int) cursor.getInt(2)));
+					} while (cursor.moveToNext());
+				}
+			} finally {
+				cursor.close();
+			}
+			return true;
+		} catch (SQLiteDiskIOException e) {
+			return false;
+		}
+	}
+	
 	public boolean isLocked() {
 		SQLiteConnection db = getDatabase();
 		if(db == null){
@@ -306,6 +441,13 @@ public class SQLiteTileSource implements ITileSource {
 		}
 		long ts = System.currentTimeMillis();
 		try {
+			byte[] pending = pendingWrites.get(getPendingKey(x, y, zoom));
+			if (pending != null) {
+				if (timeHolder != null && timeHolder.length > 0 && timeSupported) {
+					timeHolder[0] = ts;
+				}
+				return pending;
+			}
 			if (zoom <= maxZoom) {
 				// return the normal tile if exists
 				String[] params = new String[] { x + "", y + "", getFileZoom(zoom) + "" };
@@ -337,6 +479,10 @@ public class SQLiteTileSource implements ITileSource {
 	}
 	
 	public Bitmap getImage(int x, int y, int zoom, long[] timeHolder) {
+		return getImage(x, y, zoom, timeHolder, null);
+	}
+	
+	public Bitmap getImage(int x, int y, int zoom, long[] timeHolder, BitmapFactory.Options options) {
 		SQLiteConnection db = getDatabase();
 		if(db == null){
 			return null;
@@ -349,8 +495,7 @@ public class SQLiteTileSource implements ITileSource {
 			return null;
 		}
 		if (blob != null) {
-			Bitmap bmp = null;
-			bmp = BitmapFactory.decodeByteArray(blob, 0, blob.length);
+			Bitmap bmp = decodeImage(blob, options);
 			if(bmp == null) {
 				// broken image delete it
 				db.execSQL("DELETE FROM tiles WHERE x = ? AND y = ? AND z = ?", params); 
@@ -360,10 +505,23 @@ public class SQLiteTileSource implements ITileSource {
 		return null;
 	}
 	 
+	public static Bitmap decodeImage(byte[] blob, BitmapFactory.Options options) {
+		try {
+			return BitmapFactory.decodeByteArray(blob, 0, blob.length, options);
+		} catch (IllegalArgumentException e) {
+			// reused bitmap doesn't fit
+			return BitmapFactory.decodeByteArray(blob, 0, blob.length);
+		}
+	}
+	 
 	public ITileSource getBase() {
 		return base;
 	}
 	
+	public File getFile() {
+		return file;
+	}
+	
 	public QuadRect getRectBoundary(int coordinatesZoom, int minZ){
 		SQLiteConnection db = getDatabase();
 		if(db == null || coordinatesZoom > 25 ){
@@ -396,7 +554,10 @@ public class SQLiteTileSource implements ITileSource {
 		if(db == null || db.isReadOnly()){
 			return;
 		}
-		db.execSQL("DELETE FROM tiles WHERE x = ? AND y = ? AND z = ?", new String[] {x+"", y+"", getFileZoom(zoom)+""});    //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
+		synchronized (writeLock) {
+			pendingWrites.remove(getPendingKey(x, y, zoom));
+			db.execSQL("DELETE FROM tiles WHERE x = ? AND y = ? AND z = ?", new String[] {x+"", y+"", getFileZoom(zoom)+""});    //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
+		}
 	}
 
 	private static final int BUF_SIZE = 1024;
@@ -421,14 +582,18 @@ public class SQLiteTileSource implements ITileSource {
 		if (db == null || db.isReadOnly() || onlyReadonlyAvailable) {
 			return;
 		}
-		db.execSQL("TRUNCATE TABLE tiles");
+		synchronized (writeLock) {
+			writeQueue.clear();
+			pendingWrites.clear();
+			db.execSQL("TRUNCATE TABLE tiles");
+		}
 	}
 	
 	/**
-	 * Makes method synchronized to give a little more time for get methods and 
-	 * let all writing attempts to wait outside of this method   
+	 * Tile is queued and written by the writer thread together with other downloaded tiles
+	 * in one transaction, till then it is read from memory.
 	 */
-	public /*synchronized*/ void insertImage(int x, int y, int zoom, byte[] dataToSave) throws IOException {
+	public void insertImage(int x, int y, int zoom, byte[] dataToSave) throws IOException {
 		SQLiteConnection db = getDatabase();
 		if (db == null || db.isReadOnly() || onlyReadonlyAvailable) {
 			return;
@@ -437,21 +602,130 @@ public class SQLiteTileSource implements ITileSource {
 		  if (exists(x, y, zoom)) {
 			return;
 		}*/
-		
+		long key = getPendingKey(x, y, zoom);
+		pendingWrites.put(key, dataToSave);
+		writeQueue.add(key);
+		synchronized (writeQueue) {
+			if (!writerRunning) {
+				writerRunning = true;
+				new Thread(new TileWriter(), "Tiles writer " + name).start(); //$NON-NLS-1$
+			}
+		}
+	}
+	
+	private class TileWriter implements Runnable {
+
+		@Override
+		public void run() {
+			List<Long> batch = new ArrayList<Long>();
+			while (true) {
+				try {
+					Long key = writeQueue.poll(WRITER_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+					if (key == null) {
+						synchronized (writeQueue) {
+							if (writeQueue.isEmpty()) {
+								writerRunning = false;
+								return;
+							}
+						}
+						continue;
+					}
+					batch.add(key);
+					// let tiles downloaded at the same time go to the same transaction
+					Thread.sleep(WRITER_COMMIT_DELAY);
+					writeQueue.drainTo(batch, WRITER_MAX_BATCH - 1);
+					writeTiles(batch);
+				} catch (InterruptedException e) {
+					LOG.error(e, e);
+				} catch (RuntimeException e) {
+					LOG.error(e, e);
+				} finally {
+					batch.clear();
+				}
+			}
+		}
+	}
+	
+	private void writeTiles(List<Long> keys) {
+		synchronized (writeLock) {
+			// tiles could be already written by closeDB (or deleted), then database is not reopened
+			byte[][] written = new byte[keys.size()][];
+			boolean pending = false;
+			for (int i = 0; i < keys.size(); i++) {
+				written[i] = pendingWrites.get(keys.get(i));
+				pending |= written[i] != null;
+			}
+			if (!pending) {
+				return;
+			}
+			try {
+				writeTiles(keys, written);
+			} finally {
+				// failed tiles are not kept in memory forever, they are downloaded again
+				for (int i = 0; i < keys.size(); i++) {
+					if (written[i] != null) {
+						// newer version could be queued meanwhile
+						pendingWrites.remove(keys.get(i), written[i]);
+					}
+				}
+			}
+		}
+	}
+
+	private void writeTiles(List<Long> keys, byte[][] tiles) {
+		SQLiteConnection db = getDatabase();
+		if (db == null || db.isReadOnly() || onlyReadonlyAvailable) {
+			return;
+		}
+		long time = System.currentTimeMillis();
 		String query = timeSupported ? "INSERT OR REPLACE INTO tiles(x,y,z,s,image,time) VALUES(?, ?, ?, ?, ?, ?)"
 				: "INSERT OR REPLACE INTO tiles(x,y,z,s,image) VALUES(?, ?, ?, ?, ?)";
-		net.osmand.plus.api.SQLiteAPI.SQLiteStatement statement = db.compileStatement(query); //$NON-NLS-1$
-		statement.bindLong(1, x);
-		statement.bindLong(2, y);
-		statement.bindLong(3, getFileZoom(zoom));
-		statement.bindLong(4, 0);
-		statement.bindBlob(5, dataToSave);
-		if (timeSupported) {
-			statement.bindLong(6, System.currentTimeMillis());
+		db.beginTransaction();
+		try {
+			net.osmand.plus.api.SQLiteAPI.SQLiteStatement statement = db.compileStatement(query); //$NON-NLS-1$
+			try {
+				for (int i = 0; i < keys.size(); i++) {
+					long key = keys.get(i);
+					byte[] data = tiles[i];
+					if (data == null) {
+						continue;
+					}
+					statement.bindLong(1, (key >> 29) & PENDING_COORD_MASK);
+					statement.bindLong(2, key & PENDING_COORD_MASK);
+					statement.bindLong(3, getFileZoom((int) (key >>> 58)));
+					statement.bindLong(4, 0);
+					statement.bindBlob(5, data);
+					if (timeSupported) {
+						statement.bindLong(6, time);
+					}
+					statement.execute();
+				}
+			} finally {
+				statement.close();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Write " + keys.size() + " tiles for " + (System.currentTimeMillis() - time) + " ms");
 		}
-		statement.execute();
-		statement.close();
-
+	}
+	
+	/**
+	 * Writes all downloaded tiles including the batch taken by the writer thread
+	 * (it skips tiles written here, so it doesn't reopen the closed database)
+	 */
+	private void flushPendingWrites() {
+		writeQueue.clear();
+		List<Long> keys = new ArrayList<Long>(pendingWrites.keySet());
+		if (!keys.isEmpty()) {
+			writeTiles(keys);
+		}
+	}
+	
+	private static long getPendingKey(int x, int y, int zoom) {
+		return ((long) zoom << 58) | ((x & PENDING_COORD_MASK) << 29) | (y & PENDING_COORD_MASK);
 	}
 
 	private int getFileZoom(int zoom) {
@@ -461,11 +735,14 @@ public class SQLiteTileSource implements ITileSource {
 	public void closeDB(){
 		LOG.debug("closeDB");
 		bshInterpreter = null;
-		if(timeSupported)
-			clearOld();
-		if(db != null){
-			db.close();
-			db = null;
+		synchronized (writeLock) {
+			flushPendingWrites();
+			if(timeSupported)
+				clearOld();
+			if(db != null){
+				db.close();
+				db = null;
+			}
 		}
 	}
 
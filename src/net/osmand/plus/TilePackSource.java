@@ -0,0 +1,496 @@
+package net.osmand.plus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.map.ITileSource;
+import net.osmand.map.TileSourceManager;
+import net.osmand.map.TileSourceManager.TileSourceTemplate;
+import net.osmand.plus.api.SQLiteAPI.SQLiteConnection;
+import net.osmand.plus.api.SQLiteAPI.SQLiteCursor;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+
+import android.graphics.BitmapFactory;
+
+/**
+ * Read-only tile source backed by a memory mapped tile pack :
+ * <pre>
+ * header (64 bytes) : magic, version, min zoom, max zoom, tile size, bit density, flags, tiles count,
+ *                     index offset (long), blobs offset (long), tile format (16 bytes ascii)
+ * index : tiles count entries of 24 bytes (key (long), blob offset (long), blob length (int), reserved (int))
+ *         sorted by key = zoom, x, y
+ * blobs : tile images, a blob never crosses 1 GB boundary (it is mapped by 1 GB chunks)
+ * </pre>
+ * Lookup is a binary search in the mapped index, there are no cursors or sqlite page cache.
+ * Chunks of blobs are mapped on first access, if there is no address space for a chunk
+ * (32-bit devices) tiles are read from the file.
+ * Packs are created from sqlitedb and MBTiles files by {@link #importSQLiteTiles}.
+ */
+public class TilePackSource implements ITileSource {
+
+	public static final String EXT = ".tilepack"; //$NON-NLS-1$
+	private static final Log LOG = PlatformUtil.getLog(TilePackSource.class);
+
+	private static final int MAGIC = 0x4f54504b; // OTPK
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int FORMAT_SIZE = 16;
+	private static final int ENTRY_SIZE = 24;
+	private static final int FLAG_ELLIPSOID = 1;
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+	private static final long COORD_MASK = (1L << 29) - 1;
+	private static final String MBTILES_EXT = ".mbtiles"; //$NON-NLS-1$
+
+	private final File file;
+	private final String name;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private ByteBuffer index;
+	private long blobsOffset;
+	// mapped on demand
+	private ByteBuffer[] blobs;
+	private boolean mappingFailed;
+	private int tilesCount;
+	private int minZoom = 1;
+	private int maxZoom = 17;
+	private int tileSize = 256;
+	private int bitDensity = 16;
+	private boolean ellipsoid;
+	private String tileFormat = ".png"; //$NON-NLS-1$
+	private boolean opened;
+
+	public TilePackSource(File file) {
+		this.file = file;
+		String n = file.getName();
+		this.name = n.endsWith(EXT) ? n.substring(0, n.length() - EXT.length()) : n;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private synchronized boolean open() {
+		if (opened) {
+			return index != null;
+		}
+		opened = true;
+		try {
+			raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+			FileChannel ch = raf.getChannel();
+			channel = ch;
+			MappedByteBuffer header = ch.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				LOG.error("Tile pack " + file.getName() + " has unsupported format"); //$NON-NLS-1$ //$NON-NLS-2$
+				close();
+				return false;
+			}
+			minZoom = header.getInt();
+			maxZoom = header.getInt();
+			tileSize = header.getInt();
+			bitDensity = header.getInt();
+			ellipsoid = (header.getInt() & FLAG_ELLIPSOID) != 0;
+			tilesCount = header.getInt();
+			long indexOffset = header.getLong();
+			blobsOffset = header.getLong();
+			byte[] format = new byte[FORMAT_SIZE];
+			header.get(format);
+			int l = 0;
+			while (l < format.length && format[l] != 0) {
+				l++;
+			}
+			tileFormat = new String(format, 0, l, "US-ASCII"); //$NON-NLS-1$
+			index = ch.map(MapMode.READ_ONLY, indexOffset, (long) tilesCount * ENTRY_SIZE);
+			long blobsSize = ch.size() - blobsOffset;
+			blobs = new ByteBuffer[(int) ((blobsSize + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			mappingFailed = false;
+			return true;
+		} catch (IOException e) {
+			LOG.error("Tile pack " + file.getName() + " couldn't be opened", e); //$NON-NLS-1$ //$NON-NLS-2$
+			close();
+			return false;
+		}
+	}
+
+	/**
+	 * Releases the file, mapped memory is released by garbage collector
+	 */
+	public synchronized void close() {
+		index = null;
+		blobs = null;
+		channel = null;
+		tilesCount = 0;
+		opened = false;
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				LOG.warn(e.getMessage(), e);
+			}
+			raf = null;
+		}
+	}
+
+	private int findTile(ByteBuffer index, int count, long key) {
+		int lo = 0;
+		int hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long k = index.getLong(mid * ENTRY_SIZE);
+			if (k < key) {
+				lo = mid + 1;
+			} else if (k > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public boolean exists(int x, int y, int zoom) {
+		if (!open()) {
+			return false;
+		}
+		ByteBuffer index = this.index;
+		return index != null && findTile(index, tilesCount, encode(x, y, zoom)) >= 0;
+	}
+
+	@Override
+	public byte[] getBytes(int x, int y, int zoom, String dirWithTiles) throws IOException {
+		if (!open()) {
+			return null;
+		}
+		ByteBuffer index = this.index;
+		ByteBuffer[] blobs = this.blobs;
+		if (index == null) {
+			return null;
+		}
+		int i = findTile(index, tilesCount, encode(x, y, zoom));
+		if (i < 0) {
+			return null;
+		}
+		long offset = index.getLong(i * ENTRY_SIZE + 8);
+		int length = index.getInt(i * ENTRY_SIZE + 16);
+		byte[] blob = new byte[length];
+		ByteBuffer chunk = getChunk((int) (offset >>> CHUNK_BITS));
+		if (chunk != null) {
+			chunk.position((int) (offset & (CHUNK_SIZE - 1)));
+			chunk.get(blob);
+		} else {
+			FileChannel ch = channel;
+			if (ch == null) {
+				return null;
+			}
+			ByteBuffer buf = ByteBuffer.wrap(blob);
+			long pos = blobsOffset + offset;
+			while (buf.hasRemaining()) {
+				int r = ch.read(buf, pos);
+				if (r < 0) {
+					throw new IOException("Unexpected end of " + file.getName()); //$NON-NLS-1$
+				}
+				pos += r;
+			}
+		}
+		return blob;
+	}
+
+	/**
+	 * @return duplicate of the mapped chunk or null if it can't be mapped
+	 */
+	private synchronized ByteBuffer getChunk(int i) {
+		if (blobs == null || i >= blobs.length) {
+			return null;
+		}
+		if (blobs[i] == null && !mappingFailed) {
+			try {
+				long blobsSize = channel.size() - blobsOffset;
+				long start = i * CHUNK_SIZE;
+				blobs[i] = channel.map(MapMode.READ_ONLY, blobsOffset + start, Math.min(CHUNK_SIZE, blobsSize - start));
+			} catch (IOException e) {
+				// not enough address space, tiles are read from the file
+				LOG.warn("Tile pack " + file.getName() + " couldn't be mapped", e); //$NON-NLS-1$ //$NON-NLS-2$
+				mappingFailed = true;
+			}
+		}
+		return blobs[i] == null ? null : blobs[i].duplicate();
+	}
+
+	@Override
+	public int getBitDensity() {
+		open();
+		return bitDensity;
+	}
+
+	@Override
+	public int getMaximumZoomSupported() {
+		open();
+		return maxZoom;
+	}
+
+	@Override
+	public int getMinimumZoomSupported() {
+		open();
+		return minZoom;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getTileFormat() {
+		open();
+		return tileFormat;
+	}
+
+	@Override
+	public int getTileSize() {
+		open();
+		return tileSize;
+	}
+
+	@Override
+	public String getUrlToLoad(int x, int y, int zoom) {
+		return null;
+	}
+
+	@Override
+	public void clearTiles(String path) {
+		// read only
+	}
+
+	@Override
+	public boolean couldBeDownloadedFromInternet() {
+		return false;
+	}
+
+	@Override
+	public boolean isEllipticYTile() {
+		open();
+		return ellipsoid;
+	}
+
+	public int getExpirationTimeMinutes() {
+		return -1;
+	}
+
+	public int getExpirationTimeMillis() {
+		return -1;
+	}
+
+	public String getReferer() {
+		return null;
+	}
+
+	@Override
+	public int hashCode() {
+		return file.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		return file.equals(((TilePackSource) obj).file);
+	}
+
+	private static long encode(int x, int y, int zoom) {
+		return ((long) zoom << 58) | ((x & COORD_MASK) << 29) | (y & COORD_MASK);
+	}
+
+	/**
+	 * @return file of the tile pack converted from the sqlitedb or MBTiles file (in the same directory)
+	 */
+	public static File getTilePackFile(File source) {
+		String n = source.getName();
+		int i = n.lastIndexOf('.');
+		return new File(source.getParentFile(), (i > 0 ? n.substring(0, i) : n) + EXT);
+	}
+
+	/**
+	 * Converts sqlitedb (OsmAnd / BigPlanet) or MBTiles file into a tile pack
+	 */
+	public static void importSQLiteTiles(OsmandApplication ctx, File source, File target) throws IOException {
+		boolean mbtiles = source.getName().endsWith(MBTILES_EXT);
+		SQLiteConnection db = ctx.getSQLiteAPI().openByAbsolutePath(source.getAbsolutePath(), true);
+		if (db == null) {
+			throw new IOException("Can't open " + source.getName()); //$NON-NLS-1$
+		}
+		File tmp = new File(target.getParentFile(), target.getName() + ".tmp"); //$NON-NLS-1$
+		RandomAccessFile out = null;
+		long time = System.currentTimeMillis();
+		try {
+			boolean inversiveZoom = true;
+			boolean ellipsoid = false;
+			String format = ".png"; //$NON-NLS-1$
+			int bitDensity = 16;
+			String query;
+			if (mbtiles) {
+				inversiveZoom = false;
+				String f = readMetaInfo(db, "SELECT value FROM metadata WHERE name = 'format'"); //$NON-NLS-1$
+				if (!Algorithms.isEmpty(f)) {
+					format = "." + f.toLowerCase(); //$NON-NLS-1$
+				}
+				// TMS y axis is flipped
+				query = "SELECT zoom_level, tile_column, tile_row, tile_data FROM tiles " //$NON-NLS-1$
+						+ "ORDER BY zoom_level, tile_column, tile_row DESC"; //$NON-NLS-1$
+			} else {
+				inversiveZoom = isInversiveZoom(db);
+				ellipsoid = "1".equals(readMetaInfo(db, "SELECT ellipsoid FROM info")); //$NON-NLS-1$ //$NON-NLS-2$
+				// format and density are defined by the known source which the file is named after
+				List<TileSourceTemplate> templates = TileSourceManager.getKnownSourceTemplates();
+				SQLiteTileSource meta = new SQLiteTileSource(ctx, source, templates);
+				format = meta.getTileFormat();
+				bitDensity = meta.getBitDensity();
+				query = "SELECT z, x, y, image FROM tiles ORDER BY z " + (inversiveZoom ? "DESC" : "ASC") + ", x, y"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			}
+			int count = 0;
+			SQLiteCursor c = db.rawQuery("SELECT count(*) FROM tiles", null); //$NON-NLS-1$
+			if (c.moveToFirst()) {
+				count = (int) c.getInt(0);
+			}
+			c.close();
+
+			out = new RandomAccessFile(tmp, "rw"); //$NON-NLS-1$
+			out.setLength(0);
+			FileChannel ch = out.getChannel();
+			long indexOffset = HEADER_SIZE;
+			long blobsOffset = indexOffset + (long) count * ENTRY_SIZE;
+			ByteBuffer indexBuf = ByteBuffer.allocate(ENTRY_SIZE * 1024).order(ByteOrder.BIG_ENDIAN);
+			long indexPos = indexOffset;
+			long blobPos = 0;
+			long lastKey = -1;
+			int written = 0;
+			int minZoom = Integer.MAX_VALUE;
+			int maxZoom = 0;
+			int tileSize = 0;
+			c = db.rawQuery(query, null);
+			try {
+				if (c.moveToFirst()) {
+					do {
+						int zoom = (int) c.getInt(0);
+						int x = (int) c.getInt(1);
+						int y = (int) c.getInt(2);
+						if (mbtiles) {
+							y = (1 << zoom) - 1 - y;
+						} else if (inversiveZoom) {
+							zoom = 17 - zoom;
+						}
+						byte[] blob = c.getBlob(3);
+						long key = encode(x, y, zoom);
+						if (blob == null || blob.length == 0 || key == lastKey || written == count) {
+							continue;
+						}
+						if (key < lastKey) {
+							throw new IOException("Tiles are not sorted in " + source.getName()); //$NON-NLS-1$
+						}
+						if (tileSize == 0) {
+							tileSize = getImageSize(blob);
+						}
+						if ((blobPos >>> CHUNK_BITS) != ((blobPos + blob.length - 1) >>> CHUNK_BITS)) {
+							// blob shouldn't cross mapped chunk
+							blobPos = ((blobPos >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+						}
+						ch.write(ByteBuffer.wrap(blob), blobsOffset + blobPos);
+						indexBuf.putLong(key).putLong(blobPos).putInt(blob.length).putInt(0);
+						if (!indexBuf.hasRemaining()) {
+							indexBuf.flip();
+							indexPos += ch.write(indexBuf, indexPos);
+							indexBuf.clear();
+						}
+						blobPos += blob.length;
+						lastKey = key;
+						written++;
+						minZoom = Math.min(minZoom, zoom);
+						maxZoom = Math.max(maxZoom, zoom);
+					} while (c.moveToNext());
+				}
+			} finally {
+				c.close();
+			}
+			indexBuf.flip();
+			ch.write(indexBuf, indexPos);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION);
+			header.putInt(written == 0 ? 1 : minZoom).putInt(written == 0 ? 17 : maxZoom);
+			header.putInt(tileSize > 0 ? tileSize : 256).putInt(bitDensity).putInt(ellipsoid ? FLAG_ELLIPSOID : 0);
+			header.putInt(written).putLong(indexOffset).putLong(blobsOffset);
+			byte[] f = format.getBytes("US-ASCII"); //$NON-NLS-1$
+			header.put(f, 0, Math.min(f.length, FORMAT_SIZE));
+			header.position(HEADER_SIZE);
+			header.flip();
+			ch.write(header, 0);
+			ch.force(true);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(target)) {
+				throw new IOException("Can't rename " + tmp.getName()); //$NON-NLS-1$
+			}
+			LOG.info("Tile pack " + target.getName() + " imported " + written + " tiles for " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					+ (System.currentTimeMillis() - time) + " ms"); //$NON-NLS-1$
+		} finally {
+			if (out != null) {
+				out.close();
+				tmp.delete();
+			}
+			db.close();
+		}
+	}
+
+	// tile size is not stored in sqlitedb and MBTiles, it is taken from the first image
+	private static int getImageSize(byte[] blob) {
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
+		return Math.max(opts.outWidth, 0);
+	}
+
+	/**
+	 * The same as {@link SQLiteTileSource} : BigPlanet numbering if there is no tilenumbering column,
+	 * otherwise only if the column says so (null value is not inversive)
+	 */
+	private static boolean isInversiveZoom(SQLiteConnection db) {
+		try {
+			SQLiteCursor c = db.rawQuery("SELECT tilenumbering FROM info", null); //$NON-NLS-1$
+			try {
+				return !c.moveToFirst() || "BigPlanet".equalsIgnoreCase(c.getString(0)); //$NON-NLS-1$
+			} finally {
+				c.close();
+			}
+		} catch (RuntimeException e) {
+			// column or table is absent
+			return true;
+		}
+	}
+
+	private static String readMetaInfo(SQLiteConnection db, String query) {
+		try {
+			SQLiteCursor c = db.rawQuery(query, null);
+			try {
+				return c.moveToFirst() ? c.getString(0) : null;
+			} finally {
+				c.close();
+			}
+		} catch (RuntimeException e) {
+			// column or table is absent
+			return null;
+		}
+	}
+}
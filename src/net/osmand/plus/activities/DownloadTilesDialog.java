@@ -162,11 +162,11 @@ public class DownloadTilesDialog {
 						int y2 = (int) MapUtils.getTileNumberY(z, latlonRect.bottom);
 						for (int x = x1; x <= x2 && !cancel; x++) {
 							for (int y = y1; y <= y2 && !cancel; y++) {
-								String tileId = rm.calculateTileId(map, x, y, z);
-								if (rm.tileExistOnFileSystem(tileId, map, x, y, z)) {
+								long tileKey = rm.calculateTileKey(map, x, y, z);
+								if (rm.tileExistOnFileSystem(tileKey, map, x, y, z)) {
 									progressDlg.setProgress(progressDlg.getProgress() + 1);
 								} else {
-									rm.getTileImageForMapSync(tileId, map, x, y, z, true);
+									rm.getTileImageForMapSync(tileKey, map, x, y, z, true);
 									requests++;
 								}
 								if (!cancel) {
@@ -12,6 +12,7 @@ import net.osmand.map.TileSourceManager;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.R;
 import net.osmand.plus.SQLiteTileSource;
+import net.osmand.plus.TilePackSource;
 import net.osmand.plus.download.ui.AbstractLoadLocalIndexTask;
 import net.osmand.plus.voice.MediaCommandPlayerImpl;
 import net.osmand.plus.voice.TTSCommandPlayerImpl;
@@ -69,6 +70,8 @@ public class LocalIndexHelper {
 				template = TileSourceManager.createTileSourceTemplate(new File(info.getPathToData()));
 			} else if (f.isFile() && f.getName().endsWith(SQLiteTileSource.EXT)) {
 				template = new SQLiteTileSource(app, f, TileSourceManager.getKnownSourceTemplates());
+			} else if (f.isFile() && f.getName().endsWith(TilePackSource.EXT)) {
+				template = new TilePackSource(f);
 			} else {
 				return;
 			}
@@ -258,7 +261,8 @@ public class LocalIndexHelper {
 	private void loadTilesData(File tilesPath, List<LocalIndexInfo> result, boolean backup, AbstractLoadLocalIndexTask loadTask) {
 		if (tilesPath.canRead()) {
 			for (File tileFile : listFilesSorted(tilesPath)) {
-				if (tileFile.isFile() && tileFile.getName().endsWith(SQLiteTileSource.EXT)) {
+				if (tileFile.isFile() && (tileFile.getName().endsWith(SQLiteTileSource.EXT)
+						|| tileFile.getName().endsWith(TilePackSource.EXT))) {
 					LocalIndexInfo info = new LocalIndexInfo(LocalIndexType.TILES_DATA, tileFile, backup, app);
 					updateDescription(info);
 					result.add(info);
@@ -385,6 +389,9 @@ public class LocalIndexHelper {
 			if (fileName.endsWith(IndexConstants.SQLITE_EXT)) {
 				return fileName.substring(0, fileName.length() - IndexConstants.SQLITE_EXT.length());
 			}
+			if (fileName.endsWith(TilePackSource.EXT)) {
+				return fileName.substring(0, fileName.length() - TilePackSource.EXT.length());
+			}
 			if (this == VOICE_DATA) {
 				int l = fileName.lastIndexOf('_');
 				if (l == -1) {
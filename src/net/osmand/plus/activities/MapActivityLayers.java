@@ -26,6 +26,7 @@ import net.osmand.plus.OsmandSettings;
 import net.osmand.plus.OsmandSettings.CommonPreference;
 import net.osmand.plus.R;
 import net.osmand.plus.SQLiteTileSource;
+import net.osmand.plus.TilePackSource;
 import net.osmand.plus.activities.MapActivity.ShowQuickSearchMode;
 import net.osmand.plus.helpers.GpxUiHelper;
 import net.osmand.plus.poi.PoiFiltersHelper;
@@ -199,6 +200,8 @@ public class MapActivityLayers {
 		if (newSource != oldMap) {
 			if (oldMap instanceof SQLiteTileSource) {
 				((SQLiteTileSource) oldMap).closeDB();
+			} else if (oldMap instanceof TilePackSource) {
+				((TilePackSource) oldMap).close();
 			}
 			mapTileLayer.setMap(newSource);
 		}
@@ -3,11 +3,14 @@ package net.osmand.plus.activities;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.text.format.DateFormat;
+import gnu.trove.set.hash.TLongHashSet;
 import net.osmand.PlatformUtil;
 import net.osmand.data.LatLon;
 import net.osmand.plus.GPXUtilities;
 import net.osmand.plus.GPXUtilities.GPXFile;
+import net.osmand.plus.GPXUtilities.GPXStreamWriter;
 import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
 import net.osmand.plus.GPXUtilities.Track;
 import net.osmand.plus.GPXUtilities.TrkSegment;
@@ -17,6 +20,7 @@ import net.osmand.plus.OsmAndLocationProvider;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.OsmandPlugin;
 import net.osmand.plus.OsmandSettings;
+import net.osmand.plus.R;
 import net.osmand.plus.monitoring.OsmandMonitoringPlugin;
 import net.osmand.plus.notifications.OsmandNotification;
 import net.osmand.plus.notifications.OsmandNotification.NotificationType;
@@ -24,14 +28,28 @@ import net.osmand.util.MapUtils;
 
 import org.apache.commons.logging.Log;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 public class SavingTrackHelper extends SQLiteOpenHelper {
 	
@@ -57,6 +75,14 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 
 	public final static Log log = PlatformUtil.getLog(SavingTrackHelper.class);
 
+	// recorded fixes are written to the database in batches : every FLUSH_POINTS points or FLUSH_INTERVAL
+	private static final int FLUSH_POINTS = 60;
+	private static final long FLUSH_INTERVAL = 60 * 1000;
+	// journal of not written fixes is synced to the storage at most once per interval
+	private static final long JOURNAL_SYNC_INTERVAL = 10 * 1000;
+	private static final String JOURNAL_SUFFIX = "_journal"; //$NON-NLS-1$
+	private static final String RECOVERY_SUFFIX = "_recovery_"; //$NON-NLS-1$
+
 	private String updateScript;
 	private String insertPointsScript;
 
@@ -68,6 +94,17 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 	private long duration = 0;
 	private SelectedGpxFile currentTrack;
 	private int points;
+
+	// guards pending points and the journal (database is guarded by the helper itself)
+	private final Object pendingLock = new Object();
+	private final PendingPoints pending = new PendingPoints();
+	private final File journalFile;
+	private FileOutputStream journal;
+	private final ByteBuffer journalRecord = ByteBuffer.allocate(PendingPoints.RECORD_SIZE);
+	private long lastJournalSync;
+	private boolean journalRecovered;
+	private boolean flushScheduled;
+	private ScheduledExecutorService flushExecutor;
 	
 	public SavingTrackHelper(OsmandApplication ctx){
 		super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
@@ -84,6 +121,12 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 				+ " VALUES (?, ?, ?, ?, ?, ?)"; //$NON-NLS-1$ //$NON-NLS-2$
 
 		insertPointsScript = "INSERT INTO " + POINT_NAME + " VALUES (?, ?, ?, ?, ?, ?, ?)"; //$NON-NLS-1$ //$NON-NLS-2$
+		journalFile = ctx.getDatabasePath(DATABASE_NAME + JOURNAL_SUFFIX);
+		// journal left by the previous process is recovered alone, fixes of this process go to a new one
+		if (journalFile.exists() && !journalFile.renameTo(new File(journalFile.getParentFile(),
+				journalFile.getName() + RECOVERY_SUFFIX + System.currentTimeMillis()))) {
+			log.error("Track journal couldn't be renamed for recovery"); //$NON-NLS-1$
+		}
 	}
 
 	@Override
@@ -127,6 +170,7 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 	
 	
 	public long getLastTrackPointTime() {
+		flushPendingPoints();
 		long res = 0;
 		try {
 			SQLiteDatabase db = getWritableDatabase();
@@ -147,6 +191,7 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 	}
 		
 	public synchronized boolean hasDataToSave() {
+		flushPendingPoints();
 		try {
 			SQLiteDatabase db = getWritableDatabase();
 			if (db != null) {
@@ -184,29 +229,25 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 	}
 	
 	/**
+	 * Points are written from the database into one gpx file per day, the file of the day saved before is continued.
 	 * @return warnings
 	 */
 	public synchronized List<String> saveDataToGpx(File dir ) {
+		flushPendingPoints();
+		// points recorded after this time stay in the database
+		long exportTime = System.currentTimeMillis();
 		List<String> warnings = new ArrayList<String>();
 		dir.mkdirs();
 		if (dir.getParentFile().canWrite()) {
 			if (dir.exists()) {
-				Map<String, GPXFile> data = collectRecordedData();
-
-				// save file
-				for (final String f : data.keySet()) {
-					File fout = new File(dir, f + ".gpx"); //$NON-NLS-1$
-					if (!data.get(f).isEmpty()) {
-						WptPt pt = data.get(f).findPointToShow();
-						String fileName = f + "_" + new SimpleDateFormat("HH-mm_EEE", Locale.US).format(new Date(pt.time)); //$NON-NLS-1$
-						fout = new File(dir, fileName + ".gpx"); //$NON-NLS-1$
-						int ind = 1;
-						while (fout.exists()) {
-							fout = new File(dir, fileName + "_" + (++ind) + ".gpx"); //$NON-NLS-1$ //$NON-NLS-2$
-						}
+				SQLiteDatabase db = getReadableDatabase();
+				if (db != null && db.isOpen()) {
+					String warn;
+					try {
+						warn = new RecordedDataExporter(db, dir, exportTime).export();
+					} finally {
+						db.close();
 					}
-
-					String warn = GPXUtilities.writeGpxFile(fout, data.get(f), ctx);
 					if (warn != null) {
 						warnings.add(warn);
 						return warnings;
@@ -219,8 +260,8 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 		if (db != null && warnings.isEmpty() && db.isOpen()) {
 			try {
 				// remove all from db
-				db.execSQL("DELETE FROM " + TRACK_NAME + " WHERE " + TRACK_COL_DATE + " <= ?", new Object[] { System.currentTimeMillis() }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-				db.execSQL("DELETE FROM " + POINT_NAME + " WHERE " + POINT_COL_DATE + " <= ?", new Object[] { System.currentTimeMillis() }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				db.execSQL("DELETE FROM " + TRACK_NAME + " WHERE " + TRACK_COL_DATE + " <= ?", new Object[] { exportTime }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				db.execSQL("DELETE FROM " + POINT_NAME + " WHERE " + POINT_COL_DATE + " <= ?", new Object[] { exportTime }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				// delete all
 				//			db.execSQL("DELETE FROM " + TRACK_NAME + " WHERE 1 = 1", new Object[] { }); //$NON-NLS-1$ //$NON-NLS-2$
 				//			db.execSQL("DELETE FROM " + POINT_NAME + " WHERE 1 = 1", new Object[] { }); //$NON-NLS-1$ //$NON-NLS-2$
@@ -240,6 +281,7 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 	}
 
 	public Map<String, GPXFile> collectRecordedData() {
+		flushPendingPoints();
 		Map<String, GPXFile> data = new LinkedHashMap<String, GPXFile>();
 		SQLiteDatabase db = getReadableDatabase();
 		if (db != null && db.isOpen()) {
@@ -254,29 +296,11 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 	}
 
 	private void collectDBPoints(SQLiteDatabase db, Map<String, GPXFile> dataTracks) {
-		Cursor query = db.rawQuery("SELECT " + POINT_COL_LAT + "," + POINT_COL_LON + "," + POINT_COL_DATE + "," //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-				+ POINT_COL_DESCRIPTION + "," + POINT_COL_NAME + "," + POINT_COL_CATEGORY + "," + POINT_COL_COLOR + " FROM " + POINT_NAME+" ORDER BY " + POINT_COL_DATE +" ASC", null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Cursor query = db.rawQuery(getPointsQuery(""), null); //$NON-NLS-1$
 		if (query.moveToFirst()) {
 			do {
-				WptPt pt = new WptPt();
-				pt.lat = query.getDouble(0);
-				pt.lon = query.getDouble(1);
-				long time = query.getLong(2);
-				pt.time = time;
-				pt.desc = query.getString(3);
-				pt.name = query.getString(4);
-				pt.category = query.getString(5);
-				int color = query.getInt(6);
-				if (color != 0) {
-					pt.setColor(color);
-				}
-
-				// check if name is extension (needed for audio/video plugin & josm integration)
-				if(pt.name != null && pt.name.length() > 4 && pt.name.charAt(pt.name.length() - 4) == '.') {
-					pt.link = pt.name;
-				}
-				
-				String date = DateFormat.format("yyyy-MM-dd", time).toString(); //$NON-NLS-1$
+				WptPt pt = readDBPoint(query);
+				String date = DateFormat.format("yyyy-MM-dd", pt.time).toString(); //$NON-NLS-1$
 				GPXFile gpx;
 				if (dataTracks.containsKey(date)) {
 					gpx = dataTracks.get(date);
@@ -290,10 +314,34 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 		}
 		query.close();
 	}
-	
+
+	private static String getPointsQuery(String where) {
+		return "SELECT " + POINT_COL_LAT + "," + POINT_COL_LON + "," + POINT_COL_DATE + "," //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				+ POINT_COL_DESCRIPTION + "," + POINT_COL_NAME + "," + POINT_COL_CATEGORY + "," + POINT_COL_COLOR + " FROM " + POINT_NAME + where + " ORDER BY " + POINT_COL_DATE +" ASC"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private static WptPt readDBPoint(Cursor query) {
+		WptPt pt = new WptPt();
+		pt.lat = query.getDouble(0);
+		pt.lon = query.getDouble(1);
+		pt.time = query.getLong(2);
+		pt.desc = query.getString(3);
+		pt.name = query.getString(4);
+		pt.category = query.getString(5);
+		int color = query.getInt(6);
+		if (color != 0) {
+			pt.setColor(color);
+		}
+
+		// check if name is extension (needed for audio/video plugin & josm integration)
+		if(pt.name != null && pt.name.length() > 4 && pt.name.charAt(pt.name.length() - 4) == '.') {
+			pt.link = pt.name;
+		}
+		return pt;
+	}
+
 	private void collectDBTracks(SQLiteDatabase db, Map<String, GPXFile> dataTracks) {
-		Cursor query = db.rawQuery("SELECT " + TRACK_COL_LAT + "," + TRACK_COL_LON + "," + TRACK_COL_ALTITUDE + "," //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-				+ TRACK_COL_SPEED + "," + TRACK_COL_HDOP + "," + TRACK_COL_DATE + " FROM " + TRACK_NAME +" ORDER BY " + TRACK_COL_DATE +" ASC", null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		Cursor query = db.rawQuery(getTracksQuery(""), null); //$NON-NLS-1$
 		long previousTime = 0;
 		long previousInterval = 0;
 		TrkSegment segment = null;
@@ -346,10 +394,266 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 		query.close();
 	}
 	
+	private static String getTracksQuery(String where) {
+		return "SELECT " + TRACK_COL_LAT + "," + TRACK_COL_LON + "," + TRACK_COL_ALTITUDE + "," //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				+ TRACK_COL_SPEED + "," + TRACK_COL_HDOP + "," + TRACK_COL_DATE + " FROM " + TRACK_NAME + where + " ORDER BY " + TRACK_COL_DATE +" ASC"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	/**
+	 * Writes recorded data from the cursors straight into gpx files : tracks are split as by {@link #collectDBTracks},
+	 * track goes to the file of the day when it is started and waypoints of the day follow the tracks.
+	 * Only one file is open at a time (tracks are ordered by time), so memory doesn't depend on the recorded data.
+	 */
+	private class RecordedDataExporter {
+
+		// longer than the tail cut off by GPXStreamWriter.append
+		private static final int DAY_FILE_TAIL_SIZE = 128;
+
+		// names of files written by the exporter : date_time_day of week(_number).gpx
+		private final Pattern dayFileName = Pattern.compile(
+				"\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}_[A-Za-z]{3}(_\\d+)?\\.gpx"); //$NON-NLS-1$
+
+		private final SQLiteDatabase db;
+		private final File dir;
+		private final String[] exportTime;
+		// starts of days whose files were written
+		private final TLongHashSet days = new TLongHashSet();
+		// appended day files and their original tails (closing tags are cut off), new files have null tail
+		private final Map<File, byte[]> writtenFiles = new LinkedHashMap<File, byte[]>();
+		private final Map<File, Long> originalLengths = new LinkedHashMap<File, Long>();
+
+		private long dayStart;
+		private long dayEnd;
+		private GPXStreamWriter out;
+
+		RecordedDataExporter(SQLiteDatabase db, File dir, long exportTime) {
+			this.db = db;
+			this.dir = dir;
+			this.exportTime = new String[] { Long.toString(exportTime) };
+		}
+
+		/**
+		 * @return warning or null
+		 */
+		String export() {
+			boolean exported = false;
+			try {
+				try {
+					exportTracks();
+					exportWayPoints();
+				} finally {
+					if (out != null) {
+						GPXStreamWriter w = out;
+						out = null;
+						w.close();
+					}
+				}
+				exported = true;
+			} catch (IOException e) {
+				log.error("Error saving gpx", e); //$NON-NLS-1$
+			} finally {
+				// day files are restored if not all data is exported, then it is exported again next time
+				if (!exported) {
+					restoreFiles();
+				}
+			}
+			return exported ? null : ctx.getString(R.string.error_occurred_saving_gpx);
+		}
+
+		private void restoreFiles() {
+			for (Map.Entry<File, byte[]> e : writtenFiles.entrySet()) {
+				File f = e.getKey();
+				byte[] tail = e.getValue();
+				if (tail == null) {
+					f.delete();
+					continue;
+				}
+				RandomAccessFile raf = null;
+				try {
+					raf = new RandomAccessFile(f, "rw"); //$NON-NLS-1$
+					raf.setLength(originalLengths.get(f) - tail.length);
+					raf.seek(raf.length());
+					raf.write(tail);
+				} catch (IOException ex) {
+					log.error("Error restoring gpx " + f.getName(), ex); //$NON-NLS-1$
+				} finally {
+					if (raf != null) {
+						try {
+							raf.close();
+						} catch (IOException ex) {
+							// ignore
+						}
+					}
+				}
+			}
+		}
+
+		private void exportTracks() throws IOException {
+			Cursor query = db.rawQuery(getTracksQuery(" WHERE " + TRACK_COL_DATE + " <= ?"), exportTime); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				long previousTime = 0;
+				long previousInterval = 0;
+				boolean track = false;
+				boolean newTrack = false;
+				boolean newSegment = false;
+				while (query.moveToNext()) {
+					double lat = query.getDouble(0);
+					double lon = query.getDouble(1);
+					long time = query.getLong(5);
+					long currentInterval = Math.abs(time - previousTime);
+					boolean newInterval = lat == 0 && lon == 0;
+
+					if (track && !newInterval && (currentInterval < 6 * 60 * 1000 || currentInterval < 10 * previousInterval)) {
+						// 6 minute - same segment
+					} else if (track && currentInterval < 2 * 60 * 60 * 1000) {
+						// 2 hour - same track
+						newSegment = true;
+					} else {
+						// new track goes to the file of its day
+						track = true;
+						newTrack = true;
+						if (time >= dayEnd) {
+							finishDay();
+							startDay(time);
+						}
+					}
+					// segments are started with the first point (markers of new segments are not written)
+					if (!newInterval) {
+						if (out == null) {
+							out = openDayFile(time);
+						}
+						if (newTrack) {
+							out.startTrack();
+						} else if (newSegment) {
+							out.startSegment();
+						}
+						newTrack = false;
+						newSegment = false;
+						out.writeTrackPoint(lat, lon, time, query.getDouble(2), query.getDouble(3), query.getDouble(4));
+					}
+					previousInterval = currentInterval;
+					previousTime = time;
+				}
+			} finally {
+				query.close();
+			}
+			finishDay();
+		}
+
+		// waypoints of days without tracks
+		private void exportWayPoints() throws IOException {
+			Cursor query = db.rawQuery("SELECT " + POINT_COL_DATE + " FROM " + POINT_NAME + " WHERE " + POINT_COL_DATE //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					+ " <= ? ORDER BY " + POINT_COL_DATE + " ASC", exportTime); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				while (query.moveToNext()) {
+					long time = query.getLong(0);
+					if (!days.contains(getDayStart(time))) {
+						startDay(time);
+						finishDay();
+					}
+				}
+			} finally {
+				query.close();
+			}
+		}
+
+		private void startDay(long time) {
+			dayStart = getDayStart(time);
+			Calendar c = Calendar.getInstance();
+			c.setTimeInMillis(dayStart);
+			c.add(Calendar.DAY_OF_MONTH, 1);
+			dayEnd = c.getTimeInMillis();
+			days.add(dayStart);
+		}
+
+		// waypoints of the day are written after its tracks
+		private void finishDay() throws IOException {
+			if (dayEnd == 0) {
+				return;
+			}
+			Cursor query = db.rawQuery(getPointsQuery(" WHERE " + POINT_COL_DATE + " >= ? AND " + POINT_COL_DATE //$NON-NLS-1$ //$NON-NLS-2$
+					+ " < ? AND " + POINT_COL_DATE + " <= ?"), new String[] { Long.toString(dayStart), //$NON-NLS-1$ //$NON-NLS-2$
+					Long.toString(dayEnd), exportTime[0] });
+			try {
+				while (query.moveToNext()) {
+					WptPt pt = readDBPoint(query);
+					if (out == null) {
+						out = openDayFile(pt.time);
+					}
+					out.writeWayPoint(pt);
+				}
+			} finally {
+				query.close();
+			}
+			if (out != null) {
+				GPXStreamWriter w = out;
+				out = null;
+				w.close();
+			}
+			dayEnd = 0;
+		}
+
+		private byte[] readTail(File f) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
+			try {
+				byte[] tail = new byte[(int) Math.min(raf.length(), DAY_FILE_TAIL_SIZE)];
+				raf.seek(raf.length() - tail.length);
+				raf.readFully(tail);
+				return tail;
+			} finally {
+				raf.close();
+			}
+		}
+
+		private GPXStreamWriter openDayFile(long time) throws IOException {
+			String date = DateFormat.format("yyyy-MM-dd", time).toString(); //$NON-NLS-1$
+			// continue the last file of the day
+			File last = null;
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					String name = f.getName();
+					if (name.startsWith(date + "_") && dayFileName.matcher(name).matches() //$NON-NLS-1$
+							&& (last == null || f.lastModified() > last.lastModified())) {
+						last = f;
+					}
+				}
+			}
+			if (last != null) {
+				// data is appended in place, on failure the file is cut to the original length with its tail
+				writtenFiles.put(last, readTail(last));
+				originalLengths.put(last, last.length());
+				GPXStreamWriter w = GPXStreamWriter.append(last);
+				if (w != null) {
+					return w;
+				}
+				writtenFiles.remove(last);
+			}
+			String fileName = date + "_" + new SimpleDateFormat("HH-mm_EEE", Locale.US).format(new Date(time)); //$NON-NLS-1$
+			File fout = new File(dir, fileName + ".gpx"); //$NON-NLS-1$
+			int ind = 1;
+			while (fout.exists()) {
+				fout = new File(dir, fileName + "_" + (++ind) + ".gpx"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			writtenFiles.put(fout, null);
+			return GPXStreamWriter.create(fout, ctx);
+		}
+	}
+
+	private static long getDayStart(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c.getTimeInMillis();
+	}
+
 	public void startNewSegment() {
 		lastTimeUpdated = 0;
 		lastPoint = null;
-		execWithClose(updateScript, new Object[] { 0, 0, 0, 0, 0, System.currentTimeMillis()});
+		addPendingPoint(0, 0, 0, 0, 0, System.currentTimeMillis());
 		addTrackPoint(null, true, System.currentTimeMillis());
 	}
 	
@@ -395,7 +699,7 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 			OsmandSettings settings) {
 		// * 1000 in next line seems to be wrong with new IntervalChooseDialog
 		// if (time - lastTimeUpdated > settings.SAVE_TRACK_INTERVAL.get() * 1000) {
-		execWithClose(updateScript, new Object[] { lat, lon, alt, speed, hdop, time });
+		addPendingPoint(lat, lon, alt, speed, hdop, time);
 		boolean newSegment = false;
 		if (lastPoint == null || (time - lastTimeUpdated) > 180 * 1000) {
 			lastPoint = new LatLon(lat, lon);
@@ -555,6 +859,302 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 		execWithClose(sb.toString(), params.toArray());
 	}
 
+	private void addPendingPoint(double lat, double lon, double alt, double speed, double hdop, long time) {
+		boolean flush;
+		synchronized (pendingLock) {
+			pending.add(lat, lon, alt, speed, hdop, time);
+			appendToJournal(pending.size() - 1);
+			flush = pending.size() >= FLUSH_POINTS;
+			if (!flush && !flushScheduled) {
+				flushScheduled = true;
+				getFlushExecutor().schedule(new Runnable() {
+					@Override
+					public void run() {
+						flushPendingPoints();
+					}
+				}, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (flush) {
+			getFlushExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					flushPendingPoints();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes recorded fixes which are kept in memory to the database in one transaction
+	 * (at first fixes of the journals left by the previous processes are recovered)
+	 */
+	public synchronized void flushPendingPoints() {
+		if (!journalRecovered) {
+			journalRecovered = recoverJournals();
+			if (!journalRecovered) {
+				// newer fixes would filter out older ones of the journals, they are kept in memory and journal
+				synchronized (pendingLock) {
+					flushScheduled = false;
+				}
+				return;
+			}
+		}
+		PendingPoints batch;
+		synchronized (pendingLock) {
+			flushScheduled = false;
+			if (pending.size() == 0) {
+				return;
+			}
+			batch = pending.copy();
+		}
+		if (!insertTrackPoints(batch, 0)) {
+			return;
+		}
+		synchronized (pendingLock) {
+			pending.removeFirst(batch.size());
+			// journal keeps only fixes which are not in the database
+			closeJournal();
+			journalFile.delete();
+			for (int i = 0; i < pending.size(); i++) {
+				appendToJournal(i);
+			}
+		}
+	}
+
+	private boolean insertTrackPoints(PendingPoints batch, long afterTime) {
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			if (db == null) {
+				return false;
+			}
+			try {
+				db.beginTransaction();
+				try {
+					SQLiteStatement st = db.compileStatement(updateScript);
+					for (int i = 0; i < batch.size(); i++) {
+						if (batch.getTime(i) <= afterTime) {
+							continue;
+						}
+						st.clearBindings();
+						for (int k = 0; k < PendingPoints.VALUES; k++) {
+							st.bindDouble(k + 1, batch.getValue(i, k));
+						}
+						st.bindLong(PendingPoints.VALUES + 1, batch.getTime(i));
+						st.executeInsert();
+					}
+					st.close();
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+			} finally {
+				db.close();
+			}
+			return true;
+		} catch (RuntimeException e) {
+			log.error("Error writing recorded track", e); //$NON-NLS-1$
+			return false;
+		}
+	}
+
+	// called under the pending lock
+	private void appendToJournal(int index) {
+		try {
+			if (journal == null) {
+				journalFile.getParentFile().mkdirs();
+				journal = new FileOutputStream(journalFile, true);
+			}
+			journalRecord.clear();
+			for (int k = 0; k < PendingPoints.VALUES; k++) {
+				journalRecord.putDouble(pending.getValue(index, k));
+			}
+			journalRecord.putLong(pending.getTime(index));
+			journal.write(journalRecord.array(), 0, PendingPoints.RECORD_SIZE);
+			// written data survives crash of the process, sync is needed only for power loss
+			long time = System.currentTimeMillis();
+			if (time - lastJournalSync > JOURNAL_SYNC_INTERVAL) {
+				lastJournalSync = time;
+				journal.getFD().sync();
+			}
+		} catch (IOException e) {
+			log.error("Error writing track journal", e); //$NON-NLS-1$
+			closeJournal();
+		}
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Writes fixes of the journals renamed for recovery to the database
+	 * @return true if all of them are recovered
+	 */
+	private boolean recoverJournals() {
+		final String prefix = journalFile.getName() + RECOVERY_SUFFIX;
+		File[] files = journalFile.getParentFile().listFiles();
+		if (files == null) {
+			return true;
+		}
+		// names differ only by time of renaming
+		Arrays.sort(files);
+		boolean recovered = true;
+		for (File f : files) {
+			if (!f.getName().startsWith(prefix)) {
+				continue;
+			}
+			PendingPoints points = readJournal(f);
+			// the journal could be not cleared after the last batch was written
+			if (points.size() == 0 || insertTrackPoints(points, getLastWrittenPointTime())) {
+				if (points.size() > 0) {
+					log.info("Recovered points of the track journal: " + points.size()); //$NON-NLS-1$
+				}
+				f.delete();
+			} else {
+				recovered = false;
+			}
+		}
+		return recovered;
+	}
+
+	private PendingPoints readJournal(File file) {
+		PendingPoints res = new PendingPoints();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			double[] values = new double[PendingPoints.VALUES];
+			while (true) {
+				for (int k = 0; k < PendingPoints.VALUES; k++) {
+					values[k] = in.readDouble();
+				}
+				res.add(values[0], values[1], values[2], values[3], values[4], in.readLong());
+			}
+		} catch (EOFException e) {
+			// end of the journal (last record could be incomplete)
+		} catch (IOException e) {
+			log.error("Error reading track journal", e); //$NON-NLS-1$
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		return res;
+	}
+
+	private long getLastWrittenPointTime() {
+		long res = 0;
+		try {
+			SQLiteDatabase db = getReadableDatabase();
+			if (db != null) {
+				try {
+					Cursor query = db.rawQuery("SELECT MAX(" + TRACK_COL_DATE + ") FROM " + TRACK_NAME, null); //$NON-NLS-1$ //$NON-NLS-2$
+					if (query.moveToFirst()) {
+						res = query.getLong(0);
+					}
+					query.close();
+				} finally {
+					db.close();
+				}
+			}
+		} catch (RuntimeException e) {
+			log.error("Error reading recorded track", e); //$NON-NLS-1$
+		}
+		return res;
+	}
+
+	private synchronized ScheduledExecutorService getFlushExecutor() {
+		if (flushExecutor == null) {
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Saving track points"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return flushExecutor;
+	}
+
+	/**
+	 * Fixes which are not written to the database yet : ring buffer of the values of the track table
+	 */
+	private static class PendingPoints {
+		// lat, lon, altitude, speed, hdop
+		static final int VALUES = 5;
+		static final int RECORD_SIZE = VALUES * 8 + 8;
+
+		private double[] values = new double[VALUES * 64];
+		private long[] times = new long[64];
+		private int start;
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		void add(double lat, double lon, double alt, double speed, double hdop, long time) {
+			if (size == times.length) {
+				grow();
+			}
+			int ind = (start + size) % times.length;
+			values[ind * VALUES] = lat;
+			values[ind * VALUES + 1] = lon;
+			values[ind * VALUES + 2] = alt;
+			values[ind * VALUES + 3] = speed;
+			values[ind * VALUES + 4] = hdop;
+			times[ind] = time;
+			size++;
+		}
+
+		double getValue(int i, int value) {
+			return values[((start + i) % times.length) * VALUES + value];
+		}
+
+		long getTime(int i) {
+			return times[(start + i) % times.length];
+		}
+
+		void removeFirst(int count) {
+			start = (start + count) % times.length;
+			size -= count;
+		}
+
+		PendingPoints copy() {
+			PendingPoints c = new PendingPoints();
+			c.values = Arrays.copyOf(values, values.length);
+			c.times = Arrays.copyOf(times, times.length);
+			c.start = start;
+			c.size = size;
+			return c;
+		}
+
+		private void grow() {
+			double[] nvalues = new double[values.length * 2];
+			long[] ntimes = new long[times.length * 2];
+			for (int i = 0; i < size; i++) {
+				int ind = (start + i) % times.length;
+				System.arraycopy(values, ind * VALUES, nvalues, i * VALUES, VALUES);
+				ntimes[i] = times[ind];
+			}
+			values = nvalues;
+			times = ntimes;
+			start = 0;
+		}
+	}
+
 	private synchronized void execWithClose(String script, Object[] objects) {
 		SQLiteDatabase db = getWritableDatabase();
 		try {
@@ -25,6 +25,12 @@ public interface SQLiteAPI {
 		boolean isDbLockedByOtherThreads();
 
 		boolean isClosed();
+		
+		void beginTransaction();
+		
+		void setTransactionSuccessful();
+		
+		void endTransaction();
 
 	}
 	
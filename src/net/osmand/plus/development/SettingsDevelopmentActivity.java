@@ -45,12 +45,32 @@ public class SettingsDevelopmentActivity extends SettingsBaseActivity {
 				R.string.trace_rendering, R.string.trace_rendering_descr);
 		cat.addPreference(dbg);
 
+		cat.addPreference(createCheckBoxPreference(settings.TILED_MAP_RENDERING,
+				"Tiled map rendering", //$NON-NLS-1$
+				"Draw polygons and lines of the vector map by sub tiles in parallel (Java renderer)")); //$NON-NLS-1$
+
+		cat.addPreference(createCheckBoxPreference(settings.RENDERED_TILES_CACHE,
+				"Rendered tiles cache", //$NON-NLS-1$
+				"Keep rendered vector map tiles on disk and reuse them (Java renderer)")); //$NON-NLS-1$
+
+		cat.addPreference(createCheckBoxPreference(settings.PROGRESSIVE_MAP_RENDERING,
+				"Progressive map rendering", //$NON-NLS-1$
+				"Show the vector map after polygons and lines are drawn, before texts and icons (Java renderer)")); //$NON-NLS-1$
+
 		cat.addPreference(createCheckBoxPreference(settings.DISABLE_COMPLEX_ROUTING,
 				R.string.disable_complex_routing, R.string.disable_complex_routing_descr));
 
 		cat.addPreference(createCheckBoxPreference(settings.USE_FAST_RECALCULATION,
 				R.string.use_fast_recalculation, R.string.use_fast_recalculation_desc));
 
+		cat.addPreference(createCheckBoxPreference(settings.PARALLEL_ROUTE_LEGS,
+				"Parallel route legs", //$NON-NLS-1$
+				"Calculate legs between intermediate points in parallel (Java router)")); //$NON-NLS-1$
+
+		cat.addPreference(createCheckBoxPreference(settings.SPECULATIVE_ROUTE_DETOURS,
+				"Speculative route detours", //$NON-NLS-1$
+				"Precalculate routes from the next junctions in case a turn is missed (offline router)")); //$NON-NLS-1$
+
 
 		cat.addPreference(createCheckBoxPreference(settings.USE_MAGNETIC_FIELD_SENSOR_COMPASS,
 				R.string.use_magnetic_sensor,
@@ -44,6 +44,8 @@ import net.osmand.plus.IconsCache;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.OsmandPlugin;
 import net.osmand.plus.R;
+import net.osmand.plus.SQLiteTileSource;
+import net.osmand.plus.TilePackSource;
 import net.osmand.plus.activities.LocalIndexHelper;
 import net.osmand.plus.activities.LocalIndexHelper.LocalIndexType;
 import net.osmand.plus.activities.LocalIndexInfo;
@@ -61,6 +63,7 @@ import net.osmand.plus.resources.IncrementalChangesManager.IncrementalUpdateList
 import net.osmand.util.Algorithms;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -252,6 +255,8 @@ public class LocalIndexesFragment extends OsmandExpandableListFragment implement
 			confirm.show();
 		} else if (resId == R.string.local_index_mi_backup) {
 			new LocalIndexOperationTask(getDownloadActivity(), listAdapter, LocalIndexOperationTask.BACKUP_OPERATION).execute(info);
+		} else if (resId == R.string.shared_string_export) {
+			new LocalIndexOperationTask(getDownloadActivity(), listAdapter, LocalIndexOperationTask.CONVERT_TO_TILE_PACK_OPERATION).execute(info);
 		}
 		return true;
 	}
@@ -396,6 +401,7 @@ public class LocalIndexesFragment extends OsmandExpandableListFragment implement
 		protected static int BACKUP_OPERATION = 2;
 		protected static int RESTORE_OPERATION = 3;
 		protected static int CLEAR_TILES_OPERATION = 4;
+		protected static int CONVERT_TO_TILE_PACK_OPERATION = 5;
 
 		private final int operation;
 		private DownloadActivity a;
@@ -455,6 +461,7 @@ public class LocalIndexesFragment extends OsmandExpandableListFragment implement
 		protected String doInBackground(LocalIndexInfo... params) {
 			int count = 0;
 			int total = 0;
+			String error = null;
 			for (LocalIndexInfo info : params) {
 				if (!isCancelled()) {
 					boolean successfull = false;
@@ -480,6 +487,16 @@ public class LocalIndexesFragment extends OsmandExpandableListFragment implement
 						if(src != null) {
 							src.clearTiles(info.getPathToData());
 						}
+					} else if (operation == CONVERT_TO_TILE_PACK_OPERATION) {
+						File f = new File(info.getPathToData());
+						try {
+							TilePackSource.importSQLiteTiles(getMyApplication(), f, TilePackSource.getTilePackFile(f));
+							successfull = true;
+						} catch (IOException e) {
+							error = e.getMessage();
+						} catch (RuntimeException e) {
+							error = e.getMessage();
+						}
 					}
 					total++;
 					if (successfull) {
@@ -497,6 +514,8 @@ public class LocalIndexesFragment extends OsmandExpandableListFragment implement
 				return a.getString(R.string.local_index_items_backuped, count, total);
 			} else if (operation == RESTORE_OPERATION) {
 				return a.getString(R.string.local_index_items_restored, count, total);
+			} else if (operation == CONVERT_TO_TILE_PACK_OPERATION && error != null) {
+				return error;
 			}
 
 			return "";
@@ -529,7 +548,8 @@ public class LocalIndexesFragment extends OsmandExpandableListFragment implement
 				Toast.makeText(a, result, Toast.LENGTH_LONG).show();
 			}
 			
-			if (operation == RESTORE_OPERATION || operation == BACKUP_OPERATION || operation == CLEAR_TILES_OPERATION) {
+			if (operation == RESTORE_OPERATION || operation == BACKUP_OPERATION || operation == CLEAR_TILES_OPERATION
+					|| operation == CONVERT_TO_TILE_PACK_OPERATION) {
 				a.reloadLocalIndexes();
 			} else {
 				a.newDownloadIndexes();
@@ -1208,6 +1228,18 @@ public class LocalIndexesFragment extends OsmandExpandableListFragment implement
 				}
 			});	
 		}
+		if (info.getType() == LocalIndexType.TILES_DATA && info.getFileName().endsWith(SQLiteTileSource.EXT)) {
+			// export to read only copy (tile pack) which is faster to read
+			item = optionsMenu.getMenu().add(R.string.shared_string_export)
+					.setIcon(iconsCache.getThemedIcon(R.drawable.ic_type_archive));
+			item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+				@Override
+				public boolean onMenuItemClick(MenuItem item) {
+					performBasicOperation(R.string.shared_string_export, info);
+					return true;
+				}
+			});
+		}
 		final IndexItem update = filesToUpdate.get(info.getFileName());
 		if (update != null) {
 			item = optionsMenu.getMenu().add(R.string.shared_string_download)
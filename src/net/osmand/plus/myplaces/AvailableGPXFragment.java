@@ -43,6 +43,7 @@ import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
 import net.osmand.plus.GPXUtilities.WptPt;
 import net.osmand.plus.GpxSelectionHelper;
 import net.osmand.plus.GpxSelectionHelper.SelectedGpxFile;
+import net.osmand.plus.GpxTracksCache;
 import net.osmand.plus.IconsCache;
 import net.osmand.plus.OsmAndFormatter;
 import net.osmand.plus.OsmandApplication;
@@ -578,9 +579,33 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 		protected List<GpxInfo> doInBackground(Activity... params) {
 			List<GpxInfo> result = new ArrayList<>();
 			loadGPXData(app.getAppPath(IndexConstants.GPX_INDEX_DIR), result, this);
+			loadAnalysis(result);
+			if (!isCancelled()) {
+				selectedGpxHelper.getTracksCache().prune();
+			}
 			return result;
 		}
 
+		// statistics of tracks which are not cached yet are calculated when the list is already shown
+		private void loadAnalysis(List<GpxInfo> result) {
+			GpxTracksCache cache = selectedGpxHelper.getTracksCache();
+			int loaded = 0;
+			for (GpxInfo info : result) {
+				if (isCancelled()) {
+					return;
+				}
+				if (info.analysis == null) {
+					info.analysis = cache.getAnalysis(info.file);
+					if (++loaded % 8 == 0) {
+						publishProgress();
+					}
+				}
+			}
+			if (loaded > 0) {
+				publishProgress();
+			}
+		}
+
 		public void loadFile(GpxInfo... loaded) {
 			publishProgress(loaded);
 		}
@@ -655,6 +680,7 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 					GpxInfo info = new GpxInfo();
 					info.subfolder = gpxSubfolder;
 					info.file = gpxFile;
+					info.analysis = selectedGpxHelper.getTracksCache().getCachedAnalysis(gpxFile);
 					result.add(info);
 					progress.add(info);
 					if (progress.size() > 7) {
@@ -1049,6 +1075,7 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 					successfull = Algorithms.removeAllFiles(info.file);
 					total++;
 					if (successfull) {
+						selectedGpxHelper.getTracksCache().remove(info.file);
 						count++;
 						publishProgress(info);
 					}
@@ -1219,6 +1246,8 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 		public GPXFile gpx;
 		public File file;
 		public String subfolder;
+		// analysis of the file from the cache (not of the selected track)
+		public GPXTrackAnalysis analysis;
 
 		private String name = null;
 		private int sz = -1;
@@ -1312,6 +1341,8 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 			icon.setImageDrawable(app.getIconsCache().getIcon(R.drawable.ic_gpx_track, R.color.color_distance));
 			analysis = sgpx.getTrackAnalysis();
 
+		} else if (!child.currentlyRecordingTrack) {
+			analysis = child.analysis;
 		}
 		boolean sectionRead = analysis == null;
 		if (sectionRead) {
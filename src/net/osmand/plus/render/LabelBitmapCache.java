@@ -0,0 +1,151 @@
+package net.osmand.plus.render;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.osmand.plus.render.TextRenderer.TextDrawInfo;
+import android.graphics.Bitmap;
+
+/**
+ * Bounded cache of rasterized straight labels (shields and wrapped text with halo).
+ * Names repeat from one rendering to the next while the map is moved, so labels are blitted
+ * instead of being measured and drawn again. Least recently used labels are recycled.
+ * Not thread safe : used by the text rendering only.
+ */
+class LabelBitmapCache {
+
+	static class Label {
+		final Bitmap bitmap;
+		// offset of the bitmap from the label anchor
+		final int left;
+		final int top;
+
+		Label(Bitmap bitmap, int left, int top) {
+			this.bitmap = bitmap;
+			this.left = left;
+			this.top = top;
+		}
+	}
+
+	static class Key {
+		String text;
+		float textSize;
+		int textColor;
+		int textShadow;
+		int textShadowColor;
+		int textWrap;
+		boolean bold;
+		boolean italic;
+		String shieldRes;
+		String shieldResIcon;
+		float iconScale;
+
+		void set(TextDrawInfo info, float textSize, float iconScale) {
+			this.text = info.text;
+			this.textSize = textSize;
+			this.textColor = info.textColor;
+			this.textShadow = info.textShadow;
+			this.textShadowColor = info.textShadowColor;
+			this.textWrap = info.textWrap;
+			this.bold = info.bold;
+			this.italic = info.italic;
+			this.shieldRes = info.shieldRes;
+			this.shieldResIcon = info.shieldResIcon;
+			this.iconScale = iconScale;
+		}
+
+		Key copy() {
+			Key k = new Key();
+			k.text = text;
+			k.textSize = textSize;
+			k.textColor = textColor;
+			k.textShadow = textShadow;
+			k.textShadowColor = textShadowColor;
+			k.textWrap = textWrap;
+			k.bold = bold;
+			k.italic = italic;
+			k.shieldRes = shieldRes;
+			k.shieldResIcon = shieldResIcon;
+			k.iconScale = iconScale;
+			return k;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = text.hashCode();
+			h = h * 31 + Float.floatToIntBits(textSize);
+			h = h * 31 + textColor;
+			h = h * 31 + textShadow;
+			h = h * 31 + textShadowColor;
+			h = h * 31 + textWrap;
+			h = h * 31 + (bold ? 1 : 0) + (italic ? 2 : 0);
+			h = h * 31 + (shieldRes == null ? 0 : shieldRes.hashCode());
+			h = h * 31 + (shieldResIcon == null ? 0 : shieldResIcon.hashCode());
+			h = h * 31 + Float.floatToIntBits(iconScale);
+			return h;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key o = (Key) obj;
+			return text.equals(o.text) && textSize == o.textSize && textColor == o.textColor
+					&& textShadow == o.textShadow && textShadowColor == o.textShadowColor && textWrap == o.textWrap
+					&& bold == o.bold && italic == o.italic && equals(shieldRes, o.shieldRes)
+					&& equals(shieldResIcon, o.shieldResIcon) && iconScale == o.iconScale;
+		}
+
+		private static boolean equals(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	private final LinkedHashMap<Key, Label> labels = new LinkedHashMap<Key, Label>(128, 0.75f, true);
+	private final long maxBytes;
+	private long bytes;
+
+	LabelBitmapCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	Label get(Key key) {
+		return labels.get(key);
+	}
+
+	void put(Key key, Label label) {
+		Label prev = labels.put(key.copy(), label);
+		if (prev != null) {
+			bytes -= size(prev);
+			prev.bitmap.recycle();
+		}
+		bytes += size(label);
+		Iterator<Map.Entry<Key, Label>> it = labels.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Label l = it.next().getValue();
+			if (l == label) {
+				break;
+			}
+			it.remove();
+			bytes -= size(l);
+			l.bitmap.recycle();
+		}
+	}
+
+	void clear() {
+		for (Label l : labels.values()) {
+			l.bitmap.recycle();
+		}
+		labels.clear();
+		bytes = 0;
+	}
+
+	private static long size(Label l) {
+		return l.bitmap.getRowBytes() * (long) l.bitmap.getHeight();
+	}
+}
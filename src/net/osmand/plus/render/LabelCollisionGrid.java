@@ -0,0 +1,230 @@
+package net.osmand.plus.render;
+
+import java.util.Arrays;
+
+/**
+ * Occupancy of the map by placed labels (icons, shields, text) to skip overlapping ones.
+ * Labels are oriented boxes (center, size, rotation) registered in cells of a uniform grid,
+ * so a check looks only at labels of the few cells covered by the box and is exact for rotated boxes.
+ * Labels should be placed in order of priority. Instances are reused : {@link #reset} clears the grid
+ * without allocations.
+ */
+public class LabelCollisionGrid {
+
+	private static final int MAX_CELLS_BY_SIDE = 64;
+	private static final float MIN_CELL_SIZE = 16;
+	// rotation which is considered as not rotated box
+	private static final float ROTATE_EPS = 0.001f;
+
+	private float left;
+	private float top;
+	private float cellSize;
+	private int cols;
+	private int rows;
+	// first entry of the cell, -1 - empty cell
+	private int[] cellHeads = new int[0];
+	// entries link boxes to cells
+	private int[] entryBox = new int[256];
+	private int[] entryNext = new int[256];
+	private int entries;
+
+	// placed boxes
+	private float[] centerX = new float[64];
+	private float[] centerY = new float[64];
+	private float[] halfWidth = new float[64];
+	private float[] halfHeight = new float[64];
+	private float[] cos = new float[64];
+	private float[] sin = new float[64];
+	private Object[] data = new Object[64];
+	private int[] visited = new int[64];
+	private int boxes;
+	private int queryStamp;
+
+	public LabelCollisionGrid() {
+		reset(0, 0, 1, 1);
+	}
+
+	public LabelCollisionGrid(float left, float top, float right, float bottom) {
+		reset(left, top, right, bottom);
+	}
+
+	/**
+	 * Removes all boxes and sets area of the grid (boxes outside of it are supported but checked slower)
+	 */
+	public void reset(float left, float top, float right, float bottom) {
+		this.left = left;
+		this.top = top;
+		float width = Math.max(1, right - left);
+		float height = Math.max(1, bottom - top);
+		cellSize = Math.max(MIN_CELL_SIZE, Math.max(width, height) / MAX_CELLS_BY_SIDE);
+		cols = (int) Math.ceil(width / cellSize);
+		rows = (int) Math.ceil(height / cellSize);
+		if (cellHeads.length < cols * rows) {
+			cellHeads = new int[cols * rows];
+		}
+		for (int i = 0; i < cols * rows; i++) {
+			cellHeads[i] = -1;
+		}
+		for (int i = 0; i < boxes; i++) {
+			data[i] = null;
+		}
+		entries = 0;
+		boxes = 0;
+	}
+
+	public int size() {
+		return boxes;
+	}
+
+	/**
+	 * @return true if the box intersects any placed box
+	 */
+	public boolean intersects(float cx, float cy, float width, float height, float rotate) {
+		return intersects(cx, cy, width, height, rotate, null);
+	}
+
+	/**
+	 * @param sameData if not null only boxes placed with equal data are checked
+	 * @return true if the box intersects any placed box
+	 */
+	public boolean intersects(float cx, float cy, float width, float height, float rotate, Object sameData) {
+		float c = 1;
+		float s = 0;
+		if (Math.abs(rotate) > ROTATE_EPS) {
+			c = (float) Math.cos(rotate);
+			s = (float) Math.sin(rotate);
+		}
+		float hw = width / 2;
+		float hh = height / 2;
+		float ex = hw * Math.abs(c) + hh * Math.abs(s);
+		float ey = hw * Math.abs(s) + hh * Math.abs(c);
+		int stamp = ++queryStamp;
+		int cl = cellX(cx - ex);
+		int cr = cellX(cx + ex);
+		int ct = cellY(cy - ey);
+		int cb = cellY(cy + ey);
+		for (int y = ct; y <= cb; y++) {
+			for (int x = cl; x <= cr; x++) {
+				for (int e = cellHeads[y * cols + x]; e != -1; e = entryNext[e]) {
+					int b = entryBox[e];
+					if (visited[b] == stamp) {
+						continue;
+					}
+					visited[b] = stamp;
+					if (sameData != null && !sameData.equals(data[b])) {
+						continue;
+					}
+					if (intersects(b, cx, cy, hw, hh, c, s)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Registers the box without checks
+	 */
+	public void insert(float cx, float cy, float width, float height, float rotate, Object boxData) {
+		int b = boxes;
+		if (b == centerX.length) {
+			growBoxes();
+		}
+		float c = 1;
+		float s = 0;
+		if (Math.abs(rotate) > ROTATE_EPS) {
+			c = (float) Math.cos(rotate);
+			s = (float) Math.sin(rotate);
+		}
+		centerX[b] = cx;
+		centerY[b] = cy;
+		halfWidth[b] = width / 2;
+		halfHeight[b] = height / 2;
+		cos[b] = c;
+		sin[b] = s;
+		data[b] = boxData;
+		visited[b] = 0;
+		boxes++;
+		float ex = halfWidth[b] * Math.abs(c) + halfHeight[b] * Math.abs(s);
+		float ey = halfWidth[b] * Math.abs(s) + halfHeight[b] * Math.abs(c);
+		int cl = cellX(cx - ex);
+		int cr = cellX(cx + ex);
+		int ct = cellY(cy - ey);
+		int cb = cellY(cy + ey);
+		for (int y = ct; y <= cb; y++) {
+			for (int x = cl; x <= cr; x++) {
+				if (entries == entryBox.length) {
+					entryBox = Arrays.copyOf(entryBox, entries * 2);
+					entryNext = Arrays.copyOf(entryNext, entries * 2);
+				}
+				int cell = y * cols + x;
+				entryBox[entries] = b;
+				entryNext[entries] = cellHeads[cell];
+				cellHeads[cell] = entries;
+				entries++;
+			}
+		}
+	}
+
+	/**
+	 * Registers the box if it doesn't intersect placed boxes
+	 * @return true if the box was placed
+	 */
+	public boolean place(float cx, float cy, float width, float height, float rotate) {
+		if (intersects(cx, cy, width, height, rotate)) {
+			return false;
+		}
+		insert(cx, cy, width, height, rotate, null);
+		return true;
+	}
+
+	private boolean intersects(int b, float cx, float cy, float hw, float hh, float c, float s) {
+		float dx = centerX[b] - cx;
+		float dy = centerY[b] - cy;
+		float bc = cos[b];
+		float bs = sin[b];
+		float bhw = halfWidth[b];
+		float bhh = halfHeight[b];
+		if (s == 0 && bs == 0) {
+			return Math.abs(dx) < hw + bhw && Math.abs(dy) < hh + bhh;
+		}
+		// separating axis theorem : axes of both boxes
+		if (separated(dx, dy, c, s, hw, bhw, bhh, bc, bs) || separated(dx, dy, -s, c, hh, bhw, bhh, bc, bs)) {
+			return false;
+		}
+		return !separated(dx, dy, bc, bs, bhw, hw, hh, c, s) && !separated(dx, dy, -bs, bc, bhh, hw, hh, c, s);
+	}
+
+	/**
+	 * @return true if boxes are separated along axis (ax, ay) of the first box with half size r
+	 */
+	private static boolean separated(float dx, float dy, float ax, float ay, float r, float ohw, float ohh,
+			float oc, float os) {
+		float dist = Math.abs(dx * ax + dy * ay);
+		float or = ohw * Math.abs(oc * ax + os * ay) + ohh * Math.abs(-os * ax + oc * ay);
+		return dist >= r + or;
+	}
+
+	private int cellX(float x) {
+		int c = (int) Math.floor((x - left) / cellSize);
+		return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+	}
+
+	private int cellY(float y) {
+		int c = (int) Math.floor((y - top) / cellSize);
+		return c < 0 ? 0 : (c >= rows ? rows - 1 : c);
+	}
+
+	private void growBoxes() {
+		int sz = centerX.length * 2;
+		centerX = Arrays.copyOf(centerX, sz);
+		centerY = Arrays.copyOf(centerY, sz);
+		halfWidth = Arrays.copyOf(halfWidth, sz);
+		halfHeight = Arrays.copyOf(halfHeight, sz);
+		cos = Arrays.copyOf(cos, sz);
+		sin = Arrays.copyOf(sin, sz);
+		visited = Arrays.copyOf(visited, sz);
+		data = Arrays.copyOf(data, sz);
+	}
+}
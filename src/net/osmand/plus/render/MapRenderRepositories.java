@@ -6,6 +6,7 @@ import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -45,6 +46,7 @@ import net.osmand.plus.OsmandSettings.CommonPreference;
 import net.osmand.plus.R;
 import net.osmand.plus.development.OsmandDevelopmentPlugin;
 import net.osmand.plus.render.OsmandRenderer.RenderingContext;
+import net.osmand.plus.render.OsmandRenderer.RenderingPassListener;
 import net.osmand.plus.views.OsmandMapLayer.DrawSettings;
 import net.osmand.render.RenderingRuleProperty;
 import net.osmand.render.RenderingRuleSearchRequest;
@@ -59,6 +61,7 @@ import org.apache.commons.logging.Log;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
 import android.os.Handler;
 import android.os.Looper;
 import android.widget.Toast;
@@ -71,6 +74,8 @@ public class MapRenderRepositories {
 	private final static Log log = PlatformUtil.getLog(MapRenderRepositories.class);
 	private final OsmandApplication context;
 	private final static int zoomOnlyForBasemaps = 11;
+	private final static String RENDERED_TILES_DIR = "rendered_tiles"; //$NON-NLS-1$
+	private final static long RENDERED_TILES_CACHE_SIZE = 48 << 20;
 
 	static int zoomForBaseRouteRendering  = 14;
 	private Handler handler;
@@ -86,6 +91,13 @@ public class MapRenderRepositories {
 	// cached objects in order to render rotation without reloading data from db
 	private List<BinaryMapDataObject> cObjects = new LinkedList<BinaryMapDataObject>();
 	private NativeSearchResult cNativeObjects = null;
+	// objects read from map files by data blocks, only newly exposed blocks are read when map is moved
+	private final TLongObjectHashMap<DataBlock> dataBlocks = new TLongObjectHashMap<DataBlock>();
+	private int dataBlocksZoom = -1;
+	private int dataBlocksRouteMode;
+	private long dataBlocksStamp;
+	// block is 4x4 tiles of the rendering zoom
+	private final static int DATA_BLOCK_TILES_SHIFT = 2;
 
 	// currently rendered box (not the same as already rendered)
 	// this box is checked for interrupted process or
@@ -110,6 +122,24 @@ public class MapRenderRepositories {
 	private RenderingContext visibleRenderingContext;
 	private SearchRequest<BinaryMapDataObject> searchRequest;
 	private OsmandSettings prefs;
+	// rendered tiles are reused between sessions (java renderer without rotation)
+	private RenderedTilesCache renderedTilesCache;
+	// map is rendered north-up in boxes aligned to the grid of stored tiles
+	private boolean renderedTilesMode;
+	// versions of opened map files (0 - should be recalculated)
+	private volatile long dataStamp;
+
+	private static class DataBlock {
+		final ArrayList<BinaryMapDataObject> objects = new ArrayList<BinaryMapDataObject>();
+		final ArrayList<BinaryMapDataObject> basemapObjects = new ArrayList<BinaryMapDataObject>();
+		final List<BinaryMapDataObject> coastLines = new ArrayList<BinaryMapDataObject>();
+		final List<BinaryMapDataObject> basemapCoastLines = new ArrayList<BinaryMapDataObject>();
+		boolean objectsFromMapSection;
+		boolean ocean;
+		boolean land;
+		MapIndex mapIndex;
+		int count;
+	}
 
 	public MapRenderRepositories(OsmandApplication context) {
 		this.context = context;
@@ -138,6 +168,7 @@ public class MapRenderRepositories {
 		LinkedHashMap<String, BinaryMapIndexReader> cpfiles = new LinkedHashMap<String, BinaryMapIndexReader>(files);
 		cpfiles.put(file.getName(), reader);
 		files = cpfiles;
+		invalidateRenderedTiles();
 	}
 
 	public RotatedTileBox getBitmapLocation() {
@@ -152,6 +183,7 @@ public class MapRenderRepositories {
 		LinkedHashMap<String, BinaryMapIndexReader> cpfiles = new LinkedHashMap<String, BinaryMapIndexReader>(files);
 		BinaryMapIndexReader bmir = cpfiles.remove(file);
 		files = cpfiles;
+		invalidateRenderedTiles();
 		if (nativeFiles.contains(file)) {
 			NativeOsmandLibrary lib = NativeOsmandLibrary.getLoadedLibrary();
 			if (lib != null) {
@@ -169,6 +201,217 @@ public class MapRenderRepositories {
 		}
 	}
 
+	/**
+	 * Map data was changed (files opened, closed or live updates applied), tiles rendered before are not used anymore
+	 */
+	public void invalidateRenderedTiles() {
+		dataStamp = 0;
+	}
+
+	private long getDataStamp() {
+		long stamp = dataStamp;
+		if (stamp == 0) {
+			stamp = 17;
+			for (BinaryMapIndexReader reader : files.values()) {
+				File f = reader.getFile();
+				stamp = stamp * 31 + f.getName().hashCode();
+				stamp = stamp * 31 + f.lastModified();
+				stamp = stamp * 31 + f.length();
+			}
+			if (stamp == 0) {
+				stamp = 1;
+			}
+			dataStamp = stamp;
+		}
+		return stamp;
+	}
+
+	private long calculateStyleStamp(OsmandApplication app, RenderingRulesStorage storage, boolean nightMode, boolean transparent) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(app.getRendererRegistry().getStyleStamp(storage)).append('|').append(nightMode).append('|').append(transparent);
+		sb.append('|').append(requestedBox.getZoomFloatPart()).append('|').append(requestedBox.getMapDensity());
+		sb.append('|').append(requestedBox.getDensity()).append('|').append(prefs.TEXT_SCALE.get());
+		sb.append('|').append(prefs.MAP_PREFERRED_LOCALE.get()).append('|').append(prefs.MAP_TRANSLITERATE_NAMES.get());
+		sb.append('|').append(app.getLanguage());
+		for (RenderingRuleProperty customProp : storage.PROPS.getCustomRules()) {
+			sb.append('|').append(customProp.getAttrName()).append('=');
+			if (customProp.isBoolean()) {
+				sb.append(prefs.getCustomRenderBooleanProperty(customProp.getAttrName()).get());
+			} else {
+				sb.append(prefs.getCustomRenderProperty(customProp.getAttrName()).get());
+			}
+		}
+		long h = 1125899906842597L;
+		for (int i = 0; i < sb.length(); i++) {
+			h = 31 * h + sb.charAt(i);
+		}
+		return h;
+	}
+
+	private RenderedTilesCache getRenderedTilesCache() {
+		if (renderedTilesCache == null) {
+			File cacheDir = context.getExternalCacheDir();
+			if (cacheDir == null) {
+				cacheDir = context.getCacheDir();
+			}
+			renderedTilesCache = new RenderedTilesCache(new File(cacheDir, RENDERED_TILES_DIR), RENDERED_TILES_CACHE_SIZE);
+		}
+		return renderedTilesCache;
+	}
+
+	private static QuadPointDouble getRenderingLeftTop(RotatedTileBox box) {
+		// tiles of rendering grid are TILE_SIZE pixels (scaled by zoom fraction and density)
+		QuadPointDouble lt = box.getLeftTopTile(box.getZoom());
+		double cfd = MapUtils.getPowZoom(box.getZoomFloatPart()) * box.getMapDensity();
+		lt.x *= cfd;
+		lt.y *= cfd;
+		return lt;
+	}
+
+	/**
+	 * @return north-up box aligned to the rendering grid which covers requested (possibly rotated) box,
+	 * so every tile of the rendered bitmap could be stored
+	 */
+	private static RotatedTileBox getRenderedTilesBox(RotatedTileBox box) {
+		int ts = OsmandRenderer.TILE_SIZE;
+		double cfd = MapUtils.getPowZoom(box.getZoomFloatPart()) * box.getMapDensity();
+		QuadRect bounds = box.getTileBounds();
+		int left = (int) Math.floor(bounds.left * cfd);
+		int top = (int) Math.floor(bounds.top * cfd);
+		int right = (int) Math.ceil(bounds.right * cfd);
+		int bottom = (int) Math.ceil(bounds.bottom * cfd);
+		RotatedTileBox tilesBox = box.copy();
+		tilesBox.setRotate(0);
+		tilesBox.setPixelDimensions((right - left) * ts, (bottom - top) * ts, 0.5f, 0.5f);
+		tilesBox.setLatLonCenter(MapUtils.getLatitudeFromTile(box.getZoom(), (top + bottom) / (2 * cfd)),
+				MapUtils.getLongitudeFromTile(box.getZoom(), (left + right) / (2 * cfd)));
+		return tilesBox;
+	}
+
+	/**
+	 * Rendered state (1 - basemap, 2 - normal map) by map files covering the box, objects are not loaded for stored tiles
+	 */
+	private int getMapFilesState(RotatedTileBox box) {
+		QuadRect r = box.getLatLonBounds();
+		int leftX = MapUtils.get31TileNumberX(r.left);
+		int rightX = MapUtils.get31TileNumberX(r.right);
+		int topY = MapUtils.get31TileNumberY(r.top);
+		int bottomY = MapUtils.get31TileNumberY(r.bottom);
+		int state = 0;
+		for (BinaryMapIndexReader reader : files.values()) {
+			if (reader.containsMapData(leftX, topY, rightX, bottomY, box.getZoom())
+					|| reader.containsRouteData(leftX, topY, rightX, bottomY, box.getZoom())) {
+				state |= reader.isBasemap() ? 1 : 2;
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Composes map from stored rendered tiles if all tiles of requested box are present
+	 * @return true if map was loaded or the process was interrupted
+	 */
+	private boolean loadMapFromRenderedTiles(RotatedTileBox tileRect, RenderingRuleSearchRequest renderingReq, String session,
+			Config cfg) {
+		RenderedTilesCache cache = getRenderedTilesCache();
+		int zoom = requestedBox.getZoom();
+		int width = requestedBox.getPixWidth();
+		int height = requestedBox.getPixHeight();
+		int ts = OsmandRenderer.TILE_SIZE;
+		QuadPointDouble lt = getRenderingLeftTop(requestedBox);
+		// box is aligned to the grid, half of pixel tolerates rounding errors
+		double eps = 0.5 / ts;
+		int left = (int) Math.floor(lt.x + eps);
+		int top = (int) Math.floor(lt.y + eps);
+		int right = (int) Math.ceil(lt.x + (double) width / ts - eps) - 1;
+		int bottom = (int) Math.ceil(lt.y + (double) height / ts - eps) - 1;
+		for (int x = left; x <= right; x++) {
+			for (int y = top; y <= bottom; y++) {
+				if (!cache.contains(session, zoom, x, y)) {
+					return false;
+				}
+			}
+		}
+		long now = System.currentTimeMillis();
+		int defaultColor = 0;
+		renderingReq.clearState();
+		renderingReq.setIntFilter(renderingReq.ALL.R_MINZOOM, zoom);
+		if (renderingReq.searchRenderingAttribute(RenderingRuleStorageProperties.A_DEFAULT_COLOR)) {
+			defaultColor = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_COLOR_VALUE);
+		}
+		renderingReq.clearState();
+		Bitmap bmp = prepareBitmap(width, height, cfg, defaultColor);
+		this.bmpLocation = tileRect;
+		Canvas cv = new Canvas(bmp);
+		for (int x = left; x <= right; x++) {
+			for (int y = top; y <= bottom; y++) {
+				Bitmap tile = cache.read(session, zoom, x, y, null);
+				if (tile == null || checkWhetherInterrupted()) {
+					revertBitmap();
+					return tile != null;
+				}
+				cv.drawBitmap(tile, Math.round((x - lt.x) * ts), Math.round((y - lt.y) * ts), null);
+				tile.recycle();
+			}
+		}
+		this.prevBmpLocation = null;
+		this.checkedRenderedState = getMapFilesState(requestedBox);
+		this.checkedBox = this.bmpLocation;
+		log.info("RENDER MAP: loaded from rendered tiles for " + (System.currentTimeMillis() - now) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		return true;
+	}
+
+	private void saveRenderedTiles(String session, int zoom, QuadPointDouble lt, Bitmap bmp) {
+		RenderedTilesCache cache = getRenderedTilesCache();
+		int ts = OsmandRenderer.TILE_SIZE;
+		// only tiles completely inside of the bitmap
+		double eps = 0.5 / ts;
+		for (int x = (int) Math.ceil(lt.x - eps); Math.round((x - lt.x) * ts) + ts <= bmp.getWidth(); x++) {
+			for (int y = (int) Math.ceil(lt.y - eps); Math.round((y - lt.y) * ts) + ts <= bmp.getHeight(); y++) {
+				if (!cache.contains(session, zoom, x, y)) {
+					int px = (int) Math.round((x - lt.x) * ts);
+					int py = (int) Math.round((y - lt.y) * ts);
+					Bitmap tile = Bitmap.createBitmap(bmp, px, py, ts, ts);
+					if (tile == bmp) {
+						// tile is recycled after it is saved
+						tile = bmp.copy(bmp.getConfig(), false);
+					}
+					cache.write(session, zoom, x, y, tile);
+				}
+			}
+		}
+	}
+
+	private Bitmap prepareBitmap(int width, int height, Config cfg, int defaultColor) {
+		Bitmap bmp;
+		Bitmap reuse = prevBmp;
+		this.prevBmp = this.bmp;
+		this.prevBmpLocation = this.bmpLocation;
+		if (reuse != null && reuse.getWidth() == width && reuse.getHeight() == height &&
+				cfg == reuse.getConfig()) {
+			bmp = reuse;
+			bmp.eraseColor(defaultColor);
+		} else {
+			if(reuse != null){
+				log.warn(String.format("Create new image ? %d != %d (w) %d != %d (h) ", width, reuse.getWidth(), height, reuse.getHeight()));
+			}
+			bmp = Bitmap.createBitmap(width, height, cfg);
+			if(reuse != null) {
+				reuse.recycle();
+			}
+		}
+		this.bmp = bmp;
+		return bmp;
+	}
+
+	private void revertBitmap() {
+		Bitmap reuse = this.bmp;
+		this.bmp = this.prevBmp;
+		this.bmpLocation = this.prevBmpLocation;
+		this.prevBmp = reuse;
+		this.prevBmpLocation = null;
+	}
+
 	public boolean containsLatLonMapData(double lat, double lon, int zoom) {
 		int x = MapUtils.get31TileNumberX(lon);
 		int y = MapUtils.get31TileNumberY(lat);
@@ -213,7 +456,8 @@ public class MapRenderRepositories {
 		} else if (deltaRotate < -180) {
 			deltaRotate += 360;
 		}
-		if (Math.abs(deltaRotate) > 25) {
+		// north-up bitmap of stored tiles is shown rotated as tile maps are
+		if (Math.abs(deltaRotate) > 25 && !(renderedTilesMode && requestedBox.getRotate() == 0)) {
 			log.info("RENDER MAP: update due to rotation");
 			return true;
 		}
@@ -389,7 +633,6 @@ public class MapRenderRepositories {
 
 		long now = System.currentTimeMillis();
 
-		System.gc(); // to clear previous objects
 		ArrayList<BinaryMapDataObject> tempResult = new ArrayList<BinaryMapDataObject>();
 		ArrayList<BinaryMapDataObject> basemapResult = new ArrayList<BinaryMapDataObject>();
 		
@@ -402,26 +645,79 @@ public class MapRenderRepositories {
 		int rightX = MapUtils.get31TileNumberX(cRightLongitude);
 		int bottomY = MapUtils.get31TileNumberY(cBottomLatitude);
 		int topY = MapUtils.get31TileNumberY(cTopLatitude);
-		TLongSet ids = new TLongHashSet();
-		MapIndex mi = readMapObjectsForRendering(zoom, renderingReq, tempResult, basemapResult, ids, count, ocean,
-				land, coastLines, basemapCoastLines, leftX, rightX, bottomY, topY);
 		int renderRouteDataFile = 0;
 		if (renderingReq.searchRenderingAttribute("showRoadMapsAttribute")) {
 			renderRouteDataFile = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
 		}
-		if (checkWhetherInterrupted()) {
-			return false;
+		if (dataBlocksZoom != zoom || dataBlocksRouteMode != renderRouteDataFile || dataBlocksStamp != getDataStamp()) {
+			dataBlocks.clear();
+			dataBlocksZoom = zoom;
+			dataBlocksRouteMode = renderRouteDataFile;
+			dataBlocksStamp = getDataStamp();
+			System.gc(); // to clear previous objects
 		}
-		boolean objectsFromMapSectionRead = tempResult.size() > 0;
-		if (renderRouteDataFile >= 0 && zoom >= zoomOnlyForBasemaps ) {
-			searchRequest = BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY, bottomY, zoom, null);
-			for (BinaryMapIndexReader c : files.values()) {
-				// false positive case when we have 2 sep maps Country-roads & Country
-				if(c.getMapIndexes().size() == 0 || renderRouteDataFile == 1) {
-					readRouteDataAsMapObjects(searchRequest, c, tempResult, ids);
+		int shift = Math.min(31, 31 - zoom + DATA_BLOCK_TILES_SHIFT);
+		int blockLeft = leftX >> shift;
+		int blockRight = rightX >> shift;
+		int blockTop = topY >> shift;
+		int blockBottom = bottomY >> shift;
+		// objects crossing blocks border are read for every block
+		TLongSet ids = new TLongHashSet();
+		TLongSet basemapKeys = new TLongHashSet();
+		MapIndex mi = null;
+		// ocean / land flags of border blocks could come from outside of the box
+		boolean borderSeaFlags = false;
+		boolean objectsFromMapSectionRead = false;
+		int blocksRead = 0;
+		for (int bx = blockLeft; bx <= blockRight; bx++) {
+			for (int by = blockTop; by <= blockBottom; by++) {
+				long key = (((long) bx) << 32) | by;
+				DataBlock block = dataBlocks.get(key);
+				if (block == null) {
+					block = readDataBlock(bx << shift, by << shift, shift, zoom, renderingReq, renderRouteDataFile);
+					if (block == null) {
+						return false;
+					}
+					dataBlocks.put(key, block);
+					blocksRead++;
+				}
+				count[0] += block.count;
+				objectsFromMapSectionRead |= block.objectsFromMapSection;
+				// objects of border blocks are checked to be inside of the box like search does
+				boolean inside = (bx << shift) >= leftX && ((bx + 1L) << shift) - 1 <= rightX
+						&& (by << shift) >= topY && ((by + 1L) << shift) - 1 <= bottomY;
+				if (!inside) {
+					borderSeaFlags |= block.mapIndex != null;
+				} else if (block.mapIndex != null) {
+					ocean[0] |= block.ocean;
+					land[0] |= block.land;
+					mi = block.mapIndex;
 				}
+				int[] bounds = inside ? null : new int[] { leftX, rightX, topY, bottomY };
+				addUniqueObjects(block.objects, tempResult, ids, false, bounds);
+				addUniqueObjects(block.coastLines, coastLines, ids, false, bounds);
+				addUniqueObjects(block.basemapObjects, basemapResult, basemapKeys, true, bounds);
+				addUniqueObjects(block.basemapCoastLines, basemapCoastLines, basemapKeys, true, bounds);
+			}
+		}
+		// drop blocks scrolled away
+		long[] keys = dataBlocks.keys();
+		for (long key : keys) {
+			int bx = (int) (key >> 32);
+			int by = (int) key;
+			if (bx < blockLeft - 1 || bx > blockRight + 1 || by < blockTop - 1 || by > blockBottom + 1) {
+				dataBlocks.remove(key);
 			}
-			log.info(String.format("Route objects %s", tempResult.size() +""));
+		}
+		if (checkWhetherInterrupted()) {
+			return false;
+		}
+		// only objects intersecting the box are counted as rendered
+		if (!basemapResult.isEmpty() || !basemapCoastLines.isEmpty()) {
+			renderedState |= 1;
+		}
+		if (!tempResult.isEmpty() || !coastLines.isEmpty()) {
+			renderedState |= 2;
 		}
 
 		String coastlineTime = "";
@@ -445,6 +741,12 @@ public class MapRenderRepositories {
 			addBasemapCoastlines = !coastlinesWereAdded;
 			coastlineTime = "(coastline " + (System.currentTimeMillis() - ms) + " ms )";
 		}
+		if (addBasemapCoastlines && borderSeaFlags) {
+			mi = readSeaFlags(zoom, leftX, rightX, bottomY, topY, ocean, land);
+			if (mi == null && checkWhetherInterrupted()) {
+				return false;
+			}
+		}
 		if (addBasemapCoastlines && mi != null) {
 			BinaryMapDataObject o = new BinaryMapDataObject(new int[]{leftX, topY, rightX, topY, rightX, bottomY, leftX, bottomY, leftX,
 					topY}, new int[]{ocean[0] && !land[0] ? mi.coastlineEncodingType : (mi.landEncodingType)}, null, -1);
@@ -470,7 +772,8 @@ public class MapRenderRepositories {
 		if (count[0] > 0) {
 			log.info(String.format("BLat=%s, TLat=%s, LLong=%s, RLong=%s, zoom=%s", //$NON-NLS-1$
 					cBottomLatitude, cTopLatitude, cLeftLongitude, cRightLongitude, zoom));
-			log.info(String.format("Searching: %s ms  %s (%s results found)", System.currentTimeMillis() - now, coastlineTime, count[0])); //$NON-NLS-1$
+			log.info(String.format("Searching: %s ms  %s (%s results found, %s of %s blocks read)", //$NON-NLS-1$
+					System.currentTimeMillis() - now, coastlineTime, count[0], blocksRead, dataBlocks.size()));
 		}
 
 
@@ -483,6 +786,131 @@ public class MapRenderRepositories {
 
 	
 
+	/**
+	 * Reads objects of map sections (and route data if needed) intersecting the block
+	 * @return null if loading was interrupted
+	 */
+	private DataBlock readDataBlock(int left, int top, int shift, int zoom, RenderingRuleSearchRequest renderingReq,
+			int renderRouteDataFile) {
+		int right = (int) Math.min(Integer.MAX_VALUE, left + (1L << shift) - 1);
+		int bottom = (int) Math.min(Integer.MAX_VALUE, top + (1L << shift) - 1);
+		DataBlock block = new DataBlock();
+		// rendered state is calculated by objects inside of requested box
+		int state = renderedState;
+		int[] count = new int[] { 0 };
+		boolean[] ocean = new boolean[] { false };
+		boolean[] land = new boolean[] { false };
+		TLongSet ids = new TLongHashSet();
+		block.mapIndex = readMapObjectsForRendering(zoom, renderingReq, block.objects, block.basemapObjects, ids, count,
+				ocean, land, block.coastLines, block.basemapCoastLines, left, right, bottom, top);
+		block.objectsFromMapSection = block.objects.size() > 0;
+		if (renderRouteDataFile >= 0 && zoom >= zoomOnlyForBasemaps && !checkWhetherInterrupted()) {
+			searchRequest = BinaryMapIndexReader.buildSearchRequest(left, right, top, bottom, zoom, null);
+			for (BinaryMapIndexReader c : files.values()) {
+				// false positive case when we have 2 sep maps Country-roads & Country
+				if(c.getMapIndexes().size() == 0 || renderRouteDataFile == 1) {
+					readRouteDataAsMapObjects(searchRequest, c, block.objects, ids);
+				}
+			}
+		}
+		block.count = count[0];
+		block.ocean = ocean[0];
+		block.land = land[0];
+		renderedState = state;
+		if (checkWhetherInterrupted()) {
+			return null;
+		}
+		return block;
+	}
+
+	/**
+	 * Reads ocean / land flags of map index tree for the box, objects are not loaded
+	 * @return map index of the flags or null
+	 */
+	private MapIndex readSeaFlags(final int zoom, int leftX, int rightX, int bottomY, int topY, boolean[] ocean,
+			boolean[] land) {
+		ocean[0] = false;
+		land[0] = false;
+		BinaryMapIndexReader.SearchFilter noObjects = new BinaryMapIndexReader.SearchFilter() {
+			@Override
+			public boolean accept(TIntArrayList types, BinaryMapIndexReader.MapIndex root) {
+				return false;
+			}
+		};
+		MapIndex mi = null;
+		searchRequest = BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY, bottomY, zoom, noObjects);
+		for (BinaryMapIndexReader c : files.values()) {
+			searchRequest.clearSearchResults();
+			try {
+				c.searchMapIndex(searchRequest);
+			} catch (IOException e) {
+				log.debug("Search failed " + c.getRegionNames(), e); //$NON-NLS-1$
+			}
+			if (searchRequest.isOcean()) {
+				mi = c.getMapIndexes().get(0);
+				ocean[0] = true;
+			}
+			if (searchRequest.isLand()) {
+				mi = c.getMapIndexes().get(0);
+				land[0] = true;
+			}
+			if (checkWhetherInterrupted()) {
+				return null;
+			}
+		}
+		return mi;
+	}
+
+	private static void addUniqueObjects(List<BinaryMapDataObject> src, List<BinaryMapDataObject> dst, TLongSet keys,
+			boolean basemap, int[] bounds) {
+		for (BinaryMapDataObject o : src) {
+			if (bounds != null && !intersects(o, bounds[0], bounds[1], bounds[2], bounds[3])) {
+				continue;
+			}
+			long key;
+			if (!basemap && o.getId() > 0) {
+				// the same object could be stored in several map files
+				if (!checkForDuplicateObjectIds) {
+					dst.add(o);
+					continue;
+				}
+				key = o.getId();
+			} else {
+				// the same object read for neighbour block has the same id and coordinates
+				key = o.getId();
+				if (o.getPointsLength() > 0) {
+					key = key * 31 + o.getPoint31XTile(0);
+					key = key * 31 + o.getPoint31YTile(0);
+				}
+				key = key * 31 + o.getPointsLength();
+				key = -(key & Long.MAX_VALUE) - 1;
+			}
+			if (keys.add(key)) {
+				dst.add(o);
+			}
+		}
+	}
+
+	private static boolean intersects(BinaryMapDataObject o, int left, int right, int top, int bottom) {
+		int len = o.getPointsLength();
+		if (len == 0) {
+			return true;
+		}
+		int l = Integer.MAX_VALUE;
+		int r = Integer.MIN_VALUE;
+		int t = Integer.MAX_VALUE;
+		int b = Integer.MIN_VALUE;
+		for (int i = 0; i < len; i++) {
+			int x = o.getPoint31XTile(i);
+			int y = o.getPoint31YTile(i);
+			l = Math.min(l, x);
+			r = Math.max(r, x);
+			t = Math.min(t, y);
+			b = Math.max(b, y);
+		}
+		return l <= right && r >= left && t <= bottom && b >= top;
+	}
+
 	private MapIndex readMapObjectsForRendering(final int zoom, final RenderingRuleSearchRequest renderingReq,
 			ArrayList<BinaryMapDataObject> tempResult, ArrayList<BinaryMapDataObject> basemapResult, 
 			TLongSet ids, int[] count, boolean[] ocean, boolean[] land, List<BinaryMapDataObject> coastLines,
@@ -603,6 +1031,52 @@ public class MapRenderRepositories {
 
 	
 
+	/**
+	 * Creates request with rendering filters of current settings (state is saved)
+	 */
+	private RenderingRuleSearchRequest createRenderingRequest(RenderingRulesStorage storage, boolean nightMode) {
+		RenderingRuleSearchRequest renderingReq = new RenderingRuleSearchRequest(storage);
+		renderingReq.setBooleanFilter(renderingReq.ALL.R_NIGHT_MODE, nightMode);
+		for (RenderingRuleProperty customProp : storage.PROPS.getCustomRules()) {
+			if (customProp.isBoolean()) {
+				if(customProp.getAttrName().equals(RenderingRuleStorageProperties.A_ENGINE_V1)) {
+					renderingReq.setBooleanFilter(customProp, true);
+				} else if (RenderingRuleStorageProperties.UI_CATEGORY_HIDDEN.equals(customProp.getCategory())) {
+					renderingReq.setBooleanFilter(customProp, false);
+				} else {
+					CommonPreference<Boolean> pref = prefs.getCustomRenderBooleanProperty(customProp.getAttrName());
+					renderingReq.setBooleanFilter(customProp, pref.get());
+				}
+			} else if (RenderingRuleStorageProperties.UI_CATEGORY_HIDDEN.equals(customProp.getCategory())) {
+				if (customProp.isString()) {
+					renderingReq.setStringFilter(customProp, "");
+				} else {
+					renderingReq.setIntFilter(customProp, 0);
+				}
+			} else {
+				CommonPreference<String> settings = prefs.getCustomRenderProperty(customProp.getAttrName());
+				String res = settings.get();
+				if (!Algorithms.isEmpty(res)) {
+					if (customProp.isString()) {
+						renderingReq.setStringFilter(customProp, res);
+					} else {
+						try {
+							renderingReq.setIntFilter(customProp, Integer.parseInt(res));
+						} catch (NumberFormatException e) {
+							e.printStackTrace();
+						}
+					}
+				} else {
+					if (customProp.isString()) {
+						renderingReq.setStringFilter(customProp, "");
+					}
+				}
+			}
+		}
+		renderingReq.saveState();
+		return renderingReq;
+	}
+
 	public synchronized void loadMap(RotatedTileBox tileRect, MapTileDownloader mapTileDownloader) {
 		boolean prevInterrupted = interrupted;
 		interrupted = false;
@@ -620,47 +1094,26 @@ public class MapRenderRepositories {
 			boolean nightMode = app.getDaynightHelper().isNightMode();
 			// boolean moreDetail = prefs.SHOW_MORE_MAP_DETAIL.get();
 			RenderingRulesStorage storage = app.getRendererRegistry().getCurrentSelectedRenderer();
-			RenderingRuleSearchRequest renderingReq = new RenderingRuleSearchRequest(storage);
-			renderingReq.setBooleanFilter(renderingReq.ALL.R_NIGHT_MODE, nightMode);
-			for (RenderingRuleProperty customProp : storage.PROPS.getCustomRules()) {
-				if (customProp.isBoolean()) {
-					if(customProp.getAttrName().equals(RenderingRuleStorageProperties.A_ENGINE_V1)) {
-						renderingReq.setBooleanFilter(customProp, true);
-					} else if (RenderingRuleStorageProperties.UI_CATEGORY_HIDDEN.equals(customProp.getCategory())) {
-						renderingReq.setBooleanFilter(customProp, false);
-					} else {
-						CommonPreference<Boolean> pref = prefs.getCustomRenderBooleanProperty(customProp.getAttrName());
-						renderingReq.setBooleanFilter(customProp, pref.get());
-					}
-				} else if (RenderingRuleStorageProperties.UI_CATEGORY_HIDDEN.equals(customProp.getCategory())) {
-					if (customProp.isString()) {
-						renderingReq.setStringFilter(customProp, "");
-					} else {
-						renderingReq.setIntFilter(customProp, 0);
-					}
-				} else {
-					CommonPreference<String> settings = prefs.getCustomRenderProperty(customProp.getAttrName());
-					String res = settings.get();
-					if (!Algorithms.isEmpty(res)) {
-						if (customProp.isString()) {
-							renderingReq.setStringFilter(customProp, res);
-						} else {
-							try {
-								renderingReq.setIntFilter(customProp, Integer.parseInt(res));
-							} catch (NumberFormatException e) {
-								e.printStackTrace();
-							}
-						}
-					} else {
-						if (customProp.isString()) {
-							renderingReq.setStringFilter(customProp, "");
-						}
-					}
+			RenderingRuleSearchRequest renderingReq = createRenderingRequest(storage, nightMode);
+			NativeOsmandLibrary nativeLib = !prefs.SAFE_MODE.get() ? NativeOsmandLibrary.getLibrary(storage, context) : null;
+			boolean transparent = false;
+			RenderingRuleProperty rr = storage.PROPS.get("noPolygons");
+			if (rr != null) {
+				transparent = renderingReq.getIntPropertyValue(rr) > 0;
+			}
+			// necessary for transparent, otherwise 2 times smaller 
+			Config cfg = transparent ?  Config.ARGB_8888 : Config.RGB_565;
+			String tilesSession = null;
+			renderedTilesMode = nativeLib == null && prefs.RENDERED_TILES_CACHE.get();
+			if (renderedTilesMode) {
+				tileRect = getRenderedTilesBox(tileRect);
+				requestedBox = new RotatedTileBox(tileRect);
+				tilesSession = RenderedTilesCache.getSession(getDataStamp(),
+						calculateStyleStamp(app, storage, nightMode, transparent));
+				if (loadMapFromRenderedTiles(tileRect, renderingReq, tilesSession, cfg)) {
+					return;
 				}
 			}
-			renderingReq.saveState();
-			NativeOsmandLibrary nativeLib = !prefs.SAFE_MODE.get() ? NativeOsmandLibrary.getLibrary(storage, context) : null;
-
 
 			// calculate data box
 			QuadRect dataBox = requestedBox.getLatLonBounds();
@@ -684,6 +1137,7 @@ public class MapRenderRepositories {
 				boolean loaded;
 				if(nativeLib != null) {
 					cObjects = new LinkedList<BinaryMapDataObject>();
+					dataBlocks.clear();
 					loaded = loadVectorDataNative(dataBox, requestedBox.getZoom(), renderingReq, nativeLib);
 				} else {
 					cNativeObjects = null;
@@ -711,10 +1165,14 @@ public class MapRenderRepositories {
 			if(renderingReq.searchRenderingAttribute("polygonMinSizeToDisplay")) {
 				currentRenderingContext.polygonMinSizeToDisplay = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
 			}
-			final QuadPointDouble lt = requestedBox.getLeftTopTile(requestedBox.getZoom());
+			if(renderingReq.searchRenderingAttribute("roadDensityZoomTile")) {
+				currentRenderingContext.roadDensityZoomTile = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
+			}
+			if(renderingReq.searchRenderingAttribute("roadsDensityLimitPerTile")) {
+				currentRenderingContext.roadsDensityLimitPerTile = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
+			}
+			final QuadPointDouble lt = getRenderingLeftTop(requestedBox);
 			double cfd = MapUtils.getPowZoom(requestedBox.getZoomFloatPart())* requestedBox.getMapDensity();
-			lt.x *= cfd;
-			lt.y *= cfd;
 //			LatLon ltn = requestedBox.getLeftTopLatLon();
 			final double tileDivisor = MapUtils.getPowZoom(31 - requestedBox.getZoom()) / cfd;
 			
@@ -752,38 +1210,33 @@ public class MapRenderRepositories {
 			}
 
 			now = System.currentTimeMillis();
-			Bitmap bmp;
-			boolean transparent = false;
-			RenderingRuleProperty rr = storage.PROPS.get("noPolygons");
-			if (rr != null) {
-				transparent = renderingReq.getIntPropertyValue(rr) > 0;
-			}
 
 			// 1. generate image step by step
-			Bitmap reuse = prevBmp;
-			this.prevBmp = this.bmp;
-			this.prevBmpLocation = this.bmpLocation;
-			// necessary for transparent, otherwise 2 times smaller 
-			Config cfg = transparent ?  Config.ARGB_8888 : Config.RGB_565;
-			if (reuse != null && reuse.getWidth() == currentRenderingContext.width && reuse.getHeight() == currentRenderingContext.height &&
-					cfg == reuse.getConfig()) {
-				bmp = reuse;
-				bmp.eraseColor(currentRenderingContext.defaultColor);
-			} else {
-				if(reuse != null){
-					log.warn(String.format("Create new image ? %d != %d (w) %d != %d (h) ", currentRenderingContext.width, reuse.getWidth(), currentRenderingContext.height, reuse.getHeight()));
-				}
-				bmp = Bitmap.createBitmap(currentRenderingContext.width, currentRenderingContext.height, cfg);
-				if(reuse != null) {
-					reuse.recycle();
-				}
-			}
-			this.bmp = bmp;
+			Bitmap bmp = prepareBitmap(currentRenderingContext.width, currentRenderingContext.height, cfg,
+					currentRenderingContext.defaultColor);
 			this.bmpLocation = tileRect;
 			if(nativeLib != null) {
 				renderer.generateNewBitmapNative(currentRenderingContext, nativeLib, cNativeObjects, bmp, renderingReq, mapTileDownloader);
 			} else {
-				renderer.generateNewBitmap(currentRenderingContext, cObjects, bmp, renderingReq, mapTileDownloader);
+				if (prefs.PROGRESSIVE_MAP_RENDERING.get()) {
+					currentRenderingContext.passListener = new RenderingPassListener() {
+						@Override
+						public void passRendered(RenderingContext rc) {
+							// show the new bitmap instead of the shifted previous one (it was drawn over)
+							prevBmpLocation = null;
+						}
+					};
+				}
+				RenderingRuleSearchRequest[] subTileRequests = null;
+				if (prefs.TILED_MAP_RENDERING.get() && Runtime.getRuntime().availableProcessors() > 1) {
+					// rendering requests keep search state, so each sub tile needs own one
+					subTileRequests = new RenderingRuleSearchRequest[OsmandRenderer.getSubTilesCount()];
+					for (int i = 0; i < subTileRequests.length; i++) {
+						subTileRequests[i] = createRenderingRequest(storage, nightMode);
+					}
+				}
+				renderer.generateNewBitmap(currentRenderingContext, cObjects, bmp, renderingReq, subTileRequests,
+						mapTileDownloader);
 			}
 			// Force to use rendering request in order to prevent Garbage Collector when it is used in C++
 			if(renderingReq != null){
@@ -794,19 +1247,19 @@ public class MapRenderRepositories {
 			visibleRenderingContext = currentRenderingContext;
 			if (checkWhetherInterrupted()) {
 				// revert if it was interrupted 
-				// (be smart a bit do not revert if road already drawn) 
-				if(currentRenderingContext.lastRenderedKey < OsmandRenderer.DEFAULT_LINE_MAX) {
-					reuse = this.bmp;
-					this.bmp = this.prevBmp;
-					this.bmpLocation = this.prevBmpLocation;
-					this.prevBmp = reuse;
-					this.prevBmpLocation = null;
+				// (be smart a bit do not revert if road already drawn or partial image is already shown) 
+				if(currentRenderingContext.lastRenderedKey < OsmandRenderer.DEFAULT_LINE_MAX
+						&& !currentRenderingContext.previewPublished) {
+					revertBitmap();
 				}
 				currentRenderingContext = null;
 				return;
 			} else {
 				this.checkedRenderedState = renderedState;
 				this.checkedBox = this.bmpLocation;
+				if (tilesSession != null) {
+					saveRenderedTiles(tilesSession, requestedBox.getZoom(), lt, bmp);
+				}
 			}
 			currentRenderingContext = null;
 
@@ -840,6 +1293,7 @@ public class MapRenderRepositories {
 			log.error("Out of memory error", e); //$NON-NLS-1$
 			cObjects = new ArrayList<BinaryMapDataObject>();
 			cObjectsBox = new QuadRect();
+			dataBlocks.clear();
 			handler.post(new Runnable() {
 				@Override
 				public void run() {
@@ -872,6 +1326,7 @@ public class MapRenderRepositories {
 	public synchronized void clearCache() {
 		cObjects = new ArrayList<BinaryMapDataObject>();
 		cObjectsBox = new QuadRect();
+		dataBlocks.clear();
 
 		requestedBox = prevBmpLocation = null;
 		// Do not clear main bitmap to not cause a screen refresh
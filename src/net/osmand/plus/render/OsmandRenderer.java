@@ -2,6 +2,7 @@ package net.osmand.plus.render;
 
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -9,16 +10,21 @@ import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import net.osmand.NativeLibrary;
 import net.osmand.NativeLibrary.NativeSearchResult;
 import net.osmand.PlatformUtil;
 import net.osmand.binary.BinaryMapDataObject;
 import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
-import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.map.MapTileDownloader;
 import net.osmand.map.MapTileDownloader.IMapDownloaderCallback;
+import net.osmand.plus.render.RenderingRulesCache.PaintStyle;
+import net.osmand.plus.render.RenderingRulesCache.RuleResult;
 import net.osmand.plus.render.TextRenderer.TextDrawInfo;
 import net.osmand.render.RenderingRuleProperty;
 import net.osmand.render.RenderingRuleSearchRequest;
@@ -44,6 +50,7 @@ import android.graphics.PathEffect;
 import android.graphics.PointF;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffColorFilter;
+import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader;
@@ -56,9 +63,8 @@ import android.view.WindowManager;
 public class OsmandRenderer {
 	private static final Log log = PlatformUtil.getLog(OsmandRenderer.class);
 
-	private Paint paint;
-
 	private Paint paintIcon;
+	private Paint paintComposite;
 	public static final int DEFAULT_POLYGON_MAX = 11;
 	public static final int DEFAULT_LINE_MAX = 100;
 	public static final int DEFAULT_POINTS_MAX = 200;
@@ -66,6 +72,9 @@ public class OsmandRenderer {
 
 	public static final int TILE_SIZE = 256; 
 	private static final int MAX_V = 75;
+	// polygons and lines are rendered in parallel by sub tiles of the map bitmap (tiled mode)
+	private static final int SUB_TILES_COLS = 2;
+	private static final int SUB_TILES_ROWS = 2;
 
 	private Map<float[], PathEffect> dashEffect = new LinkedHashMap<float[], PathEffect>();
 	private Map<String, float[]> parsedDashEffects = new LinkedHashMap<String, float[]>();
@@ -77,6 +86,13 @@ public class OsmandRenderer {
 
 	private TextRenderer textRenderer;
 
+	private ExecutorService subTilesExecutor;
+	private Bitmap[] subTileBitmaps;
+	// taken by the rendering in progress
+	private RenderingPools renderingPools;
+	// reused by every rendering
+	private final LabelCollisionGrid iconsBounds = new LabelCollisionGrid();
+
 	public class MapDataObjectPrimitive {
 		BinaryMapDataObject obj;
 		int typeInd;
@@ -98,29 +114,183 @@ public class OsmandRenderer {
 		float iconSize;
 	}
 	
+	/**
+	 * Keeps objects created for every rendered object to reuse them by next renderings
+	 */
+	private static abstract class ObjectsPool<T> {
+		private static final int MAX_KEPT = 1 << 15;
+		private final ArrayList<T> items = new ArrayList<T>();
+		private int used;
+		
+		abstract T create();
+		
+		void reset(T item) {
+		}
+		
+		T obtain() {
+			if (used == items.size()) {
+				items.add(create());
+			}
+			return items.get(used++);
+		}
+		
+		void release() {
+			for (int i = 0; i < used; i++) {
+				reset(items.get(i));
+			}
+			used = 0;
+			if (items.size() > MAX_KEPT) {
+				items.subList(MAX_KEPT, items.size()).clear();
+				items.trimToSize();
+			}
+		}
+	}
+	
+	private class RenderingPools {
+		final ObjectsPool<MapDataObjectPrimitive> primitives = new ObjectsPool<MapDataObjectPrimitive>() {
+			@Override
+			MapDataObjectPrimitive create() {
+				return new MapDataObjectPrimitive();
+			}
+			
+			@Override
+			void reset(MapDataObjectPrimitive item) {
+				// do not keep map data of previous renderings
+				item.obj = null;
+			}
+		};
+		final ObjectsPool<IconDrawInfo> icons = new ObjectsPool<IconDrawInfo>() {
+			@Override
+			IconDrawInfo create() {
+				return new IconDrawInfo();
+			}
+		};
+		
+		void release() {
+			primitives.release();
+			icons.release();
+		}
+	}
+	
 	
 	
 
 	/* package */
+	/**
+	 * Progressive rendering : receives intermediate state of the bitmap (called from the rendering thread)
+	 */
+	public interface RenderingPassListener {
+
+		/**
+		 * Bitmap contains everything up to {@link RenderingContext#lastRenderedKey}, icons and text are drawn next
+		 */
+		public void passRendered(RenderingContext rc);
+	}
+
 	public static class RenderingContext extends net.osmand.RenderingContext {
 		List<TextDrawInfo> textToDraw = new ArrayList<TextDrawInfo>();
 		List<IconDrawInfo> iconsToDraw = new ArrayList<IconDrawInfo>();
 		Paint[] oneWay ;
 		Paint[] reverseOneWay ;
 		final Context ctx;
+		// paint is changed for every object so each rendering thread needs own one
+		final Paint paint;
+		// context of the whole map for sub tile contexts
+		RenderingContext parent;
+		// text of the sub tile context is collected only if its anchor is inside these bounds
+		RectF textBounds;
+		// results of rules search are valid only for the request used by this context
+		final RenderingRulesCache rulesCache = new RenderingRulesCache();
+		// not null in progressive mode : notified when polygons and lines are drawn
+		RenderingPassListener passListener;
+		// partially rendered bitmap was shown
+		boolean previewPublished;
 
 		public RenderingContext(Context ctx) {
 			this.ctx = ctx;
+			paint = new Paint();
+			paint.setAntiAlias(true);
+		}
+		
+		boolean isInterrupted() {
+			return interrupted || (parent != null && parent.interrupted);
+		}
+		
+		boolean acceptText(float x, float y) {
+			if (textBounds == null) {
+				return true;
+			}
+			// anchors outside of the map belong to the nearest sub tile
+			x = Math.max(0, Math.min(x, width - 1));
+			y = Math.max(0, Math.min(y, height - 1));
+			return x >= textBounds.left && x < textBounds.right && y >= textBounds.top && y < textBounds.bottom;
+		}
+		
+		RenderingContext createSubTileContext(int left, int top, int right, int bottom) {
+			RenderingContext sub = new RenderingContext(ctx);
+			sub.parent = this;
+			sub.textBounds = new RectF(left, top, right, bottom);
+			sub.leftX = leftX;
+			sub.topY = topY;
+			sub.width = width;
+			sub.height = height;
+			sub.zoom = zoom;
+			sub.rotate = rotate;
+			sub.tileDivisor = tileDivisor;
+			sub.nightMode = nightMode;
+			sub.preferredLocale = preferredLocale;
+			sub.transliterate = transliterate;
+			sub.defaultColor = defaultColor;
+			sub.shadowRenderingMode = shadowRenderingMode;
+			sub.shadowRenderingColor = shadowRenderingColor;
+			sub.polygonMinSizeToDisplay = polygonMinSizeToDisplay;
+			sub.screenDensityRatio = screenDensityRatio;
+			sub.textScale = textScale;
+			sub.setDensityValue(density);
+			sub.cosRotateTileSize = cosRotateTileSize;
+			sub.sinRotateTileSize = sinRotateTileSize;
+			return sub;
 		}
 
 		// use to calculate points
 		PointF tempPoint = new PointF();
+		// projected coordinates of the current object (x, y pairs) and its path reused for next objects
+		private float[] coordinates = new float[512];
+		private Path path;
+		// objects reused between renderings, set by renderer for the rendering in progress
+		RenderingPools pools;
+		
+		float[] getCoordinates(int points) {
+			if (coordinates.length < points * 2) {
+				coordinates = new float[Math.max(points * 2, coordinates.length * 2)];
+			}
+			return coordinates;
+		}
+		
+		Path obtainPath() {
+			if (path == null) {
+				path = new Path();
+			} else {
+				path.reset();
+				path.setFillType(FillType.WINDING);
+			}
+			return path;
+		}
+		
+		void releasePath() {
+			path = null;
+		}
 		float cosRotateTileSize;
 		float sinRotateTileSize;
 
 		int shadowLevelMin = 256;
 		int shadowLevelMax = 0;
 
+		// highways are skipped where there are more than roadsDensityLimitPerTile of them
+		// in a tile of (zoom + roadDensityZoomTile), 0 - no filtering
+		int roadDensityZoomTile = 0;
+		int roadsDensityLimitPerTile = 0;
+
 		boolean ended = false;
 
 		
@@ -138,15 +308,15 @@ public class OsmandRenderer {
 
 
 		textRenderer = new TextRenderer(context);
-		paint = new Paint();
-		paint.setAntiAlias(true);
+		paintComposite = new Paint();
+		paintComposite.setXfermode(new PorterDuffXfermode(Mode.SRC));
 
 		dm = new DisplayMetrics();
 		WindowManager wmgr = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
 		wmgr.getDefaultDisplay().getMetrics(dm);
 	}
 
-	public PathEffect getDashEffect(RenderingContext rc, float[] cachedValues, float st){
+	public synchronized PathEffect getDashEffect(RenderingContext rc, float[] cachedValues, float st){
 		float[] dashes = new float[cachedValues.length / 2];
 		for (int i = 0; i < dashes.length; i++) {
 			dashes[i] = rc.getDensityValue(cachedValues[i * 2]) + cachedValues[i * 2 + 1];
@@ -157,7 +327,7 @@ public class OsmandRenderer {
 		return dashEffect.get(dashes);
 	}
 
-	public Shader getShader(String resId){
+	public synchronized Shader getShader(String resId){
 		
 		if(shaders.get(resId) == null){
 			Bitmap bmp = RenderingIcons.getIcon(context, resId, true);
@@ -225,19 +395,20 @@ public class OsmandRenderer {
 			for (int i = 0; i < array.size(); i++) {
 				rc.allObjects++;
 				BinaryMapDataObject mObj = array.get(i).obj;
-				TagValuePair pair = mObj.getMapIndex().decodeType(mObj.getTypes()[array.get(i).typeInd]);
+				int wholeType = mObj.getTypes()[array.get(i).typeInd];
+				TagValuePair pair = mObj.getMapIndex().decodeType(wholeType);
 				if (objOrder == 0) {
 					if (array.get(i).order > minPolygonSize + ((int) array.get(i).order)) {
 						continue;
 					}
 					// polygon
-					drawPolygon(mObj, req, cv, rc, pair);
+					drawPolygon(mObj, req, cv, rc, pair, wholeType);
 				} else if (objOrder == 1 || objOrder == 2) {
-					drawPolyline(mObj, req, cv, rc, pair, mObj.getSimpleLayer(), objOrder == 1);
+					drawPolyline(mObj, req, cv, rc, pair, wholeType, mObj.getSimpleLayer(), objOrder == 1);
 				} else if (objOrder == 3) {
-					drawPoint(mObj, req, cv, rc, pair, array.get(i).typeInd == 0);
+					drawPoint(mObj, req, cv, rc, pair, wholeType, array.get(i).typeInd == 0);
 				}
-				if (i % 25 == 0 && rc.interrupted) {
+				if (i % 25 == 0 && rc.isInterrupted()) {
 					return;
 				}
 			}
@@ -245,6 +416,23 @@ public class OsmandRenderer {
 	
 	public void generateNewBitmap(RenderingContext rc, List<BinaryMapDataObject> objects, Bitmap bmp, 
 				RenderingRuleSearchRequest render, final MapTileDownloader mapTileDownloader) {
+		generateNewBitmap(rc, objects, bmp, render, null, mapTileDownloader);
+	}
+	
+	/**
+	 * Number of rendering requests needed by tiled mode (one per sub tile)
+	 */
+	public static int getSubTilesCount() {
+		return SUB_TILES_COLS * SUB_TILES_ROWS;
+	}
+	
+	/**
+	 * Tiled mode is used when requests for sub tiles are passed : polygons and lines are rendered
+	 * by sub tiles in parallel, icons and text are placed over the whole map afterwards.
+	 */
+	public void generateNewBitmap(RenderingContext rc, List<BinaryMapDataObject> objects, Bitmap bmp, 
+				RenderingRuleSearchRequest render, RenderingRuleSearchRequest[] subTileRequests, 
+				final MapTileDownloader mapTileDownloader) {
 		long now = System.currentTimeMillis();
 		// fill area
 		Canvas cv = new Canvas(bmp);
@@ -252,44 +440,187 @@ public class OsmandRenderer {
 			cv.drawColor(rc.defaultColor);
 		}
 		if (objects != null && !objects.isEmpty() && rc.width > 0 && rc.height > 0) {
-			rc.cosRotateTileSize = (float) (Math.cos((float) Math.toRadians(rc.rotate)) * TILE_SIZE);
-			rc.sinRotateTileSize = (float) (Math.sin((float) Math.toRadians(rc.rotate)) * TILE_SIZE);
+			rc.pools = takeRenderingPools();
+			try {
+				rc.cosRotateTileSize = (float) (Math.cos((float) Math.toRadians(rc.rotate)) * TILE_SIZE);
+				rc.sinRotateTileSize = (float) (Math.sin((float) Math.toRadians(rc.rotate)) * TILE_SIZE);
 			
-			// put in order map
-			List<MapDataObjectPrimitive>  pointsArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
-			List<MapDataObjectPrimitive> polygonsArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
-			List<MapDataObjectPrimitive>  linesArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
-			sortObjectsByProperOrder(rc, objects, render, pointsArray, polygonsArray, linesArray);
-
-			rc.lastRenderedKey = 0;
-
-			drawObject(rc, cv, render, polygonsArray, 0);
-			rc.lastRenderedKey = DEFAULT_POLYGON_MAX;
-			if (rc.shadowRenderingMode > 1) {
-				drawObject(rc, cv, render, linesArray, 1);
-			}
-			rc.lastRenderedKey = (DEFAULT_LINE_MAX + DEFAULT_POLYGON_MAX) / 2;
-			drawObject(rc, cv, render, linesArray, 2);
-			rc.lastRenderedKey = DEFAULT_LINE_MAX;
+				// put in order map
+				List<MapDataObjectPrimitive>  pointsArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
+				List<MapDataObjectPrimitive> polygonsArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
+				List<MapDataObjectPrimitive>  linesArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
+				sortObjectsByProperOrder(rc, objects, render, pointsArray, polygonsArray, linesArray);
+
+				rc.lastRenderedKey = 0;
+
+				if (subTileRequests != null && subTileRequests.length >= getSubTilesCount()) {
+					drawSubTiles(rc, cv, bmp, subTileRequests, polygonsArray, linesArray);
+				} else {
+					drawObject(rc, cv, render, polygonsArray, 0);
+					rc.lastRenderedKey = DEFAULT_POLYGON_MAX;
+					publishPass(rc, mapTileDownloader);
+					if (rc.shadowRenderingMode > 1) {
+						drawObject(rc, cv, render, linesArray, 1);
+					}
+					rc.lastRenderedKey = (DEFAULT_LINE_MAX + DEFAULT_POLYGON_MAX) / 2;
+					drawObject(rc, cv, render, linesArray, 2);
+				}
+				rc.lastRenderedKey = DEFAULT_LINE_MAX;
+				publishPass(rc, mapTileDownloader);
 
-			drawObject(rc, cv, render, pointsArray, 3);
-			rc.lastRenderedKey = DEFAULT_POINTS_MAX;
+				drawObject(rc, cv, render, pointsArray, 3);
+				rc.lastRenderedKey = DEFAULT_POINTS_MAX;
 
 
-			long beforeIconTextTime = System.currentTimeMillis() - now;
-			notifyListeners(mapTileDownloader);
-			drawIconsOverCanvas(rc, cv);
+				long beforeIconTextTime = System.currentTimeMillis() - now;
+				notifyListeners(mapTileDownloader);
+				drawIconsOverCanvas(rc, cv);
 
-			notifyListeners(mapTileDownloader);
-			textRenderer.drawTextOverCanvas(rc, cv, rc.preferredLocale);
+				notifyListeners(mapTileDownloader);
+				textRenderer.drawTextOverCanvas(rc, cv, rc.preferredLocale);
 
-			long time = System.currentTimeMillis() - now;
-			rc.renderingDebugInfo = String.format("Rendering: %s ms  (%s text)\n"
-					+ "(%s points, %s points inside, %s of %s objects visible)",//$NON-NLS-1$
-					time, time - beforeIconTextTime, rc.pointCount, rc.pointInsideCount, rc.visible, rc.allObjects);
-			log.info(rc.renderingDebugInfo);
+				long time = System.currentTimeMillis() - now;
+				rc.renderingDebugInfo = String.format("Rendering: %s ms  (%s text)\n"
+						+ "(%s points, %s points inside, %s of %s objects visible)",//$NON-NLS-1$
+						time, time - beforeIconTextTime, rc.pointCount, rc.pointInsideCount, rc.visible, rc.allObjects);
+				log.info(rc.renderingDebugInfo);
+				if (log.isDebugEnabled()) {
+					log.debug(String.format("Rendering rules : %s evaluated, %s taken from cache", //$NON-NLS-1$
+							rc.rulesCache.getMisses(), rc.rulesCache.getHits()));
+				}
+			} finally {
+				rc.iconsToDraw.clear();
+				returnRenderingPools(rc.pools);
+				rc.pools = null;
+			}
+
+		}
+	}
 
+	private void drawSubTiles(final RenderingContext rc, Canvas cv, Bitmap bmp, RenderingRuleSearchRequest[] requests,
+			final List<MapDataObjectPrimitive> polygonsArray, final List<MapDataObjectPrimitive> linesArray) {
+		int tileWidth = (rc.width + SUB_TILES_COLS - 1) / SUB_TILES_COLS;
+		int tileHeight = (rc.height + SUB_TILES_ROWS - 1) / SUB_TILES_ROWS;
+		Bitmap[] bitmaps = getSubTileBitmaps(tileWidth, tileHeight, bmp.getConfig());
+		final RenderingContext[] subContexts = new RenderingContext[getSubTilesCount()];
+		final int[] polygonTexts = new int[subContexts.length];
+		List<Future<?>> futures = new ArrayList<Future<?>>(subContexts.length);
+		ExecutorService executor = getSubTilesExecutor();
+		for (int i = 0; i < subContexts.length; i++) {
+			final int ind = i;
+			final int left = (i % SUB_TILES_COLS) * tileWidth;
+			final int top = (i / SUB_TILES_COLS) * tileHeight;
+			final RenderingContext sub = rc.createSubTileContext(left, top, left + tileWidth, top + tileHeight);
+			final RenderingRuleSearchRequest req = requests[i];
+			final Bitmap tile = bitmaps[i];
+			subContexts[i] = sub;
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					tile.eraseColor(rc.defaultColor);
+					Canvas tc = new Canvas(tile);
+					tc.translate(-left, -top);
+					drawObject(sub, tc, req, polygonsArray, 0);
+					polygonTexts[ind] = sub.textToDraw.size();
+					if (sub.shadowRenderingMode > 1) {
+						drawObject(sub, tc, req, linesArray, 1);
+					}
+					drawObject(sub, tc, req, linesArray, 2);
+				}
+			}));
+		}
+		// sub tile bitmaps are reused, so all tasks should be finished (they stop fast when interrupted)
+		Throwable error = null;
+		boolean threadInterrupted = false;
+		for (Future<?> f : futures) {
+			while (true) {
+				try {
+					f.get();
+					break;
+				} catch (InterruptedException e) {
+					rc.interrupted = true;
+					threadInterrupted = true;
+				} catch (ExecutionException e) {
+					rc.interrupted = true;
+					if (error == null) {
+						error = e.getCause();
+					}
+					break;
+				}
+			}
+		}
+		if (threadInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (error instanceof OutOfMemoryError) {
+			throw (OutOfMemoryError) error;
+		} else if (error != null) {
+			throw new IllegalStateException(error);
+		}
+		if (rc.interrupted) {
+			return;
+		}
+		for (int i = 0; i < subContexts.length; i++) {
+			cv.drawBitmap(bitmaps[i], subContexts[i].textBounds.left, subContexts[i].textBounds.top, paintComposite);
+		}
+		// keep the order of the single threaded rendering : polygons text before lines text
+		for (int i = 0; i < subContexts.length; i++) {
+			rc.textToDraw.addAll(subContexts[i].textToDraw.subList(0, polygonTexts[i]));
+		}
+		for (int i = 0; i < subContexts.length; i++) {
+			RenderingContext sub = subContexts[i];
+			rc.textToDraw.addAll(sub.textToDraw.subList(polygonTexts[i], sub.textToDraw.size()));
+			rc.pointCount += sub.pointCount;
+			rc.pointInsideCount += sub.pointInsideCount;
+			rc.visible += sub.visible;
+			rc.allObjects += sub.allObjects;
+		}
+	}
+	
+	private synchronized RenderingPools takeRenderingPools() {
+		RenderingPools pools = renderingPools;
+		renderingPools = null;
+		return pools != null ? pools : new RenderingPools();
+	}
+	
+	private synchronized void returnRenderingPools(RenderingPools pools) {
+		pools.release();
+		renderingPools = pools;
+	}
+	
+	private synchronized ExecutorService getSubTilesExecutor() {
+		if (subTilesExecutor == null) {
+			int threads = Math.max(1, Math.min(getSubTilesCount(), Runtime.getRuntime().availableProcessors()));
+			subTilesExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Sub tile rendering"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return subTilesExecutor;
+	}
+	
+	private Bitmap[] getSubTileBitmaps(int width, int height, Bitmap.Config cfg) {
+		Bitmap[] bitmaps = subTileBitmaps;
+		if (bitmaps != null && bitmaps[0].getWidth() == width && bitmaps[0].getHeight() == height
+				&& bitmaps[0].getConfig() == cfg) {
+			return bitmaps;
+		}
+		if (bitmaps != null) {
+			for (Bitmap b : bitmaps) {
+				b.recycle();
+			}
+			subTileBitmaps = null;
+		}
+		bitmaps = new Bitmap[getSubTilesCount()];
+		for (int i = 0; i < bitmaps.length; i++) {
+			bitmaps[i] = Bitmap.createBitmap(width, height, cfg);
 		}
+		subTileBitmaps = bitmaps;
+		return bitmaps;
 	}
 
 	private void notifyListenersWithDelay(final RenderingContext rc, final MapTileDownloader mapTileDownloader, final Handler h) {
@@ -316,10 +647,8 @@ public class OsmandRenderer {
 				return object1.iconOrder - object2.iconOrder;
 			}
 		});
-		QuadRect bounds = new QuadRect(0, 0, rc.width, rc.height);
-		bounds.inset(-bounds.width()/4, -bounds.height()/4);
-		QuadTree<RectF> boundIntersections = new QuadTree<RectF>(bounds, 4, 0.6f);
-		List<RectF> result = new ArrayList<RectF>();
+		LabelCollisionGrid boundIntersections = iconsBounds;
+		boundIntersections.reset(-rc.width / 4, -rc.height / 4, rc.width * 5 / 4, rc.height * 5 / 4);
 		
 		for (IconDrawInfo icon : rc.iconsToDraw) {
 			if (icon.resId != null) {
@@ -334,13 +663,8 @@ public class OsmandRenderer {
 						RectF visibleRect = null;
 						if (visbleHeight > 0 && visbleWidth > 0) {
 							visibleRect = calculateRect(rc, icon, visbleWidth, visbleHeight);
-							boundIntersections.queryInBox(new QuadRect(visibleRect.left, visibleRect.top, visibleRect.right, visibleRect.bottom), result);
-							for (RectF r : result) {
-								if (r.intersects(visibleRect.left, visibleRect.top, visibleRect.right, visibleRect.bottom)) {
-									intersects = true;
-									break;
-								}
-							}
+							intersects = boundIntersections.intersects(visibleRect.centerX(), visibleRect.centerY(),
+									visibleRect.width(), visibleRect.height(), 0);
 						}
 						
 						if (!intersects) {
@@ -371,9 +695,8 @@ public class OsmandRenderer {
 								drawBitmap(cv, RenderingIcons.getIcon(context, icon.resId5, true), rf);
 							}
 							if(visibleRect != null) {
-								visibleRect.inset(-visibleRect.width() / 4, -visibleRect.height() / 4);
-								boundIntersections.insert(visibleRect, 
-										new QuadRect(visibleRect.left, visibleRect.top, visibleRect.right, visibleRect.bottom));
+								boundIntersections.insert(visibleRect.centerX(), visibleRect.centerY(),
+										visibleRect.width() * 3 / 2, visibleRect.height() * 3 / 2, 0, null);
 							}
 						}
 					}
@@ -463,14 +786,33 @@ public class OsmandRenderer {
 
 					TagValuePair pair = o.getMapIndex().decodeType(wholeType);
 					if (pair != null) {
-						render.setTagValueZoomLayer(pair.tag, pair.value, rc.zoom, layer, o);
-						render.setBooleanFilter(render.ALL.R_AREA, o.isArea());
-						render.setBooleanFilter(render.ALL.R_POINT, o.getPointsLength() == 1);
-						render.setBooleanFilter(render.ALL.R_CYCLE, o.isCycle());
-						if (render.search(RenderingRulesStorage.ORDER_RULES)) {
-							int objectType = render.getIntPropertyValue(render.ALL.R_OBJECT_TYPE);
-							int order = render.getIntPropertyValue(render.ALL.R_ORDER);
-							MapDataObjectPrimitive mapObj = new MapDataObjectPrimitive();
+						boolean isArea = o.isArea();
+						boolean point = o.getPointsLength() == 1;
+						boolean cycle = o.isCycle();
+						RuleResult rule = rc.rulesCache.get(RenderingRulesStorage.ORDER_RULES, o, wholeType, layer,
+								isArea, point, cycle);
+						if (rule == null) {
+							rule = new RuleResult();
+							render.setTagValueZoomLayer(pair.tag, pair.value, rc.zoom, layer, o);
+							render.setBooleanFilter(render.ALL.R_AREA, isArea);
+							render.setBooleanFilter(render.ALL.R_POINT, point);
+							render.setBooleanFilter(render.ALL.R_CYCLE, cycle);
+							rule.found = render.search(RenderingRulesStorage.ORDER_RULES);
+							if (rule.found) {
+								rule.objectType = render.getIntPropertyValue(render.ALL.R_OBJECT_TYPE);
+								rule.order = render.getIntPropertyValue(render.ALL.R_ORDER);
+								rule.shadowLevel = render.isSpecified(render.ALL.R_SHADOW_LEVEL);
+								if (rule.shadowLevel) {
+									render.clearValue(render.ALL.R_SHADOW_LEVEL);
+								}
+							}
+							rc.rulesCache.put(RenderingRulesStorage.ORDER_RULES, o, wholeType, layer, area, point, cycle,
+									rule);
+						}
+						if (rule.found) {
+							int objectType = rule.objectType;
+							int order = rule.order;
+							MapDataObjectPrimitive mapObj = rc.pools.primitives.obtain();
 							mapObj.objectType = objectType;
 							mapObj.order = order;
 							mapObj.typeInd = j;
@@ -489,10 +831,9 @@ public class OsmandRenderer {
 							} else {
 								linesArray.add(mapObj);
 							}
-							if (render.isSpecified(render.ALL.R_SHADOW_LEVEL)) {
+							if (rule.shadowLevel) {
 								rc.shadowLevelMin = Math.min(rc.shadowLevelMin, order);
 								rc.shadowLevelMax = Math.max(rc.shadowLevelMax, order);
-								render.clearValue(render.ALL.R_SHADOW_LEVEL);
 							}
 						}
 
@@ -512,46 +853,49 @@ public class OsmandRenderer {
 	
 	void filterLinesByDensity(RenderingContext rc, List<MapDataObjectPrimitive>  linesResArray,
 			List<MapDataObjectPrimitive> linesArray) {
-//		int roadsLimit = rc->roadsDensityLimitPerTile;
-//		int densityZ = rc->roadDensityZoomTile;
-//		if(densityZ == 0 || roadsLimit == 0) {
-//			linesResArray = linesArray;
-//			return;
-//		}
-//		linesResArray.reserve(linesArray.size());
-//		UNORDERED(map)<int64_t, pair<int, int> > densityMap;
-//		for (int i = linesArray.size() - 1; i >= 0; i--) {
-//			bool accept = true;
-//			int o = linesArray[i].order;
-//			MapDataObject* line = linesArray[i].obj;
-//			tag_value& ts = line->types[linesArray[i].typeInd];
-//			if (ts.first == "highway") {
-//				accept = false;
-//				int64_t prev = 0;
-//				for (uint k = 0; k < line->points.size(); k++) {
-//					int dz = rc->getZoom() + densityZ;
-//					int64_t x = (line->points[k].first) >> (31 - dz);
-//					int64_t y = (line->points[k].second) >> (31 - dz);
-//					int64_t tl = (x << dz) + y;
-//					if (prev != tl) {
-//						prev = tl;
-//						pair<int, int>& p = densityMap[tl];
-//						if (p.first < roadsLimit/* && p.second > o */) {
-//							accept = true;
-//							p.first++;
-//							p.second = o;
-//							densityMap[tl] = p;
-//						}
-//					}
-//				}
-//			}
-//			if(accept) {
-//				linesResArray.push_back(linesArray[i]);
-//			}
-//		}
-//		reverse(linesResArray.begin(), linesResArray.end());
-		// TODO
-		linesResArray.addAll(linesArray);
+		int roadsLimit = rc.roadsDensityLimitPerTile;
+		int densityZ = rc.roadDensityZoomTile;
+		if(densityZ == 0 || roadsLimit == 0) {
+			linesResArray.addAll(linesArray);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		int dz = Math.min(31, rc.zoom + densityZ);
+		int start = linesResArray.size();
+		// number of accepted highways by density tile
+		TLongIntHashMap densityMap = new TLongIntHashMap();
+		// lines with higher order are drawn over others, so they are accepted first
+		for (int i = linesArray.size() - 1; i >= 0; i--) {
+			boolean accept = true;
+			MapDataObjectPrimitive line = linesArray.get(i);
+			BinaryMapDataObject o = line.obj;
+			TagValuePair ts = o.getMapIndex().decodeType(o.getTypes()[line.typeInd]);
+			if (ts != null && "highway".equals(ts.tag)) { //$NON-NLS-1$
+				accept = false;
+				long prev = -1;
+				for (int k = 0; k < o.getPointsLength(); k++) {
+					long x = o.getPoint31XTile(k) >> (31 - dz);
+					long y = o.getPoint31YTile(k) >> (31 - dz);
+					long tl = (x << dz) + y;
+					if (prev != tl) {
+						prev = tl;
+						int cnt = densityMap.get(tl);
+						if (cnt < roadsLimit) {
+							accept = true;
+							densityMap.put(tl, cnt + 1);
+						}
+					}
+				}
+			}
+			if (accept) {
+				linesResArray.add(line);
+			}
+		}
+		Collections.reverse(linesResArray.subList(start, linesResArray.size()));
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("Lines filtered by density : %s of %s lines accepted for %s ms", //$NON-NLS-1$
+					linesResArray.size() - start, linesArray.size(), System.currentTimeMillis() - now));
+		}
 	}
 
 	private double polygonArea(MapDataObjectPrimitive mapObj, float mult) {
@@ -568,6 +912,14 @@ public class OsmandRenderer {
 		return Math.abs(area) * mult * mult * .5;
 	}
 
+	private void publishPass(RenderingContext rc, MapTileDownloader mapTileDownloader) {
+		if (rc.passListener != null && !rc.isInterrupted()) {
+			rc.passListener.passRendered(rc);
+			rc.previewPublished = true;
+			notifyListeners(mapTileDownloader);
+		}
+	}
+
 	private void notifyListeners(MapTileDownloader mapTileDownloader) {
 		if (mapTileDownloader != null) {
 			mapTileDownloader.fireLoadCallback(null);
@@ -599,7 +951,8 @@ public class OsmandRenderer {
 		shaders.clear();
 	}
 	
-	private void drawPolygon(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Canvas canvas, RenderingContext rc, TagValuePair pair) {
+	private void drawPolygon(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Canvas canvas, RenderingContext rc, TagValuePair pair,
+			int wholeType) {
 		if(render == null || pair == null){
 			return;
 		}
@@ -609,9 +962,9 @@ public class OsmandRenderer {
 		Path path = null;
 		
 		// rc.main.color = Color.rgb(245, 245, 245);
-		render.setInitialTagValueZoom(pair.tag, pair.value, zoom, obj);
-		boolean rendered = render.search(RenderingRulesStorage.POLYGON_RULES);
-		if(!rendered || !updatePaint(render, paint, 0, true, rc)){
+		RuleResult rule = searchRules(rc, render, RenderingRulesStorage.POLYGON_RULES, obj, pair, wholeType, 0);
+		Paint paint = rc.paint;
+		if(!rule.found || !updatePaint(paint, rule.areaPaint, true)){
 			return;
 		}
 		rc.visible++;
@@ -630,7 +983,8 @@ public class OsmandRenderer {
 			xText += p.x;
 			yText += p.y;
 			if (path == null) {
-				path = new Path();
+				// path is not kept by polygon text
+				path = rc.obtainPath();
 				path.moveTo(p.x, p.y);
 			} else {
 				path.lineTo(p.x, p.y);
@@ -653,14 +1007,24 @@ public class OsmandRenderer {
 
 		if (path != null && len > 0) {
 			canvas.drawPath(path, paint);
-			if (updatePaint(render, paint, 1, false, rc)) {
+			if (updatePaint(paint, rule.getPaint(1), false)) {
 				canvas.drawPath(path, paint);
 			}
-			textRenderer.renderText(obj, render, rc, pair, xText / len, yText / len, null, null);
+			if (rc.acceptText(xText / len, yText / len)) {
+				textRenderer.renderText(obj, render, rc, pair, xText / len, yText / len, null, null, 0);
+			}
 		}
 	}
 	
 	public boolean updatePaint(RenderingRuleSearchRequest req, Paint p, int ind, boolean area, RenderingContext rc){
+		return updatePaint(p, resolvePaint(req, ind, area, rc), area);
+	}
+
+	/**
+	 * Reads paint properties of the level from the result of rules search
+	 * @return null if paint is not specified for the level
+	 */
+	private PaintStyle resolvePaint(RenderingRuleSearchRequest req, int ind, boolean area, RenderingContext rc){
 		RenderingRuleProperty rColor;
 		RenderingRuleProperty rStrokeW;
 		RenderingRuleProperty rCap;
@@ -707,67 +1071,60 @@ public class OsmandRenderer {
 			rCap = req.ALL.R_CAP_5;
 			rPathEff = req.ALL.R_PATH_EFFECT_5;
 		}
+		PaintStyle ps = new PaintStyle();
 		if(area){
 			if(!req.isSpecified(rColor) && !req.isSpecified(req.ALL.R_SHADER)){
-				return false;
+				return null;
 			}
-			p.setShader(null);
-			p.setColorFilter(null);
-			p.clearShadowLayer();
-			p.setStyle(Style.FILL_AND_STROKE);
-			p.setStrokeWidth(0);
 		} else {
 			if(!req.isSpecified(rStrokeW)){
-				return false;
+				return null;
 			}
-			p.setShader(null);
-			p.setColorFilter(null);
-			p.clearShadowLayer();
-			p.setStyle(Style.STROKE);
-			p.setStrokeWidth(rc.getComplexValue(req, rStrokeW));
+			ps.strokeWidth = rc.getComplexValue(req, rStrokeW);
 			String cap = req.getStringPropertyValue(rCap);
 			if(!Algorithms.isEmpty(cap)){
-				p.setStrokeCap(Cap.valueOf(cap.toUpperCase()));
+				ps.cap = Cap.valueOf(cap.toUpperCase());
 			} else {
-				p.setStrokeCap(Cap.BUTT);
+				ps.cap = Cap.BUTT;
 			}
 			String pathEffect = req.getStringPropertyValue(rPathEff);
 			if (!Algorithms.isEmpty(pathEffect)) {
-				if(!parsedDashEffects.containsKey(pathEffect)) {
-					String[] vls = pathEffect.split("_");
-					float[] vs = new float[vls.length * 2];
-					for(int i = 0; i < vls.length; i++) {
-						int s = vls[i].indexOf(':');
-						String pre = vls[i];
-						String post = "";
-						if(s != -1) {
-							pre = vls[i].substring(0, i);
-							post = vls[i].substring(i + 1);
-						}
-						if(pre.length() > 0) {
-							vs[i*2 ] = Float.parseFloat(pre);
-						}
-						if(post.length() > 0) {
-							vs[i*2 +1] = Float.parseFloat(post);
+				float[] cachedValues;
+				synchronized (parsedDashEffects) {
+					if(!parsedDashEffects.containsKey(pathEffect)) {
+						String[] vls = pathEffect.split("_");
+						float[] vs = new float[vls.length * 2];
+						for(int i = 0; i < vls.length; i++) {
+							int s = vls[i].indexOf(':');
+							String pre = vls[i];
+							String post = "";
+							if(s != -1) {
+								pre = vls[i].substring(0, i);
+								post = vls[i].substring(i + 1);
+							}
+							if(pre.length() > 0) {
+								vs[i*2 ] = Float.parseFloat(pre);
+							}
+							if(post.length() > 0) {
+								vs[i*2 +1] = Float.parseFloat(post);
+							}
 						}
+						parsedDashEffects.put(pathEffect, vs);
 					}
-					parsedDashEffects.put(pathEffect, vs);
+					cachedValues = parsedDashEffects.get(pathEffect);
 				}
-				float[] cachedValues = parsedDashEffects.get(pathEffect);
 				
-				p.setPathEffect(getDashEffect(rc, cachedValues, 0));
-			} else {
-				p.setPathEffect(null);
+				ps.pathEffect = getDashEffect(rc, cachedValues, 0);
 			}
 		}
-		p.setColor(req.getIntPropertyValue(rColor));
+		ps.color = req.getIntPropertyValue(rColor);
 		if(ind == 0){
 			String resId = req.getStringPropertyValue(req.ALL.R_SHADER);
 			if(resId != null){
-				if(req.getIntPropertyValue(rColor) == 0) {
-					p.setColor(Color.WHITE); // set color required by skia
+				if(ps.color == 0) {
+					ps.color = Color.WHITE; // set color required by skia
 				}
-				p.setShader(getShader(resId));
+				ps.shader = getShader(resId);
 			}
 			// do not check shadow color here
 			if(rc.shadowRenderingMode == 1) {
@@ -779,61 +1136,131 @@ public class OsmandRenderer {
 				if (shadowColor == 0) {
 					shadowRadius = 0;
 				}
-				p.setShadowLayer(shadowRadius, 0, 0, shadowColor);
+				ps.shadowLayer = true;
+				ps.shadowColor = shadowColor;
+				ps.shadowRadius = shadowRadius;
 			}
 		}
-		
+		return ps;
+	}
+	
+	private boolean updatePaint(Paint p, PaintStyle s, boolean area){
+		if(s == null){
+			return false;
+		}
+		p.setShader(null);
+		p.setColorFilter(null);
+		p.clearShadowLayer();
+		if(area){
+			p.setStyle(Style.FILL_AND_STROKE);
+			p.setStrokeWidth(0);
+		} else {
+			p.setStyle(Style.STROKE);
+			p.setStrokeWidth(s.strokeWidth);
+			p.setStrokeCap(s.cap);
+			p.setPathEffect(s.pathEffect);
+		}
+		p.setColor(s.color);
+		if(s.shader != null){
+			p.setShader(s.shader);
+		}
+		if(s.shadowLayer){
+			p.setShadowLayer(s.shadowRadius, 0, 0, s.shadowColor);
+		}
 		return true;
-		
 	}
 	
+	/**
+	 * Searches polygon, line or point rules for the object or takes the result evaluated for the same type before
+	 */
+	private RuleResult searchRules(RenderingContext rc, RenderingRuleSearchRequest render, int rulesType,
+			BinaryMapDataObject obj, TagValuePair pair, int wholeType, int layer) {
+		RuleResult rule = rc.rulesCache.get(rulesType, obj, wholeType, layer, false, false, false);
+		if (rule != null) {
+			return rule;
+		}
+		rule = new RuleResult();
+		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, obj);
+		if (rulesType == RenderingRulesStorage.LINE_RULES) {
+			render.setIntFilter(render.ALL.R_LAYER, layer);
+		}
+		rule.found = render.search(rulesType);
+		if (rulesType == RenderingRulesStorage.POLYGON_RULES) {
+			if (rule.found) {
+				rule.areaPaint = resolvePaint(render, 0, true, rc);
+				rule.paints[1 - RenderingRulesCache.MIN_PAINT_INDEX] = resolvePaint(render, 1, false, rc);
+			}
+		} else if (rulesType == RenderingRulesStorage.LINE_RULES) {
+			if (rule.found) {
+				for (int ind = RenderingRulesCache.MIN_PAINT_INDEX; ind <= RenderingRulesCache.MAX_PAINT_INDEX; ind++) {
+					rule.paints[ind - RenderingRulesCache.MIN_PAINT_INDEX] = resolvePaint(render, ind, false, rc);
+				}
+				rule.shadowColor = render.getIntPropertyValue(render.ALL.R_SHADOW_COLOR);
+				rule.shadowRadius = (int) rc.getComplexValue(render, render.ALL.R_SHADOW_RADIUS);
+			}
+		} else {
+			rule.icon = render.getStringPropertyValue(render.ALL.R_ICON);
+			rule.iconOrder = render.getIntPropertyValue(render.ALL.R_ICON_ORDER, 100);
+			rule.iconSize = rc.getComplexValue(render, render.ALL.R_ICON_VISIBLE_SIZE, -1);
+			rule.shield = render.getStringPropertyValue(render.ALL.R_SHIELD);
+			rule.icon_1 = render.getStringPropertyValue(render.ALL.R_ICON__1);
+			rule.icon2 = render.getStringPropertyValue(render.ALL.R_ICON_2);
+			rule.icon3 = render.getStringPropertyValue(render.ALL.R_ICON_3);
+			rule.icon4 = render.getStringPropertyValue(render.ALL.R_ICON_4);
+			rule.icon5 = render.getStringPropertyValue(render.ALL.R_ICON_5);
+		}
+		rc.rulesCache.put(rulesType, obj, wholeType, layer, false, false, false, rule);
+		return rule;
+	}
 
-	private void drawPoint(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Canvas canvas, RenderingContext rc, TagValuePair pair, boolean renderText) {
+	private void drawPoint(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Canvas canvas, RenderingContext rc, TagValuePair pair,
+			int wholeType, boolean renderText) {
 		if(render == null || pair == null){
 			return;
 		}
-		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, obj);
-		render.search(RenderingRulesStorage.POINT_RULES);
+		RuleResult rule = searchRules(rc, render, RenderingRulesStorage.POINT_RULES, obj, pair, wholeType, 0);
 		
-		String resId = render.getStringPropertyValue(render.ALL.R_ICON);
+		String resId = rule.icon;
 		if(resId == null && !renderText){
 			return;
 		}
 		int len = obj.getPointsLength();
 		rc.visible++;
-		PointF ps = new PointF(0, 0);
+		float px = 0;
+		float py = 0;
 		for (int i = 0; i < len; i++) {
 			PointF p = calcPoint(obj, i, rc);
-			ps.x += p.x;
-			ps.y += p.y;
+			px += p.x;
+			py += p.y;
 		}
 		if(len > 1){
-			ps.x /= len;
-			ps.y /= len;
+			px /= len;
+			py /= len;
 		}
 
 		if(resId != null){
-			IconDrawInfo ico = new IconDrawInfo();
-			ico.x = ps.x;
-			ico.y = ps.y;
-			ico.iconOrder = render.getIntPropertyValue(render.ALL.R_ICON_ORDER, 100);
-			ico.iconSize = rc.getComplexValue(render, render.ALL.R_ICON_VISIBLE_SIZE, -1);
-			ico.shieldId = render.getStringPropertyValue(render.ALL.R_SHIELD);
-			ico.resId_1 = render.getStringPropertyValue(render.ALL.R_ICON__1);
+			IconDrawInfo ico = rc.pools.icons.obtain();
+			ico.x = px;
+			ico.y = py;
+			ico.iconOrder = rule.iconOrder;
+			ico.iconSize = rule.iconSize;
+			ico.shieldId = rule.shield;
+			ico.resId_1 = rule.icon_1;
 			ico.resId = resId;
-			ico.resId2 = render.getStringPropertyValue(render.ALL.R_ICON_2);
-			ico.resId3 = render.getStringPropertyValue(render.ALL.R_ICON_3);
-			ico.resId4 = render.getStringPropertyValue(render.ALL.R_ICON_4);
-			ico.resId5 = render.getStringPropertyValue(render.ALL.R_ICON_5);
+			ico.resId2 = rule.icon2;
+			ico.resId3 = rule.icon3;
+			ico.resId4 = rule.icon4;
+			ico.resId5 = rule.icon5;
 			rc.iconsToDraw.add(ico);
 		}
 		if (renderText) {
-			textRenderer.renderText(obj, render, rc, pair, ps.x, ps.y, null, null);
+			textRenderer.renderText(obj, render, rc, pair, px, py, null, null, 0);
 		}
 
 	}
 
 	private void drawPolylineShadow(Canvas canvas, RenderingContext rc, Path path, int shadowColor, int shadowRadius) {
+		Paint paint = rc.paint;
 		// blurred shadows
 		if (rc.shadowRenderingMode == 2 && shadowRadius > 0) {
 			// simply draw shadow? difference from option 3 ?
@@ -856,8 +1283,8 @@ public class OsmandRenderer {
 	}
 
 	
-	private void drawPolyline(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Canvas canvas, RenderingContext rc, TagValuePair pair, int layer,
-			boolean drawOnlyShadow) {
+	private void drawPolyline(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Canvas canvas, RenderingContext rc, TagValuePair pair,
+			int wholeType, int layer, boolean drawOnlyShadow) {
 		if(render == null || pair == null){
 			return;
 		}
@@ -865,10 +1292,9 @@ public class OsmandRenderer {
 		if(length < 2){
 			return;
 		}
-		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, obj);
-		render.setIntFilter(render.ALL.R_LAYER, layer);
-		boolean rendered = render.search(RenderingRulesStorage.LINE_RULES);
-		if(!rendered || !updatePaint(render, paint, 0, false, rc)){
+		RuleResult rule = searchRules(rc, render, RenderingRulesStorage.LINE_RULES, obj, pair, wholeType, layer);
+		Paint paint = rc.paint;
+		if(!rule.found || !updatePaint(paint, rule.getPaint(0), false)){
 			return;
 		}
 		int oneway = 0;
@@ -882,47 +1308,23 @@ public class OsmandRenderer {
 
 		rc.visible++;
 
-		Path path = null;
-		float xMid = 0;
-		float yMid = 0;
-		int middle = obj.getPointsLength() / 2;
-		PointF[] textPoints = null;
-		if (!drawOnlyShadow) {
-			textPoints = new PointF[length];
-		}
-
+		// coordinates are projected once, they are used for the path and the text
+		float[] coords = rc.getCoordinates(length);
 		boolean intersect = false;
-		PointF prev = null;
-		for (int i = 0; i < length ; i++) {
+		for (int i = 0; i < length; i++) {
 			PointF p = calcPoint(obj, i, rc);
-			if(textPoints != null) {
-				textPoints[i] = new PointF(p.x, p.y);
-			}
+			coords[i * 2] = p.x;
+			coords[i * 2 + 1] = p.y;
 			if (!intersect) {
 				if (p.x >= 0 && p.y >= 0 && p.x < rc.width && p.y < rc.height) {
 					intersect = true;
-				}
-				if (!intersect && prev != null) {
-					if ((p.x < 0 && prev.x < 0) || (p.y < 0 && prev.y < 0) || (p.x > rc.width && prev.x > rc.width)
-							|| (p.y > rc.height && prev.y > rc.height)) {
-						intersect = false;
-					} else {
-						intersect = true;
-					}
-
+				} else if (i > 0) {
+					float prevX = coords[i * 2 - 2];
+					float prevY = coords[i * 2 - 1];
+					intersect = !((p.x < 0 && prevX < 0) || (p.y < 0 && prevY < 0) || (p.x > rc.width && prevX > rc.width)
+							|| (p.y > rc.height && prevY > rc.height));
 				}
 			}
-			if (path == null) {
-				path = new Path();
-				path.moveTo(p.x, p.y);
-			} else {
-				if(i == middle){
-					xMid = p.x;
-					yMid = p.y;
-				}
-				path.lineTo(p.x, p.y);
-			}
-			prev = p;
 		}
 		if (!intersect) {
 //			System.err.println("Not intersect ");
@@ -932,42 +1334,50 @@ public class OsmandRenderer {
 //			}
 			return;
 		}
+		int middle = length / 2;
+		float xMid = coords[middle * 2];
+		float yMid = coords[middle * 2 + 1];
+		Path path = rc.obtainPath();
+		path.moveTo(coords[0], coords[1]);
+		for (int i = 1; i < length; i++) {
+			path.lineTo(coords[i * 2], coords[i * 2 + 1]);
+		}
 		if (path != null) {
 			if(drawOnlyShadow) {
-				int shadowColor = render.getIntPropertyValue(render.ALL.R_SHADOW_COLOR);
-				int shadowRadius = (int) rc.getComplexValue(render, render.ALL.R_SHADOW_RADIUS);
+				int shadowColor = rule.shadowColor;
+				int shadowRadius = rule.shadowRadius;
 				if(shadowColor == 0) {
 					shadowColor = rc.shadowRenderingColor;
 				}
 				drawPolylineShadow(canvas, rc, path, shadowColor, shadowRadius);
 			} else {
 				boolean update = false;
-				if (updatePaint(render, paint, -3, false, rc)) {
+				if (updatePaint(paint, rule.getPaint(-3), false)) {
 					update = true;
 					canvas.drawPath(path, paint);
 				}
-				if (updatePaint(render, paint, -2, false, rc)) {
+				if (updatePaint(paint, rule.getPaint(-2), false)) {
 					update = true;
 					canvas.drawPath(path, paint);
 				}
-				if (updatePaint(render, paint, -1, false, rc)) {
+				if (updatePaint(paint, rule.getPaint(-1), false)) {
 					update = true;
 					canvas.drawPath(path, paint);
 				}
 				if(update) {
-					updatePaint(render, paint, 0, false, rc);
+					updatePaint(paint, rule.getPaint(0), false);
 				}
 				canvas.drawPath(path, paint);
-				if (updatePaint(render, paint, 1, false, rc)) {
+				if (updatePaint(paint, rule.getPaint(1), false)) {
 					canvas.drawPath(path, paint);
 				}
-				if (updatePaint(render, paint, 2, false, rc)) {
+				if (updatePaint(paint, rule.getPaint(2), false)) {
 					canvas.drawPath(path, paint);
 				}
-				if (updatePaint(render, paint, 3, false, rc)) {
+				if (updatePaint(paint, rule.getPaint(3), false)) {
 					canvas.drawPath(path, paint);
 				}
-				if (updatePaint(render, paint, 4, false, rc)) {
+				if (updatePaint(paint, rule.getPaint(4), false)) {
 					canvas.drawPath(path, paint);
 				}
 			}
@@ -978,8 +1388,13 @@ public class OsmandRenderer {
 					canvas.drawPath(path, paints[i]);
 				}
 			}
-			if (textPoints != null) {
-				textRenderer.renderText(obj, render, rc, pair, xMid, yMid, path, textPoints);
+			if (!drawOnlyShadow && rc.acceptText(xMid, yMid)) {
+				int texts = rc.textToDraw.size();
+				textRenderer.renderText(obj, render, rc, pair, xMid, yMid, path, coords, length);
+				if (rc.textToDraw.size() != texts) {
+					// path could be kept by text to be drawn on it
+					rc.releasePath();
+				}
 			}
 		}
 	}
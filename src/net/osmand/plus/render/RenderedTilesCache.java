@@ -0,0 +1,201 @@
+package net.osmand.plus.render;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import net.osmand.PlatformUtil;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+
+/**
+ * Disk cache of rendered vector map tiles (tiles of {@link OsmandRenderer#TILE_SIZE} pixels of the rendering grid).
+ * Tiles are stored in directories named by data stamp (versions of map files) and style stamp
+ * (contents of style files, custom properties, density, locale) : changed map data or style never shows outdated tiles.
+ * Total size is bounded, least recently used tiles (including outdated ones) are evicted.
+ * All file system changes are done by a single background thread.
+ */
+public class RenderedTilesCache {
+
+	private static final Log log = PlatformUtil.getLog(RenderedTilesCache.class);
+	private static final String TILE_EXT = ".png"; //$NON-NLS-1$
+	private static final String TMP_EXT = ".tmp"; //$NON-NLS-1$
+
+	private final File dir;
+	private final long maxBytes;
+	// relative path -> size of tile file, in access order
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(256, 0.75f, true);
+	private long totalBytes;
+	private boolean initialized;
+	private final ExecutorService writer;
+
+	public RenderedTilesCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Rendered tiles cache"); //$NON-NLS-1$
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				scan();
+			}
+		});
+	}
+
+	public static String getSession(long dataStamp, long styleStamp) {
+		return Long.toHexString(dataStamp) + "_" + Long.toHexString(styleStamp); //$NON-NLS-1$
+	}
+
+	private static String getTilePath(String session, int zoom, int x, int y) {
+		return session + "/" + zoom + "_" + x + "_" + y + TILE_EXT; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private void scan() {
+		File[] sessions = dir.listFiles();
+		List<File> tiles = new ArrayList<File>();
+		if (sessions != null) {
+			for (File s : sessions) {
+				File[] fs = s.isDirectory() ? s.listFiles() : null;
+				if (fs != null) {
+					for (File f : fs) {
+						if (f.getName().endsWith(TMP_EXT)) {
+							f.delete();
+						} else {
+							tiles.add(f);
+						}
+					}
+				}
+			}
+		}
+		File[] sorted = tiles.toArray(new File[tiles.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified();
+				long r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		synchronized (this) {
+			for (File f : sorted) {
+				String path = f.getParentFile().getName() + "/" + f.getName(); //$NON-NLS-1$
+				if (!entries.containsKey(path)) {
+					entries.put(path, f.length());
+					totalBytes += f.length();
+				}
+			}
+			initialized = true;
+		}
+		evict();
+		log.info("Rendered tiles cache : " + entries.size() + " tiles, " + (totalBytes >> 10) + " KB"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	public synchronized boolean contains(String session, int zoom, int x, int y) {
+		// access order is not changed by containsKey
+		return initialized && entries.containsKey(getTilePath(session, zoom, x, y));
+	}
+
+	/**
+	 * @return decoded tile or null if it is absent or couldn't be read
+	 */
+	public Bitmap read(String session, int zoom, int x, int y, BitmapFactory.Options opts) {
+		String path = getTilePath(session, zoom, x, y);
+		synchronized (this) {
+			if (!initialized || entries.get(path) == null) {
+				return null;
+			}
+		}
+		File f = new File(dir, path);
+		Bitmap bmp = BitmapFactory.decodeFile(f.getAbsolutePath(), opts);
+		if (bmp == null) {
+			remove(path);
+		} else {
+			// keeps order of access between sessions
+			f.setLastModified(System.currentTimeMillis());
+		}
+		return bmp;
+	}
+
+	/**
+	 * Stores tile in background, the bitmap is recycled after it is saved
+	 */
+	public void write(final String session, final int zoom, final int x, final int y, final Bitmap tile) {
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				String path = getTilePath(session, zoom, x, y);
+				File f = new File(dir, path);
+				File tmp = new File(dir, path + TMP_EXT);
+				FileOutputStream out = null;
+				boolean saved = false;
+				try {
+					tmp.getParentFile().mkdirs();
+					out = new FileOutputStream(tmp);
+					saved = tile.compress(CompressFormat.PNG, 100, out);
+				} catch (IOException e) {
+					log.warn("Rendered tile " + path + " couldn't be saved", e); //$NON-NLS-1$ //$NON-NLS-2$
+				} finally {
+					Algorithms.closeStream(out);
+					tile.recycle();
+				}
+				if (!saved || !tmp.renameTo(f)) {
+					tmp.delete();
+					return;
+				}
+				synchronized (RenderedTilesCache.this) {
+					Long prev = entries.put(path, f.length());
+					totalBytes += f.length() - (prev == null ? 0 : prev);
+				}
+				evict();
+			}
+		});
+	}
+
+	private void remove(String path) {
+		synchronized (this) {
+			Long sz = entries.remove(path);
+			if (sz != null) {
+				totalBytes -= sz;
+			}
+		}
+		new File(dir, path).delete();
+	}
+
+	private void evict() {
+		List<String> evicted = new ArrayList<String>();
+		synchronized (this) {
+			Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+			while (totalBytes > maxBytes && it.hasNext()) {
+				Map.Entry<String, Long> e = it.next();
+				totalBytes -= e.getValue();
+				evicted.add(e.getKey());
+				it.remove();
+			}
+		}
+		for (String path : evicted) {
+			new File(dir, path).delete();
+		}
+	}
+}
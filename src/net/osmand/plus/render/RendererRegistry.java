@@ -10,6 +10,9 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import net.osmand.IProgress;
 import net.osmand.IndexConstants;
@@ -42,6 +45,8 @@ public class RendererRegistry {
 	private Map<String, String> internalRenderers = new LinkedHashMap<String, String>();
 	
 	private Map<String, RenderingRulesStorage> renderers = new LinkedHashMap<String, RenderingRulesStorage>();
+	// checksum of style file contents (with dependencies) of loaded renderers
+	private Map<RenderingRulesStorage, Long> styleStamps = new WeakHashMap<RenderingRulesStorage, Long>();
 
     public interface IRendererLoadedEventListener {
         void onRendererLoaded(String name, RenderingRulesStorage rules, InputStream source);
@@ -106,6 +111,8 @@ public class RendererRegistry {
 		if(is == null) {
 			return null;
 		}
+		CRC32 checksum = new CRC32();
+		is = new CheckedInputStream(is, checksum);
 		try {
 			XmlPullParser parser = PlatformUtil.newXMLPullParser();
 			parser.setInput(is, "UTF-8");
@@ -128,6 +135,7 @@ public class RendererRegistry {
 		// parse content
 		is = getInputStream(name);
 		final RenderingRulesStorage main = new RenderingRulesStorage(name, renderingConstants);
+		final long[] stamp = new long[] { checksum.getValue() };
 		
 		loadedRenderers.put(name, main);
 		try {
@@ -147,6 +155,8 @@ public class RendererRegistry {
 					}
 					if (dep == null) {
 						log.warn("Dependent renderer not found : " + name); //$NON-NLS-1$
+					} else {
+						stamp[0] = stamp[0] * 31 + getStyleStamp(dep);
 					}
 					return dep;
 				}
@@ -154,6 +164,9 @@ public class RendererRegistry {
 		} finally {
 			is.close();
 		}
+		synchronized (styleStamps) {
+			styleStamps.put(main, stamp[0]);
+		}
 
         if (rendererLoadedEventListener != null)
             rendererLoadedEventListener.onRendererLoaded(name, main, getInputStream(name));
@@ -161,6 +174,16 @@ public class RendererRegistry {
 		return main;
 	}
 
+	/**
+	 * @return checksum of style files the renderer was loaded from, 0 if it is unknown
+	 */
+	public long getStyleStamp(RenderingRulesStorage storage) {
+		synchronized (styleStamps) {
+			Long stamp = styleStamps.get(storage);
+			return stamp == null ? 0 : stamp;
+		}
+	}
+
 	public InputStream getInputStream(String name) throws FileNotFoundException {
 		InputStream is;
 		if("default".equalsIgnoreCase(name)) {
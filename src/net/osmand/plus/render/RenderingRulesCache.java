@@ -0,0 +1,139 @@
+package net.osmand.plus.render;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import android.graphics.Paint.Cap;
+import android.graphics.PathEffect;
+import android.graphics.Shader;
+
+/**
+ * Results of rendering rules search for one rendering session (style, zoom, custom properties and density are fixed).
+ * Result depends only on the type of object, its additional types, layer and area / point / cycle flags,
+ * so rules are evaluated once per type and not for every object.
+ * Not thread safe : every rendering context has own cache.
+ */
+class RenderingRulesCache {
+
+	static final int MIN_PAINT_INDEX = -3;
+	static final int MAX_PAINT_INDEX = 4;
+
+	/**
+	 * Resolved paint properties of one rendering level (index of {@link OsmandRenderer#updatePaint})
+	 */
+	static class PaintStyle {
+		int color;
+		float strokeWidth;
+		Cap cap;
+		PathEffect pathEffect;
+		Shader shader;
+		boolean shadowLayer;
+		int shadowColor;
+		int shadowRadius;
+	}
+
+	static class RuleResult {
+		boolean found;
+		// order rules
+		int objectType;
+		int order;
+		boolean shadowLevel;
+		// polygon and line rules
+		PaintStyle areaPaint;
+		// by index - MIN_PAINT_INDEX, null if paint is not specified
+		PaintStyle[] paints = new PaintStyle[MAX_PAINT_INDEX - MIN_PAINT_INDEX + 1];
+		int shadowColor;
+		int shadowRadius;
+		// point rules
+		String icon;
+		String icon_1;
+		String icon2;
+		String icon3;
+		String icon4;
+		String icon5;
+		String shield;
+		int iconOrder;
+		float iconSize;
+
+		PaintStyle getPaint(int ind) {
+			return paints[ind - MIN_PAINT_INDEX];
+		}
+	}
+
+	private static class Entry {
+		final int[] additionalTypes;
+		final RuleResult result;
+		Entry next;
+
+		Entry(int[] additionalTypes, RuleResult result) {
+			this.additionalTypes = additionalTypes;
+			this.result = result;
+		}
+	}
+
+	private final Map<MapIndex, TLongObjectHashMap<Entry>> entries = new HashMap<MapIndex, TLongObjectHashMap<Entry>>();
+	private MapIndex lastIndex;
+	private TLongObjectHashMap<Entry> lastEntries;
+	private int hits;
+	private int misses;
+
+	private TLongObjectHashMap<Entry> getEntries(MapIndex index) {
+		if (index != lastIndex) {
+			lastEntries = entries.get(index);
+			if (lastEntries == null) {
+				lastEntries = new TLongObjectHashMap<Entry>();
+				entries.put(index, lastEntries);
+			}
+			lastIndex = index;
+		}
+		return lastEntries;
+	}
+
+	private static long calculateKey(int rulesType, int wholeType, int layer, boolean area, boolean point, boolean cycle) {
+		long key = ((long) wholeType) << 32;
+		key |= (rulesType & 0xff) << 24;
+		key |= (layer & 0xffff) << 3;
+		key |= (area ? 1 : 0) | (point ? 2 : 0) | (cycle ? 4 : 0);
+		return key;
+	}
+
+	/**
+	 * @return cached result or null if rules were not evaluated for such object yet
+	 */
+	RuleResult get(int rulesType, BinaryMapDataObject obj, int wholeType, int layer, boolean area, boolean point,
+			boolean cycle) {
+		Entry e = getEntries(obj.getMapIndex()).get(calculateKey(rulesType, wholeType, layer, area, point, cycle));
+		int[] additionalTypes = obj.getAdditionalTypes();
+		while (e != null) {
+			if (Arrays.equals(e.additionalTypes, additionalTypes)) {
+				hits++;
+				return e.result;
+			}
+			e = e.next;
+		}
+		misses++;
+		return null;
+	}
+
+	void put(int rulesType, BinaryMapDataObject obj, int wholeType, int layer, boolean area, boolean point,
+			boolean cycle, RuleResult result) {
+		TLongObjectHashMap<Entry> map = getEntries(obj.getMapIndex());
+		long key = calculateKey(rulesType, wholeType, layer, area, point, cycle);
+		Entry e = new Entry(obj.getAdditionalTypes(), result);
+		e.next = map.get(key);
+		map.put(key, e);
+	}
+
+	int getHits() {
+		return hits;
+	}
+
+	int getMisses() {
+		return misses;
+	}
+}
@@ -11,7 +11,6 @@ import java.util.List;
 import net.osmand.binary.BinaryMapDataObject;
 import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
 import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.plus.render.OsmandRenderer.RenderingContext;
 import net.osmand.render.RenderingRuleSearchRequest;
 import net.osmand.render.RenderingRulesStorage;
@@ -25,7 +24,6 @@ import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
 import android.graphics.Path;
-import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
@@ -39,6 +37,13 @@ public class TextRenderer {
 	private Typeface boldItalicTypeface;
 	private Typeface italicTypeface;
 	private Typeface boldTypeface;
+	// reused by every rendering
+	private final LabelCollisionGrid nonIntersectedBounds = new LabelCollisionGrid();
+	private static final long LABELS_CACHE_SIZE = 4 * 1024 * 1024;
+	private static final int MAX_CACHED_LABEL_PIXELS = 512 * 256;
+	private final LabelBitmapCache labelsCache = new LabelBitmapCache(LABELS_CACHE_SIZE);
+	private final LabelBitmapCache.Key labelKey = new LabelBitmapCache.Key();
+	private final List<String> wrappedLines = new ArrayList<String>();
 
 	static class TextDrawInfo {
 
@@ -117,48 +122,10 @@ public class TextRenderer {
 		return paintText;
 	}
 
-	private double sqr(double a) {
-		return a * a;
-	}
-	
 	private float fsqr(float a) {
 		return a * a;
 	}
 
-	boolean intersects(QuadRect tRect, float tRot, QuadRect sRect, float sRot) {
-		if (Math.abs(tRot) < Math.PI / 15 && Math.abs(sRot) < Math.PI / 15) {
-			return QuadRect.intersects(tRect, sRect);
-		}
-		double dist = Math.sqrt(sqr(tRect.centerX() - sRect.centerX()) + sqr(tRect.centerY() - sRect.centerY()));
-		if (dist < 3) {
-			return true;
-		}
-
-		// difference close to 90/270 degrees
-		if (Math.abs(Math.cos(tRot - sRot)) < 0.3) {
-			// rotate one rectangle to 90 degrees
-			tRot += Math.PI / 2;
-			double l = tRect.centerX() - tRect.height() / 2;
-			double t = tRect.centerY() - tRect.width() / 2;
-			tRect = new QuadRect(l, t, l + tRect.height(), t + tRect.width());
-		}
-
-		// determine difference close to 180/0 degrees
-		if (Math.abs(Math.sin(tRot - sRot)) < 0.3) {
-			// rotate t box
-			// (calculate offset for t center suppose we rotate around s center)
-			float diff = (float) (-Math.atan2(tRect.centerX() - sRect.centerX(), tRect.centerY() - sRect.centerY()) + Math.PI / 2);
-			diff -= sRot;
-			double left = sRect.centerX() + dist * Math.cos(diff) - tRect.width() / 2;
-			double top = sRect.centerY() - dist * Math.sin(diff) - tRect.height() / 2;
-			QuadRect nRect = new QuadRect(left, top, left + tRect.width(), top + tRect.height());
-			return QuadRect.intersects(nRect, sRect);
-		}
-
-		// TODO other cases not covered
-		return QuadRect.intersects(tRect, sRect);
-	}
-
 	void drawTestBox(Canvas cv, RectF r, float rot, String text) {
 		cv.save();
 		cv.translate(r.centerX(), r.centerY());
@@ -173,32 +140,25 @@ public class TextRenderer {
 		cv.restore();
 	}
 
-	List<TextDrawInfo> tempSearch = new ArrayList<TextDrawInfo>();
-
-	private boolean findTextIntersection(Canvas cv, RenderingContext rc, QuadTree<TextDrawInfo> boundIntersections, TextDrawInfo text) {
+	private boolean findTextIntersection(Canvas cv, RenderingContext rc, LabelCollisionGrid boundIntersections, TextDrawInfo text) {
 		// for test purposes
 //		drawTestBox(cv, text.bounds, text.pathRotate, text.text);
-		boundIntersections.queryInBox(text.bounds, tempSearch);
-		for (int i = 0; i < tempSearch.size(); i++) {
-			TextDrawInfo t = tempSearch.get(i);
-			if (intersects(text.bounds, text.pathRotate, t.bounds, t.pathRotate)) {
-				return true;
-			}
+		float cx = (float) text.bounds.centerX();
+		float cy = (float) text.bounds.centerY();
+		float w = (float) text.bounds.width();
+		float h = (float) text.bounds.height();
+		if (boundIntersections.intersects(cx, cy, w, h, text.pathRotate)) {
+			return true;
 		}
 		if (text.minDistance > 0) {
-			QuadRect boundsSearch = new QuadRect(text.bounds);
-			boundsSearch.inset(-Math.max(rc.getDensityValue(5.0f), text.minDistance), -rc.getDensityValue(15));
-			boundIntersections.queryInBox(boundsSearch, tempSearch);
-			// drawTestBox(cv, &boundsSearch, text.pathRotate, paintIcon, text.text, NULL/*paintText*/);
-			for (int i = 0; i < tempSearch.size(); i++) {
-				TextDrawInfo t = tempSearch.get(i);
-				if (t.minDistance > 0 && t.text.equals(text.text) &&
-						intersects(boundsSearch, text.pathRotate, t.bounds, t.pathRotate)) {
-					return true;
-				}
+			// the same text shouldn't be repeated closer than min distance
+			float searchW = w + 2 * Math.max(rc.getDensityValue(5.0f), text.minDistance);
+			float searchH = h + 2 * rc.getDensityValue(15);
+			if (boundIntersections.intersects(cx, cy, searchW, searchH, text.pathRotate, text.text)) {
+				return true;
 			}
 		}
-		boundIntersections.insert(text, text.bounds);
+		boundIntersections.insert(cx, cy, w, h, text.pathRotate, text.minDistance > 0 ? text.text : null);
 		return false;
 	}
 
@@ -228,9 +188,7 @@ public class TextRenderer {
 				return object1.textOrder - object2.textOrder;
 			}
 		});
-		QuadRect r = new QuadRect(0, 0, rc.width, rc.height);
-		r.inset(-100, -100);
-		QuadTree<TextDrawInfo> nonIntersectedBounds = new QuadTree<TextDrawInfo>(r, 4, 0.6f);
+		nonIntersectedBounds.reset(-100, -100, rc.width + 100, rc.height + 100);
 
 		for (int i = 0; i < size; i++) {
 			TextDrawInfo text = rc.textToDraw.get(i);
@@ -275,23 +233,102 @@ public class TextRenderer {
 						cv.drawTextOnPath(text.text, text.drawOnPath, 0, 
 								text.vOffset - ( paintText.ascent()/2 + paintText.descent()), paintText);
 					} else {
-						drawShieldIcon(rc, cv, text, text.shieldRes);
-						drawShieldIcon(rc, cv, text, text.shieldResIcon);
-
-						drawWrappedText(cv, text, textSize);
+						drawStraightLabel(rc, cv, text, textSize);
 					}
 				}
 			}
 		}
 	}
 
-	private void drawShieldIcon(RenderingContext rc, Canvas cv, TextDrawInfo text, String sr) {
+	/**
+	 * Draws shields and wrapped text of the label from the cache of rasterized labels
+	 */
+	private void drawStraightLabel(RenderingContext rc, Canvas cv, TextDrawInfo text, float textSize) {
+		if (text.textWrap == 0) {
+			// set maximum for all text
+			text.textWrap = 40;
+		}
+		float coef = rc.getDensityValue(rc.screenDensityRatio * rc.textScale);
+		// shields are scaled only if density ratio is not 1
+		labelKey.set(text, textSize, rc.screenDensityRatio != 1f ? coef : -coef);
+		LabelBitmapCache.Label label = labelsCache.get(labelKey);
+		if (label == null) {
+			label = rasterizeLabel(rc, text, textSize);
+			if (label == null) {
+				drawShieldIcon(rc, cv, text.centerX, text.centerY, text.shieldRes);
+				drawShieldIcon(rc, cv, text.centerX, text.centerY, text.shieldResIcon);
+				drawWrappedText(cv, text, text.centerX, text.centerY, textSize);
+				return;
+			}
+			labelsCache.put(labelKey, label);
+		}
+		cv.drawBitmap(label.bitmap, text.centerX + label.left, text.centerY + label.top, paintIcon);
+	}
+
+	/**
+	 * @return null if the label is too big to be cached
+	 */
+	private LabelBitmapCache.Label rasterizeLabel(RenderingContext rc, TextDrawInfo text, float textSize) {
+		wrapText(text, wrappedLines);
+		float halo = text.textShadow > 0 ? (2 + text.textShadow) / 2f : 0;
+		RectF bounds = null;
+		for (int i = 0; i < wrappedLines.size(); i++) {
+			float w = paintText.measureText(wrappedLines.get(i));
+			float y = i * (textSize + 2);
+			RectF r = new RectF(-w / 2 - halo, y + paintText.ascent() - halo, w / 2 + halo, y + paintText.descent() + halo);
+			if (bounds == null) {
+				bounds = r;
+			} else {
+				bounds.union(r);
+			}
+		}
+		if (bounds == null) {
+			return null;
+		}
+		unionShieldBounds(rc, bounds, text.shieldRes);
+		unionShieldBounds(rc, bounds, text.shieldResIcon);
+		// fake bold and antialiasing could go out of measured bounds
+		int left = (int) Math.floor(bounds.left) - 2;
+		int top = (int) Math.floor(bounds.top) - 2;
+		int width = (int) Math.ceil(bounds.right) + 2 - left;
+		int height = (int) Math.ceil(bounds.bottom) + 2 - top;
+		if (width * height > MAX_CACHED_LABEL_PIXELS) {
+			return null;
+		}
+		Bitmap bmp;
+		try {
+			bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		} catch (OutOfMemoryError e) {
+			labelsCache.clear();
+			return null;
+		}
+		Canvas c = new Canvas(bmp);
+		drawShieldIcon(rc, c, -left, -top, text.shieldRes);
+		drawShieldIcon(rc, c, -left, -top, text.shieldResIcon);
+		drawWrappedText(c, text, -left, -top, textSize);
+		return new LabelBitmapCache.Label(bmp, left, top);
+	}
+
+	private void unionShieldBounds(RenderingContext rc, RectF bounds, String sr) {
 		if (sr != null) {
 			float coef = rc.getDensityValue(rc.screenDensityRatio * rc.textScale);
 			Bitmap ico = RenderingIcons.getIcon(context, sr, true);
 			if (ico != null) {
-				float left = text.centerX - ico.getWidth() / 2 * coef - 0.5f;
-				float top = text.centerY - ico.getHeight() / 2 * coef -  paintText.descent() - 0.5f;
+				float left = -ico.getWidth() / 2 * coef - 0.5f;
+				float top = -ico.getHeight() / 2 * coef -  paintText.descent() - 0.5f;
+				float scale = rc.screenDensityRatio != 1f ? coef : 1;
+				bounds.union(left, top, left + ico.getWidth() * scale, top + ico.getHeight() * scale);
+			}
+		}
+	}
+
+	private void drawShieldIcon(RenderingContext rc, Canvas cv, float centerX, float centerY, String sr) {
+		if (sr != null) {
+			float coef = rc.getDensityValue(rc.screenDensityRatio * rc.textScale);
+			Bitmap ico = RenderingIcons.getIcon(context, sr, true);
+			if (ico != null) {
+				float left = centerX - ico.getWidth() / 2 * coef - 0.5f;
+				float top = centerY - ico.getHeight() / 2 * coef -  paintText.descent() - 0.5f;
 				if(rc.screenDensityRatio != 1f){
 					RectF rf = new RectF(left, top, left + ico.getWidth() * coef, 
 							top + ico.getHeight() * coef);
@@ -305,17 +342,15 @@ public class TextRenderer {
 		}
 	}
 
-	private void drawWrappedText(Canvas cv, TextDrawInfo text, float textSize) {
-		if (text.textWrap == 0) {
-			// set maximum for all text
-			text.textWrap = 40;
-		}
-
+	/**
+	 * Splits text to lines of text wrap width
+	 */
+	private void wrapText(TextDrawInfo text, List<String> lines) {
+		lines.clear();
 		if (text.text.length() > text.textWrap) {
 			int start = 0;
 			int end = text.text.length();
 			int lastSpace = -1;
-			int line = 0;
 			int pos = 0;
 			int limit = 0;
 			while (pos < end) {
@@ -328,25 +363,29 @@ public class TextRenderer {
 					pos++;
 				}
 				if (lastSpace == -1 || pos == end) {
-					drawTextOnCanvas(cv, text.text.substring(start, pos), text.centerX, text.centerY + line * (textSize + 2), 
-							paintText, text.textShadowColor, text.textShadow);
+					lines.add(text.text.substring(start, pos));
 					start = pos;
 				} else {
-					drawTextOnCanvas(cv, text.text.substring(start, lastSpace), text.centerX, text.centerY + line * (textSize + 2),
-							paintText, text.textShadowColor, text.textShadow);
+					lines.add(text.text.substring(start, lastSpace));
 					start = lastSpace + 1;
 					limit += (start - pos) - 1;
 				}
-				line++;
-
 			}
 		} else {
-			drawTextOnCanvas(cv, text.text, text.centerX, text.centerY, paintText, text.textShadowColor, text.textShadow);
+			lines.add(text.text);
+		}
+	}
+
+	private void drawWrappedText(Canvas cv, TextDrawInfo text, float centerX, float centerY, float textSize) {
+		wrapText(text, wrappedLines);
+		for (int line = 0; line < wrappedLines.size(); line++) {
+			drawTextOnCanvas(cv, wrappedLines.get(line), centerX, centerY + line * (textSize + 2), 
+					paintText, text.textShadowColor, text.textShadow);
 		}
 	}
 	
 	private void createTextDrawInfo(final BinaryMapDataObject o, RenderingRuleSearchRequest render, RenderingContext rc, TagValuePair pair, final float xMid, float yMid,
-			Path path, final PointF[] points, String name, String tagName) {
+			Path path, final float[] points, int len, String name, String tagName) {
 		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, o);
 		render.setIntFilter(render.ALL.R_TEXT_LENGTH, name.length());
 		render.setStringFilter(render.ALL.R_NAME_TAG, tagName);
@@ -371,15 +410,18 @@ public class TextRenderer {
 					});
 
 				}
-				paintText.setTextSize(text.textSize);
 				Rect bs = new Rect();
-				paintText.getTextBounds(name, 0, name.length(), bs);
+				// text could be measured by several sub tile rendering threads
+				synchronized (paintText) {
+					paintText.setTextSize(text.textSize);
+					paintText.getTextBounds(name, 0, name.length(), bs);
+				}
 				text.bounds = new QuadRect(bs.left, bs.top, bs.right, bs.bottom);
 				text.bounds.inset(-rc.getDensityValue(3), -rc.getDensityValue(10));
 				boolean display = true;
 				if(path != null) {
 					text.drawOnPath = path;
-					display = calculatePathToRotate(rc, text, points, 
+					display = calculatePathToRotate(rc, text, points, len,
 							render.getIntPropertyValue(render.ALL.R_TEXT_ON_PATH, 0) != 0);
 				}
 				if(text.drawOnPath == null) {
@@ -397,7 +439,7 @@ public class TextRenderer {
 	}
 	
 	public void renderText(final BinaryMapDataObject obj, final RenderingRuleSearchRequest render, final RenderingContext rc, 
-			final TagValuePair pair, final float xMid, final float yMid, final Path path, final PointF[] points) {
+			final TagValuePair pair, final float xMid, final float yMid, final Path path, final float[] points, final int len) {
 		final TIntObjectHashMap<String> map = obj.getObjectNames();
 		if (map != null) {
 			map.forEachEntry(new TIntObjectProcedure<String>() {
@@ -416,7 +458,7 @@ public class TextRenderer {
 //							skip = true;
 //						}
 						if(!skip) {
-							createTextDrawInfo(obj, render, rc, pair, xMid, yMid, path, points, name, nameTag);
+							createTextDrawInfo(obj, render, rc, pair, xMid, yMid, path, points, len, name, nameTag);
 						}
 					}
 					return true;
@@ -426,16 +468,18 @@ public class TextRenderer {
 	}
 
 	
-	boolean calculatePathToRotate(RenderingContext rc, TextDrawInfo p, PointF[] points, boolean drawOnPath) {
-		int len = points.length;
+	/**
+	 * @param points projected coordinates of the path (x, y pairs), only first len points are used
+	 */
+	boolean calculatePathToRotate(RenderingContext rc, TextDrawInfo p, float[] points, int len, boolean drawOnPath) {
 		if (!drawOnPath) {
 			p.drawOnPath = null;
 			// simply calculate rotation of path used for shields
 			float px = 0;
 			float py = 0;
 			for (int i = 1; i < len; i++) {
-				px += points[i].x - points[i - 1].x;
-				py += points[i].y - points[i - 1].y;
+				px += points[i * 2] - points[(i - 1) * 2];
+				py += points[i * 2 + 1] - points[(i - 1) * 2 + 1];
 			}
 			if (px != 0 || py != 0) {
 				p.pathRotate = (float) (-Math.atan2(px, py) + Math.PI / 2);
@@ -450,15 +494,15 @@ public class TextRenderer {
 		float textw = (float) p.bounds.width();
 		int last = 0;
 		int startVisible = 0;
-		float[] distances = new float[points.length - 1];
+		float[] distances = new float[len - 1];
 
 		float normalTextLen = 1.5f * textw;
 		for (int i = 0; i < len; i++, last++) {
-			boolean inside = points[i].x >= 0 && points[i].x <= rc.width &&
-					points[i].x >= 0 && points[i].y <= rc.height;
+			boolean inside = points[i * 2] >= 0 && points[i * 2] <= rc.width &&
+					points[i * 2] >= 0 && points[i * 2 + 1] <= rc.height;
 			if (i > 0) {
-				float d = (float) Math.sqrt(fsqr(points[i].x - points[i - 1].x) + 
-						fsqr(points[i].y - points[i - 1].y));
+				float d = (float) Math.sqrt(fsqr(points[i * 2] - points[(i - 1) * 2]) + 
+						fsqr(points[i * 2 + 1] - points[(i - 1) * 2 + 1]));
 				distances[i-1]= d;
 				roadLength += d;
 				if(inside) {
@@ -509,9 +553,9 @@ public class TextRenderer {
 			Path path = new Path(); 
 			for (int i = startInd; i < endInd; i++) {
 				if (i == startInd) {
-					path.moveTo(points[i].x, points[i].y);
+					path.moveTo(points[i * 2], points[i * 2 + 1]);
 				} else {
-					path.lineTo(points[i].x, points[i].y);
+					path.lineTo(points[i * 2], points[i * 2 + 1]);
 				}
 			}
 			p.drawOnPath = path;
@@ -520,8 +564,8 @@ public class TextRenderer {
 		float px = 0;
 		float py = 0;
 		for (int i = startInd + 1; i < endInd; i++) {
-			px += points[i].x - points[i - 1].x;
-			py += points[i].y - points[i - 1].y;
+			px += points[i * 2] - points[(i - 1) * 2];
+			py += points[i * 2 + 1] - points[(i - 1) * 2 + 1];
 		}
 		float scale = 0.5f;
 		float plen = (float) Math.sqrt(px * px + py * py);
@@ -542,17 +586,17 @@ public class TextRenderer {
 			oy *= (p.bounds.height() / plen) / 2;
 		}
 
-		p.centerX = points[startInd].x + scale * px + ox;
-		p.centerY = points[startInd].y + scale * py + oy;
+		p.centerX = points[startInd * 2] + scale * px + ox;
+		p.centerY = points[startInd * 2 + 1] + scale * py + oy;
 //		p.hOffset = 0;
 
 		if (inverse) {
 			Path path = new Path();
 			for (int i = endInd - 1; i >= startInd; i--) {
 				if (i == endInd - 1) {
-					path.moveTo(points[i].x, points[i].y);
+					path.moveTo(points[i * 2], points[i * 2 + 1]);
 				} else {
-					path.lineTo(points[i].x, points[i].y);
+					path.lineTo(points[i * 2], points[i * 2 + 1]);
 				}
 			}
 			p.drawOnPath = path;
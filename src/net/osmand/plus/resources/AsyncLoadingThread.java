@@ -5,7 +5,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Stack;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
@@ -18,46 +22,91 @@ import net.osmand.util.Algorithms;
 import org.apache.commons.logging.Log;
 
 /**
- * Thread to load map objects (POI, transport stops )async
+ * Thread to load map objects (POI, transport stops )async.
+ * The thread itself serves vector map rendering requests, while raster tiles are decoded 
+ * by a small pool of workers ordered by priority (visible tiles, overzoom parents, prefetch).
  */
 public class AsyncLoadingThread extends Thread {
 	
 	public static final int LIMIT_TRANSPORT = 200;
 	
+	public static final int PRIORITY_VISIBLE = 0;
+	public static final int PRIORITY_OVERZOOM = 1;
+	public static final int PRIORITY_PREFETCH = 2;
+	private static final int PRIORITY_CANCELLED = -1;
+	
+	// tiles further than that (in tiles of own zoom) from visible area are not loaded
+	private static final int PREFETCH_MARGIN = 1;
+	// visible area is not taken into account if map was not drawn for a while (opengl, background)
+	private static final long VISIBLE_TILES_TIMEOUT = 2000;
+	private static final long CALLBACK_INTERVAL = 100;
+	private static final int MAX_TILE_WORKERS = 4;
+	
 	private static final Log log = PlatformUtil.getLog(AsyncLoadingThread.class); 
 	
-	Stack<Object> requests = new Stack<Object>();
+	private static final Comparator<TileLoadDownloadRequest> TILE_REQUEST_COMPARATOR = new Comparator<TileLoadDownloadRequest>() {
+		@Override
+		public int compare(TileLoadDownloadRequest lhs, TileLoadDownloadRequest rhs) {
+			if (lhs.priority != rhs.priority) {
+				return lhs.priority < rhs.priority ? -1 : 1;
+			}
+			// last requested first
+			return lhs.sequence > rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+		}
+	};
+	
 	private final ResourceManager resourceManger;
+	private final PriorityBlockingQueue<TileLoadDownloadRequest> tileRequests = 
+			new PriorityBlockingQueue<TileLoadDownloadRequest>(64, TILE_REQUEST_COMPARATOR);
+	private final ConcurrentHashMap<Long, TileLoadDownloadRequest> pendingTiles = 
+			new ConcurrentHashMap<Long, TileLoadDownloadRequest>();
+	private final AtomicLong requestSequence = new AtomicLong();
+	private final Thread[] tileWorkers;
+	private volatile VisibleTiles visibleTiles;
+	private final ConcurrentHashMap<SQLiteTileSource, VisibleTiles> sqliteLoadedTiles = 
+			new ConcurrentHashMap<SQLiteTileSource, VisibleTiles>();
+	// set by any worker which loaded a tile, cleared by the worker which fires the callback
+	private final AtomicBoolean tilesLoaded = new AtomicBoolean();
+	private volatile long lastCallbackTime;
+	
+	private final Object mapRequestSync = new Object();
+	private MapLoadRequest mapRequest;
 
 	public AsyncLoadingThread(ResourceManager resourceManger) {
 		super("Loader map objects (synchronizer)"); //$NON-NLS-1$
 		this.resourceManger = resourceManger;
+		int workers = Math.max(2, Math.min(MAX_TILE_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+		tileWorkers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			tileWorkers[i] = new Thread(new TileLoaderWorker(), "Loader map tiles " + i); //$NON-NLS-1$
+		}
+	}
+	
+	@Override
+	public synchronized void start() {
+		super.start();
+		for (Thread worker : tileWorkers) {
+			worker.start();
+		}
 	}
 
 	@Override
 	public void run() {
 		while (true) {
 			try {
-				boolean tileLoaded = false;
-				boolean mapLoaded = false;
-				while (!requests.isEmpty()) {
-					Object req = requests.pop();
-					if (req instanceof TileLoadDownloadRequest) {
-						TileLoadDownloadRequest r = (TileLoadDownloadRequest) req;
-						tileLoaded |= resourceManger.getRequestedImageTile(r) != null;
-					} else if (req instanceof MapLoadRequest) {
-						if (!mapLoaded) {
-							MapLoadRequest r = (MapLoadRequest) req;
-							resourceManger.getRenderer().loadMap(r.tileBox, resourceManger.getMapTileDownloader());
-							mapLoaded = !resourceManger.getRenderer().wasInterrupted();
-						}
+				MapLoadRequest r;
+				synchronized (mapRequestSync) {
+					while (mapRequest == null) {
+						mapRequestSync.wait();
 					}
+					r = mapRequest;
+					mapRequest = null;
 				}
-				if (tileLoaded  || mapLoaded) {
+				resourceManger.getRenderer().loadMap(r.tileBox, resourceManger.getMapTileDownloader());
+				if (!resourceManger.getRenderer().wasInterrupted()) {
 					// use downloader callback
 					resourceManger.getMapTileDownloader().fireLoadCallback(null);
 				}
-				sleep(750);
 			} catch (InterruptedException e) {
 				log.error(e, e);
 			} catch (RuntimeException e) {
@@ -65,13 +114,148 @@ public class AsyncLoadingThread extends Thread {
 			}
 		}
 	}
+	
+	private class TileLoaderWorker implements Runnable {
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					TileLoadDownloadRequest req = tileRequests.take();
+					try {
+						int priority = getTilePriority(req);
+						if (priority != PRIORITY_CANCELLED) {
+							if (priority == PRIORITY_VISIBLE && req.tileSource instanceof SQLiteTileSource) {
+								loadVisibleSQLiteTiles((SQLiteTileSource) req.tileSource, req.zoom);
+							}
+							if (resourceManger.getRequestedImageTile(req) != null) {
+								tilesLoaded.set(true);
+							}
+						}
+					} finally {
+						pendingTiles.remove(req.tileKey, req);
+					}
+					// the worker which finishes the last request fires the callback for tiles of all workers
+					long time = System.currentTimeMillis();
+					if ((tileRequests.isEmpty() || time - lastCallbackTime > CALLBACK_INTERVAL)
+							&& tilesLoaded.compareAndSet(true, false)) {
+						lastCallbackTime = time;
+						// use downloader callback
+						resourceManger.getMapTileDownloader().fireLoadCallback(null);
+					}
+				} catch (InterruptedException e) {
+					log.error(e, e);
+				} catch (RuntimeException e) {
+					log.error(e, e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads all visible tiles of the source with one query once per visible area
+	 */
+	private void loadVisibleSQLiteTiles(SQLiteTileSource source, int zoom) {
+		VisibleTiles v = visibleTiles;
+		if (v == null || v.zoom != zoom) {
+			return;
+		}
+		if (sqliteLoadedTiles.put(source, v) != v) {
+			resourceManger.loadSQLiteTiles(source, zoom, v.left, v.top, v.right, v.bottom);
+		}
+	}
+	
+	/**
+	 * Visible tiles are used to order tile requests and to cancel requests for tiles 
+	 * which are not visible anymore (right & bottom are exclusive).
+	 */
+	public void setVisibleTiles(int zoom, int left, int top, int right, int bottom) {
+		VisibleTiles v = visibleTiles;
+		if (v != null && v.zoom == zoom && v.left == left && v.top == top && v.right == right && v.bottom == bottom) {
+			v.time = System.currentTimeMillis();
+		} else {
+			visibleTiles = new VisibleTiles(zoom, left, top, right, bottom, System.currentTimeMillis());
+		}
+	}
+	
+	private int getTilePriority(TileLoadDownloadRequest req) {
+		return getTilePriority(req.xTile, req.yTile, req.zoom);
+	}
+	
+	private int getTilePriority(int xTile, int yTile, int zoom) {
+		VisibleTiles v = visibleTiles;
+		if (v == null || System.currentTimeMillis() - v.time > VISIBLE_TILES_TIMEOUT) {
+			return PRIORITY_VISIBLE;
+		}
+		int left, top, right, bottom;
+		if (zoom >= v.zoom) {
+			int shift = zoom - v.zoom;
+			left = v.left << shift;
+			top = v.top << shift;
+			right = v.right << shift;
+			bottom = v.bottom << shift;
+		} else {
+			int shift = v.zoom - zoom;
+			left = v.left >> shift;
+			top = v.top >> shift;
+			right = ((v.right - 1) >> shift) + 1;
+			bottom = ((v.bottom - 1) >> shift) + 1;
+		}
+		if (xTile >= left && xTile < right && yTile >= top && yTile < bottom) {
+			if (zoom == v.zoom) {
+				return PRIORITY_VISIBLE;
+			} else if (zoom < v.zoom) {
+				return PRIORITY_OVERZOOM;
+			}
+			return PRIORITY_PREFETCH;
+		}
+		if (xTile >= left - PREFETCH_MARGIN && xTile < right + PREFETCH_MARGIN
+				&& yTile >= top - PREFETCH_MARGIN && yTile < bottom + PREFETCH_MARGIN) {
+			return PRIORITY_PREFETCH;
+		}
+		return PRIORITY_CANCELLED;
+	}
+
+	/**
+	 * Returns true if the tile is already queued with the same or higher priority
+	 */
+	public boolean isTileRequested(long tileKey, int xTile, int yTile, int zoom) {
+		TileLoadDownloadRequest pending = pendingTiles.get(tileKey);
+		return pending != null && pending.priority <= getTilePriority(xTile, yTile, zoom);
+	}
+
+	/**
+	 * Forgets the queued request of the tile (its image was cleared, so the tile should be requested again)
+	 */
+	public void cancelTileRequest(long tileKey) {
+		TileLoadDownloadRequest pending = pendingTiles.remove(tileKey);
+		if (pending != null) {
+			tileRequests.remove(pending);
+		}
+	}
 
 	public void requestToLoadImage(TileLoadDownloadRequest req) {
-		requests.push(req);
+		int priority = getTilePriority(req);
+		if (priority == PRIORITY_CANCELLED) {
+			return;
+		}
+		req.priority = priority;
+		req.sequence = requestSequence.incrementAndGet();
+		TileLoadDownloadRequest pending = pendingTiles.putIfAbsent(req.tileKey, req);
+		if (pending == null) {
+			tileRequests.put(req);
+		} else if (pending.priority > priority && tileRequests.remove(pending)) {
+			// tile became more important (e.g. scrolled into view), requeue it
+			pendingTiles.put(req.tileKey, req);
+			tileRequests.put(req);
+		}
 	}
 
 	public void requestToLoadMap(MapLoadRequest req) {
-		requests.push(req);
+		synchronized (mapRequestSync) {
+			mapRequest = req;
+			mapRequestSync.notifyAll();
+		}
 	}
 
 	
@@ -90,26 +274,32 @@ public class AsyncLoadingThread extends Thread {
 	public static class TileLoadDownloadRequest extends DownloadRequest {
 
 		public final String tileId;
+		public final long tileKey;
 		public final File dirWithTiles;
 		public final ITileSource tileSource;
 
-		public TileLoadDownloadRequest(File dirWithTiles, String url, File fileToSave, String tileId, ITileSource source, int tileX,
-				int tileY, int zoom) {
+		public TileLoadDownloadRequest(File dirWithTiles, String url, File fileToSave, String tileId, long tileKey, 
+				ITileSource source, int tileX, int tileY, int zoom) {
 			super(url, fileToSave, tileX, tileY, zoom);
 			this.dirWithTiles = dirWithTiles;
 			this.tileSource = source;
 			this.tileId = tileId;
+			this.tileKey = tileKey;
 		}
 		
-		public TileLoadDownloadRequest(File dirWithTiles, String url, File fileToSave, String tileId, ITileSource source, int tileX,
-				int tileY, int zoom, String referer) {
+		public TileLoadDownloadRequest(File dirWithTiles, String url, File fileToSave, String tileId, long tileKey, 
+				ITileSource source, int tileX, int tileY, int zoom, String referer) {
 			super(url, fileToSave, tileX, tileY, zoom);
 			this.dirWithTiles = dirWithTiles;
 			this.tileSource = source;
 			this.tileId = tileId;
+			this.tileKey = tileKey;
 			this.referer = referer;
 		}
 		
+		int priority = PRIORITY_VISIBLE;
+		long sequence;
+		
 		public void saveTile(InputStream inputStream) throws IOException {
 			if(tileSource instanceof SQLiteTileSource){
 				ByteArrayOutputStream stream = null;
@@ -183,6 +373,25 @@ public class AsyncLoadingThread extends Thread {
 	}
 
 
+	private static class VisibleTiles {
+		final int zoom;
+		final int left;
+		final int top;
+		final int right;
+		final int bottom;
+		volatile long time;
+
+		VisibleTiles(int zoom, int left, int top, int right, int bottom, long time) {
+			this.zoom = zoom;
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+			this.time = time;
+		}
+	}
+
+
 	protected static class MapLoadRequest {
 		public final RotatedTileBox tileBox;
 
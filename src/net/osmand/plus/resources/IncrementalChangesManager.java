@@ -115,7 +115,12 @@ public class IncrementalChangesManager {
 			regions.put(nm, new RegionUpdateFiles(nm));
 		}
 		RegionUpdateFiles regionUpdateFiles = regions.get(nm);
-		return regionUpdateFiles.addUpdate(date, f, dateCreated);
+		boolean added = regionUpdateFiles.addUpdate(date, f, dateCreated);
+		if (added) {
+			// rendered tiles don't contain changes of the update
+			resourceManager.getRenderer().invalidateRenderedTiles();
+		}
+		return added;
 	}
 	
 	protected static String formatSize(long vl) {
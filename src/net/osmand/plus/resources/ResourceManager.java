@@ -16,6 +16,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.osmand.AndroidUtils;
 import net.osmand.GeoidAltitudeCorrection;
@@ -42,6 +43,7 @@ import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.OsmandPlugin;
 import net.osmand.plus.R;
 import net.osmand.plus.SQLiteTileSource;
+import net.osmand.plus.TilePackSource;
 import net.osmand.plus.Version;
 import net.osmand.plus.render.MapRenderRepositories;
 import net.osmand.plus.render.NativeOsmandLibrary;
@@ -86,12 +88,12 @@ public class ResourceManager {
 	protected static ResourceManager manager = null;
 	
 	// it is not good investigated but no more than 64 (satellite images)
-	// Only 8 MB (from 16 Mb whole mem) available for images : image 64K * 128 = 8 MB (8 bit), 64 - 16 bit, 32 - 32 bit
-	// at least 3*9?
-	protected int maxImgCacheSize = 28;
-	
-	protected Map<String, Bitmap> cacheOfImages = new LinkedHashMap<String, Bitmap>();
-	protected Map<String, Boolean> imagesOnFS = new LinkedHashMap<String, Boolean>() ;
+	// 256x256 ARGB tile takes 256 KB, at least 3*9 tiles
+	protected TileBitmapCache cacheOfImages = new TileBitmapCache(28 * 256 * 256 * 4);
+	protected TileExistenceMap imagesOnFS = new TileExistenceMap();
+	// indexed by tile source id
+	protected AtomicReferenceArray<TileExistenceIndex> tileExistenceIndexes = 
+			new AtomicReferenceArray<TileExistenceIndex>(TILE_SOURCE_ID_MASK + 1);
 	
 	protected File dirWithTiles ;
 	
@@ -120,6 +122,8 @@ public class ResourceManager {
 		private BinaryMapIndexReader initialReader;
 		private File filename;
 		private List<BinaryMapIndexReader> readers = new ArrayList<>(BinaryMapReaderResourceType.values().length);
+		// readers for routing threads running in parallel with the main routing one (each needs own file)
+		private List<BinaryMapIndexReader> parallelRoutingReaders = new ArrayList<>();
 		private boolean useForRouting;
 		public BinaryMapReaderResource(File f, BinaryMapIndexReader initialReader) {
 			this.filename = f;
@@ -144,6 +148,25 @@ public class ResourceManager {
 			return r;
 		}
 
+		/**
+		 * @param copy 0 - the routing reader, otherwise reader of the parallel routing thread
+		 */
+		public synchronized BinaryMapIndexReader getParallelRoutingReader(int copy) {
+			if (copy == 0) {
+				return getReader(BinaryMapReaderResourceType.ROUTING);
+			}
+			while (parallelRoutingReaders.size() < copy) {
+				try {
+					RandomAccessFile raf = new RandomAccessFile(filename, "r");
+					parallelRoutingReaders.add(new BinaryMapIndexReader(raf, initialReader));
+				} catch (IOException e) {
+					log.error("Fail to initialize " + filename.getName(), e);
+					return null;
+				}
+			}
+			return parallelRoutingReaders.get(copy - 1);
+		}
+
 		public String getFileName() {
 			return filename.getName();
 		}
@@ -161,6 +184,9 @@ public class ResourceManager {
 					close(rr);
 				}
 			}
+			for(BinaryMapIndexReader rr : parallelRoutingReaders) {
+				close(rr);
+			}
 			initialReader = null;
 		}
 		
@@ -228,8 +254,9 @@ public class ResourceManager {
 		// Only 8 MB (from 16 Mb whole mem) available for images : image 64K * 128 = 8 MB (8 bit), 64 - 16 bit, 32 - 32 bit
 		// at least 3*9?
 		float tiles = (dm.widthPixels / 256 + 2) * (dm.heightPixels / 256 + 2) * 3;
-		log.info("Tiles to load in memory : " + tiles);
-		maxImgCacheSize = (int) (tiles) ;
+		long maxImgCacheBytes = Math.min((long) tiles * 256 * 256 * 4, Runtime.getRuntime().maxMemory() / 4);
+		log.info("Tiles to load in memory : " + tiles + " (" + (maxImgCacheBytes >> 10) + " KB)");
+		cacheOfImages.setMaxBytes(maxImgCacheBytes);
 	}
 	
 	public MapTileDownloader getMapTileDownloader() {
@@ -251,6 +278,7 @@ public class ResourceManager {
 	}
 
 	public void resetStoreDirectory() {
+		closeTileExistenceIndexes();
 		dirWithTiles = context.getAppPath(IndexConstants.TILES_INDEX_DIR);
 		dirWithTiles.mkdirs();
 		context.getAppPath(IndexConstants.GPX_INDEX_DIR).mkdirs();
@@ -271,28 +299,43 @@ public class ResourceManager {
 	
 	////////////////////////////////////////////// Working with tiles ////////////////////////////////////////////////
 	
-	public Bitmap getTileImageForMapAsync(String file, ITileSource map, int x, int y, int zoom, boolean loadFromInternetIfNeeded) {
-		return getTileImageForMap(file, map, x, y, zoom, loadFromInternetIfNeeded, false, true);
+	public Bitmap getTileImageForMapAsync(long tileKey, ITileSource map, int x, int y, int zoom, boolean loadFromInternetIfNeeded) {
+		return getTileImageForMap(tileKey, map, x, y, zoom, loadFromInternetIfNeeded, false, true);
 	}
 	
 	
-	public synchronized Bitmap getTileImageFromCache(String file){
-		return cacheOfImages.get(file);
+	public void updateVisibleTiles(Object layer, int zoom, int left, int top, int right, int bottom) {
+		asyncLoadingThread.setVisibleTiles(zoom, left, top, right, bottom);
+		cacheOfImages.setVisibleTiles(layer, zoom, left, top, right, bottom);
 	}
 	
-	public synchronized void putTileInTheCache(String file, Bitmap bmp) {
-		cacheOfImages.put(file, bmp);
+	public TileBitmapCache getTilesCache() {
+		return cacheOfImages;
 	}
 	
+	public Bitmap getTileImageFromCache(long tileKey){
+		return cacheOfImages.get(tileKey);
+	}
 	
-	public Bitmap getTileImageForMapSync(String file, ITileSource map, int x, int y, int zoom, boolean loadFromInternetIfNeeded) {
-		return getTileImageForMap(file, map, x, y, zoom, loadFromInternetIfNeeded, true, true);
+	public void putTileInTheCache(long tileKey, Bitmap bmp, int x, int y, int zoom) {
+		cacheOfImages.put(tileKey, bmp, x, y, zoom);
 	}
 	
-	public synchronized void tileDownloaded(DownloadRequest request){
+	
+	public Bitmap getTileImageForMapSync(long tileKey, ITileSource map, int x, int y, int zoom, boolean loadFromInternetIfNeeded) {
+		return getTileImageForMap(tileKey, map, x, y, zoom, loadFromInternetIfNeeded, true, true);
+	}
+	
+	public void tileDownloaded(DownloadRequest request){
 		if(request instanceof TileLoadDownloadRequest){
 			TileLoadDownloadRequest req = ((TileLoadDownloadRequest) request);
-			imagesOnFS.put(req.tileId, Boolean.TRUE);
+			if (isTileKeyValid(req)) {
+				imagesOnFS.put(req.tileKey, true);
+			}
+			TileExistenceIndex index = getTileExistenceIndex(req.tileSource);
+			if (index != null) {
+				index.add(req.xTile, req.yTile, req.zoom);
+			}
 /*			if(req.fileToSave != null && req.tileSource instanceof SQLiteTileSource){
 				try {
 					((SQLiteTileSource) req.tileSource).insertImage(req.xTile, req.yTile, req.zoom, req.fileToSave);
@@ -313,49 +356,99 @@ public class ResourceManager {
 		
 	}
 	
-	public synchronized boolean tileExistOnFileSystem(String file, ITileSource map, int x, int y, int zoom){
-		if(!imagesOnFS.containsKey(file)){
-			boolean ex = false;
-			if(map instanceof SQLiteTileSource){
+	public boolean tileExistOnFileSystem(long tileKey, ITileSource map, int x, int y, int zoom){
+		byte exists = imagesOnFS.get(tileKey);
+		if(exists == TileExistenceMap.UNKNOWN){
+			TileExistenceIndex index = getTileExistenceIndex(map);
+			if(index != null && !index.mightContain(x, y, zoom)) {
+				return cacheOfImages.contains(tileKey);
+			}
+			// check is done outside of any lock, concurrent checks of the same tile give the same result
+			boolean ex;
+			if(map instanceof TilePackSource){
+				// lookup in the mapped index is cheaper than the memo
+				return ((TilePackSource) map).exists(x, y, zoom) || cacheOfImages.contains(tileKey);
+			} else if(map instanceof SQLiteTileSource){
 				if(((SQLiteTileSource) map).isLocked()){
 					return false;
 				}
 				ex = ((SQLiteTileSource) map).exists(x, y, zoom);
 			} else {
-				if(file == null){
-					file = calculateTileId(map, x, y, zoom);
-				}
-				ex = new File(dirWithTiles, file).exists();
+				ex = new File(dirWithTiles, calculateTileId(map, x, y, zoom)).exists();
 			}
-			if (ex) {
-				imagesOnFS.put(file, Boolean.TRUE);
+			return imagesOnFS.putChecked(tileKey, ex) || cacheOfImages.contains(tileKey);
+		}
+		return exists == TileExistenceMap.EXISTS || cacheOfImages.contains(tileKey);		
+	}
+	
+	private TileExistenceIndex getTileExistenceIndex(ITileSource map) {
+		if (map == null || map instanceof TilePackSource) {
+			return null;
+		}
+		int id = getTileSourceId(map);
+		TileExistenceIndex index = tileExistenceIndexes.get(id);
+		if (index == null) {
+			if (map instanceof SQLiteTileSource) {
+				index = TileExistenceIndex.forSQLiteSource((SQLiteTileSource) map);
 			} else {
-				imagesOnFS.put(file, null);
+				index = TileExistenceIndex.forTilesDirectory(new File(dirWithTiles, map.getName()));
+			}
+			if (index == null) {
+				return null;
 			}
+			if (!tileExistenceIndexes.compareAndSet(id, null, index)) {
+				return tileExistenceIndexes.get(id);
+			}
+			index.loadOrBuildAsync();
+		} else if (index.isOverfilled() && !index.isBuilding()) {
+			index.loadOrBuildAsync();
 		}
-		return imagesOnFS.get(file) != null || cacheOfImages.get(file) != null;		
+		return index;
 	}
 	
-	public void clearTileImageForMap(String file, ITileSource map, int x, int y, int zoom){
-		getTileImageForMap(file, map, x, y, zoom, true, false, true, true);
+	private void closeTileExistenceIndexes() {
+		for (int i = 0; i < tileExistenceIndexes.length(); i++) {
+			TileExistenceIndex index = tileExistenceIndexes.getAndSet(i, null);
+			if (index != null) {
+				index.saveAsync();
+			}
+		}
 	}
 	
-	/**
-	 * @param file - null could be passed if you do not call very often with that param
-	 */
-	protected Bitmap getTileImageForMap(String file, ITileSource map, int x, int y, int zoom, 
+	public void clearTileImageForMap(ITileSource map, int x, int y, int zoom){
+		getTileImageForMap(calculateTileKey(map, x, y, zoom), map, x, y, zoom, true, false, true, true);
+	}
+	
+	protected Bitmap getTileImageForMap(long tileKey, ITileSource map, int x, int y, int zoom, 
 			boolean loadFromInternetIfNeeded, boolean sync, boolean loadFromFs) {
-		return getTileImageForMap(file, map, x, y, zoom, loadFromInternetIfNeeded, sync, loadFromFs, false);
+		return getTileImageForMap(tileKey, map, x, y, zoom, loadFromInternetIfNeeded, sync, loadFromFs, false);
 	}
 
 	// introduce cache in order save memory
 	
-	protected StringBuilder builder = new StringBuilder(40);
-	protected char[] tileId = new char[120];
+	private static final ThreadLocal<StringBuilder> tileIdBuilder = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(40);
+		}
+	};
+	// tile key : 12 bits source id, 6 bits zoom, 23 bits x, 23 bits y
+	private static final int TILE_COORD_BITS = 23;
+	private static final long TILE_COORD_MASK = (1L << TILE_COORD_BITS) - 1;
+	private static final int TILE_SOURCE_ID_MASK = 0xfff;
+	private final Map<String, Integer> tileSourceIds = new ConcurrentHashMap<String, Integer>();
+	private final Map<String, Integer> sqliteTileSourceIds = new ConcurrentHashMap<String, Integer>();
+	private final Map<String, Integer> tilePackSourceIds = new ConcurrentHashMap<String, Integer>();
+	private int lastTileSourceId;
 	private GeoidAltitudeCorrection geoidAltitudeCorrection;
 	private boolean searchAmenitiesInProgress;
 
-	public synchronized String calculateTileId(ITileSource map, int x, int y, int zoom) {
+	/**
+	 * Tile id is a relative path of the tile file (for sqlite sources - unique name of the tile).
+	 * It should be used only to access files, use {@link #calculateTileKey} to identify tiles. 
+	 */
+	public String calculateTileId(ITileSource map, int x, int y, int zoom) {
+		StringBuilder builder = tileIdBuilder.get();
 		builder.setLength(0);
 		if (map == null) {
 			builder.append(IndexConstants.TEMP_SOURCE_TO_LOAD);
@@ -363,7 +456,7 @@ public class ResourceManager {
 			builder.append(map.getName());
 		}
 
-		if (map instanceof SQLiteTileSource) {
+		if (map instanceof SQLiteTileSource || map instanceof TilePackSource) {
 			builder.append('@');
 		} else {
 			builder.append('/');
@@ -373,34 +466,89 @@ public class ResourceManager {
 		return builder.toString();
 	}
 	
-
-	protected synchronized Bitmap getTileImageForMap(String tileId, ITileSource map, int x, int y, int zoom,
-			boolean loadFromInternetIfNeeded, boolean sync, boolean loadFromFs, boolean deleteBefore) {
-		if (tileId == null) {
-			tileId = calculateTileId(map, x, y, zoom);
-			if(tileId == null){
-				return null;
+	/**
+	 * Allocation free identifier of the tile (tile source, zoom, x, y packed into long)
+	 */
+	public long calculateTileKey(ITileSource map, int x, int y, int zoom) {
+		long sourceId = getTileSourceId(map);
+		return (sourceId << (2 * TILE_COORD_BITS + 6)) | ((long) (zoom & 0x3f) << (2 * TILE_COORD_BITS))
+				| ((x & TILE_COORD_MASK) << TILE_COORD_BITS) | (y & TILE_COORD_MASK);
+	}
+	
+	private int getTileSourceId(ITileSource map) {
+		String name = map == null ? IndexConstants.TEMP_SOURCE_TO_LOAD : map.getName();
+		Map<String, Integer> ids = map instanceof SQLiteTileSource ? sqliteTileSourceIds :
+				(map instanceof TilePackSource ? tilePackSourceIds : tileSourceIds);
+		Integer id = ids.get(name);
+		if (id == null) {
+			synchronized (tileSourceIds) {
+				id = ids.get(name);
+				if (id == null) {
+					if (lastTileSourceId == TILE_SOURCE_ID_MASK) {
+						resetTileSourceIds();
+					}
+					id = ++lastTileSourceId;
+					ids.put(name, id);
+				}
 			}
 		}
-		
+		return id;
+	}
+
+	/**
+	 * Ids are not reused while they could identify other sources : when all ids are taken
+	 * they are assigned anew and everything keyed by tile keys is dropped
+	 */
+	private void resetTileSourceIds() {
+		log.info("Tile source ids are exhausted, tiles are cleared"); //$NON-NLS-1$
+		tileSourceIds.clear();
+		sqliteTileSourceIds.clear();
+		tilePackSourceIds.clear();
+		lastTileSourceId = 0;
+		cacheOfImages.clear();
+		imagesOnFS.clear();
+		closeTileExistenceIndexes();
+	}
+
+	/**
+	 * @return false if the key of the request was calculated before source ids were assigned anew
+	 */
+	private boolean isTileKeyValid(TileLoadDownloadRequest req) {
+		return req.tileKey == calculateTileKey(req.tileSource, req.xTile, req.yTile, req.zoom);
+	}
+	
+
+	protected Bitmap getTileImageForMap(long tileKey, ITileSource map, int x, int y, int zoom,
+			boolean loadFromInternetIfNeeded, boolean sync, boolean loadFromFs, boolean deleteBefore) {
 		if(deleteBefore){
-			cacheOfImages.remove(tileId);
+			cacheOfImages.remove(tileKey);
+			asyncLoadingThread.cancelTileRequest(tileKey);
 			if (map instanceof SQLiteTileSource) {
 				((SQLiteTileSource) map).deleteImage(x, y, zoom);
+			} else if (map instanceof TilePackSource) {
+				// read only
 			} else {
-				File f = new File(dirWithTiles, tileId);
+				File f = new File(dirWithTiles, calculateTileId(map, x, y, zoom));
 				if (f.exists()) {
 					f.delete();
 				}
 			}
-			imagesOnFS.put(tileId, null);
+			imagesOnFS.put(tileKey, false);
 		}
 		
-		if (loadFromFs && cacheOfImages.get(tileId) == null && map != null) {
+		if (loadFromFs && map != null) {
+			Bitmap bmp = cacheOfImages.get(tileKey);
+			if (bmp != null) {
+				return bmp;
+			}
+			if (!sync && asyncLoadingThread.isTileRequested(tileKey, x, y, zoom)) {
+				return null;
+			}
 			boolean locked = map instanceof SQLiteTileSource && ((SQLiteTileSource) map).isLocked();
-			if(!loadFromInternetIfNeeded && !locked && !tileExistOnFileSystem(tileId, map, x, y, zoom)){
+			if(!loadFromInternetIfNeeded && !locked && !tileExistOnFileSystem(tileKey, map, x, y, zoom)){
 				return null;
 			}
+			String tileId = calculateTileId(map, x, y, zoom);
 			String url = loadFromInternetIfNeeded ? map.getUrlToLoad(x, y, zoom) : null;
 			File toSave = null;
 			if (url != null) {
@@ -411,14 +559,14 @@ public class ResourceManager {
 				}
 			}
 			TileLoadDownloadRequest req = new TileLoadDownloadRequest(dirWithTiles, url, toSave, 
-					tileId, map, x, y, zoom, map.getReferer());
+					tileId, tileKey, map, x, y, zoom, map.getReferer());
 			if(sync){
 				return getRequestedImageTile(req);
 			} else {
 				asyncLoadingThread.requestToLoadImage(req);
 			}
 		}
-		return cacheOfImages.get(tileId);
+		return cacheOfImages.get(tileKey);
 	}
 	
 	
@@ -427,13 +575,10 @@ public class ResourceManager {
 		if(req.tileId == null || req.dirWithTiles == null){
 			return null;
 		}
-		Bitmap cacheBmp = cacheOfImages.get(req.tileId);
+		Bitmap cacheBmp = cacheOfImages.get(req.tileKey);
 		if (cacheBmp != null) {
 			return cacheBmp;
 		}
-		if (cacheOfImages.size() > maxImgCacheSize) {
-			clearTiles();
-		}
 		if (req.dirWithTiles.canRead() && !asyncLoadingThread.isFileCurrentlyDownloaded(req.fileToSave)
 			&& !asyncLoadingThread.isFilePendingToDownload(req.fileToSave)) {
 			long time = System.currentTimeMillis();
@@ -441,10 +586,23 @@ public class ResourceManager {
 				log.debug("Start loaded file : " + req.tileId + " " + Thread.currentThread().getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			Bitmap bmp = null;
-			if (req.tileSource instanceof SQLiteTileSource) {
+			if (req.tileSource instanceof TilePackSource) {
+				try {
+					byte[] blob = req.tileSource.getBytes(req.xTile, req.yTile, req.zoom, null);
+					if (blob != null) {
+						bmp = SQLiteTileSource.decodeImage(blob, cacheOfImages.createDecodeOptions(req.tileSource.getTileSize()));
+					}
+				} catch (IOException e) {
+					log.warn("Tile " + req.tileId + " couldn't be read", e); //$NON-NLS-1$ //$NON-NLS-2$
+				} catch (OutOfMemoryError e) {
+					log.error("Out of memory error", e); //$NON-NLS-1$
+					clearTiles();
+				}
+			} else if (req.tileSource instanceof SQLiteTileSource) {
 				try {
 					long[] tm = new long[1];
-					bmp = ((SQLiteTileSource) req.tileSource).getImage(req.xTile, req.yTile, req.zoom, tm);
+					bmp = ((SQLiteTileSource) req.tileSource).getImage(req.xTile, req.yTile, req.zoom, tm,
+							cacheOfImages.createDecodeOptions(req.tileSource.getTileSize()));
 					if (tm[0] != 0) {
 						int ts = req.tileSource.getExpirationTimeMillis();
 						if (ts != -1 && req.url != null && time - tm[0] > ts) {
@@ -459,7 +617,7 @@ public class ResourceManager {
 				File en = new File(req.dirWithTiles, req.tileId);
 				if (en.exists()) {
 					try {
-						bmp = BitmapFactory.decodeFile(en.getAbsolutePath());
+						bmp = decodeTileFile(en, req.tileSource.getTileSize());
 						int ts = req.tileSource.getExpirationTimeMillis();
 						if(ts != -1 && req.url != null && time - en.lastModified() > ts) {
 							asyncLoadingThread.requestToDownload(req);
@@ -471,19 +629,73 @@ public class ResourceManager {
 				}
 			}
 
-			if (bmp != null) {
-				cacheOfImages.put(req.tileId, bmp);
+			if (bmp != null && isTileKeyValid(req)) {
+				cacheOfImages.put(req.tileKey, bmp, req.xTile, req.yTile, req.zoom);
 				if (log.isDebugEnabled()) {
-					log.debug("Loaded file : " + req.tileId + " " + -(time - System.currentTimeMillis()) + " ms " + cacheOfImages.size()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					log.debug("Loaded file : " + req.tileId + " " + -(time - System.currentTimeMillis()) + " ms " + cacheOfImages); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				}
 			}
 
-			if (cacheOfImages.get(req.tileId) == null && req.url != null) {
+			if (!cacheOfImages.contains(req.tileKey) && req.url != null) {
 				asyncLoadingThread.requestToDownload(req);
 			}
 
 		}
-		return cacheOfImages.get(req.tileId);
+		return cacheOfImages.get(req.tileKey);
+	}
+	
+	/**
+	 * Reads tiles of the rectangle (right & bottom are exclusive) missing in the cache with one query 
+	 * and puts decoded images into the cache. Expired tiles are skipped to be checked one by one.
+	 */
+	protected void loadSQLiteTiles(final SQLiteTileSource source, final int zoom, int left, int top, int right, int bottom) {
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+		for (int x = Math.max(left, 0); x < right; x++) {
+			for (int y = Math.max(top, 0); y < bottom; y++) {
+				if (!cacheOfImages.contains(calculateTileKey(source, x, y, zoom))) {
+					minX = Math.min(minX, x);
+					minY = Math.min(minY, y);
+					maxX = Math.max(maxX, x);
+					maxY = Math.max(maxY, y);
+				}
+			}
+		}
+		if (maxX < 0 || source.isLocked()) {
+			return;
+		}
+		final long time = System.currentTimeMillis();
+		final int expiration = source.getExpirationTimeMillis();
+		try {
+			source.getTilesBytes(zoom, minX, minY, maxX, maxY, new SQLiteTileSource.TileBytesVisitor() {
+				@Override
+				public void visitTile(int x, int y, byte[] blob, long tileTime) {
+					long tileKey = calculateTileKey(source, x, y, zoom);
+					if (cacheOfImages.contains(tileKey) || (expiration != -1 && tileTime != 0 && time - tileTime > expiration)) {
+						return;
+					}
+					imagesOnFS.put(tileKey, true);
+					Bitmap bmp = SQLiteTileSource.decodeImage(blob, cacheOfImages.createDecodeOptions(source.getTileSize()));
+					if (bmp != null) {
+						cacheOfImages.put(tileKey, bmp, x, y, zoom);
+					}
+				}
+			});
+		} catch (OutOfMemoryError e) {
+			log.error("Out of memory error", e); //$NON-NLS-1$
+			clearTiles();
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Loaded sqlite tiles : " + (System.currentTimeMillis() - time) + " ms " + cacheOfImages); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+	
+	private Bitmap decodeTileFile(File en, int tileSize) {
+		try {
+			return BitmapFactory.decodeFile(en.getAbsolutePath(), cacheOfImages.createDecodeOptions(tileSize));
+		} catch (IllegalArgumentException e) {
+			// reused bitmap doesn't fit
+			return BitmapFactory.decodeFile(en.getAbsolutePath());
+		}
 	}
 
 
@@ -1049,6 +1261,7 @@ public class ResourceManager {
 
 	public synchronized void close(){
 		imagesOnFS.clear();
+		closeTileExistenceIndexes();
 		indexFileNames.clear();
 		basemapFileNames.clear();
 		renderer.clearAllResources();
@@ -1072,6 +1285,23 @@ public class ResourceManager {
 		return readers.toArray(new BinaryMapIndexReader[readers.size()]);
 	}
 	
+	/**
+	 * Routing files for one of the threads calculating route legs in parallel
+	 * @param copy index of the thread, 0 - same readers as {@link #getRoutingMapFiles()}
+	 */
+	public BinaryMapIndexReader[] getRoutingMapFiles(int copy) {
+		List<BinaryMapIndexReader> readers = new ArrayList<>(fileReaders.size());
+		for(BinaryMapReaderResource r : fileReaders.values()) {
+			if(r.isUseForRouting()) {
+				BinaryMapIndexReader reader = r.getParallelRoutingReader(copy);
+				if(reader != null) {
+					readers.add(reader);
+				}
+			}
+		}
+		return readers.toArray(new BinaryMapIndexReader[readers.size()]);
+	}
+	
 	public BinaryMapIndexReader[] getQuickSearchFiles() {
 		List<BinaryMapIndexReader> readers = new ArrayList<>(fileReaders.size());
 		for(BinaryMapReaderResource r : fileReaders.values()) {
@@ -1119,14 +1349,16 @@ public class ResourceManager {
 		return map;
 	}
 	
-	public synchronized void reloadTilesFromFS(){
+	public void reloadTilesFromFS(){
 		imagesOnFS.clear();
+		// stored indexes are validated against the tile sources on next use
+		closeTileExistenceIndexes();
 	}
 	
 	/// On low memory method ///
 	public void onLowMemory() {
-		log.info("On low memory : cleaning tiles - size = " + cacheOfImages.size()); //$NON-NLS-1$
-		clearTiles();
+		log.info("On low memory : cleaning tiles - " + cacheOfImages); //$NON-NLS-1$
+		cacheOfImages.clear();
 		for(RegionAddressRepository r : addressMap.values()){
 			r.clearCache();
 		}
@@ -1144,13 +1376,10 @@ public class ResourceManager {
 	}
 	
 	
-	protected synchronized void clearTiles() {
-		log.info("Cleaning tiles - size = " + cacheOfImages.size()); //$NON-NLS-1$
-		ArrayList<String> list = new ArrayList<String>(cacheOfImages.keySet());
-		// remove first images (as we think they are older)
-		for (int i = 0; i < list.size() / 2; i++) {
-			cacheOfImages.remove(list.get(i));
-		}
+	protected void clearTiles() {
+		log.info("Cleaning tiles - " + cacheOfImages); //$NON-NLS-1$
+		// remove half of images furthest from the visible area
+		cacheOfImages.trimToSize(cacheOfImages.getSizeBytes() / 2);
 	}
 	
 	public IncrementalChangesManager getChangesManager() {
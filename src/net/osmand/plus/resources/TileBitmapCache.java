@@ -0,0 +1,431 @@
+package net.osmand.plus.resources;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Cache of decoded tile images bounded by the total size of bitmaps.
+ * When the cache overflows the tiles furthest from the visible area are evicted first
+ * (least recently used among tiles with the same distance). Tiles are identified by keys 
+ * from {@link ResourceManager#calculateTileKey}. Visible area is tracked per drawing layer, parent tiles drawn
+ * for overzoom count as visible.
+ * Evicted bitmaps are kept in a small pool bucketed by size and reused to decode new tiles
+ * ({@link BitmapFactory.Options#inBitmap}). Bitmaps returned by {@link #get} could be drawn till the end
+ * of the drawing, so bitmaps evicted while a layer draws are pooled only when all drawings are finished
+ * (see {@link #startDrawing()}).
+ * 
+ * Cache is split into segments with own locks so the drawing thread, loader workers 
+ * and downloader callbacks don't contend on a single monitor. Size limit and eviction order are global :
+ * eviction takes tiles of all segments under its own lock.
+ */
+public class TileBitmapCache {
+
+	private static final int SEGMENTS = 8;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final AtomicLong accessTime = new AtomicLong();
+	private final Object evictionLock = new Object();
+	private final Map<Integer, ArrayDeque<Bitmap>> reusePool = new LinkedHashMap<Integer, ArrayDeque<Bitmap>>();
+	private volatile long maxBytes;
+	private long maxPoolBytes;
+	private long poolBytes;
+	// guarded by reusePool : drawings in progress and bitmaps evicted during them
+	private int activeDrawings;
+	private final List<Bitmap> retiredBitmaps = new ArrayList<Bitmap>();
+
+	// visible tiles of layers (zoom, left, top, right, bottom), copied on write
+	private volatile Map<Object, int[]> visibleTiles = Collections.emptyMap();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong reuseCount = new AtomicLong();
+
+	private static class CacheEntry {
+		final long tileKey;
+		final Bitmap bitmap;
+		final int bytes;
+		final int x;
+		final int y;
+		final int zoom;
+		volatile long lastAccess;
+		// snapshot of the order for eviction (entries are accessed while sorted)
+		long evictionAccess;
+		double distance;
+
+		CacheEntry(long tileKey, Bitmap bitmap, int x, int y, int zoom) {
+			this.tileKey = tileKey;
+			this.bitmap = bitmap;
+			this.bytes = getBitmapBytes(bitmap);
+			this.x = x;
+			this.y = y;
+			this.zoom = zoom;
+		}
+	}
+
+	private static final Comparator<CacheEntry> DISTANCE_COMPARATOR = new Comparator<CacheEntry>() {
+		@Override
+		public int compare(CacheEntry lhs, CacheEntry rhs) {
+			int c = Double.compare(rhs.distance, lhs.distance);
+			if (c == 0) {
+				// least recently used first
+				return lhs.evictionAccess < rhs.evictionAccess ? -1 : (lhs.evictionAccess == rhs.evictionAccess ? 0 : 1);
+			}
+			return c;
+		}
+	};
+
+	private class Segment {
+		private final TLongObjectHashMap<CacheEntry> entries = new TLongObjectHashMap<CacheEntry>();
+		private long currentBytes;
+
+		synchronized CacheEntry get(long tileKey) {
+			CacheEntry e = entries.get(tileKey);
+			if (e != null) {
+				e.lastAccess = accessTime.incrementAndGet();
+			}
+			return e;
+		}
+
+		synchronized boolean contains(long tileKey) {
+			return entries.containsKey(tileKey);
+		}
+
+		synchronized void put(CacheEntry e) {
+			e.lastAccess = accessTime.incrementAndGet();
+			CacheEntry prev = entries.put(e.tileKey, e);
+			if (prev != null) {
+				currentBytes -= prev.bytes;
+				totalBytes.addAndGet(-prev.bytes);
+			}
+			currentBytes += e.bytes;
+			totalBytes.addAndGet(e.bytes);
+		}
+
+		synchronized void remove(long tileKey) {
+			CacheEntry e = entries.remove(tileKey);
+			if (e != null) {
+				currentBytes -= e.bytes;
+				totalBytes.addAndGet(-e.bytes);
+			}
+		}
+
+		/**
+		 * @return false if the entry was already replaced or removed
+		 */
+		synchronized boolean remove(CacheEntry e) {
+			if (entries.get(e.tileKey) != e) {
+				return false;
+			}
+			entries.remove(e.tileKey);
+			currentBytes -= e.bytes;
+			totalBytes.addAndGet(-e.bytes);
+			return true;
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			totalBytes.addAndGet(-currentBytes);
+			currentBytes = 0;
+		}
+
+		synchronized void collectEntries(List<CacheEntry> list) {
+			list.addAll(entries.valueCollection());
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+	}
+
+	public TileBitmapCache(long maxBytes) {
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+		setMaxBytes(maxBytes);
+	}
+
+	private Segment getSegment(long tileKey) {
+		int h = (int) (tileKey ^ (tileKey >>> 32));
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % SEGMENTS];
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		synchronized (reusePool) {
+			this.maxPoolBytes = maxBytes / 8;
+		}
+		trimToSize(maxBytes);
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getSizeBytes() {
+		return totalBytes.get();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			size += s.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Sets visible tiles of the layer (right & bottom are exclusive)
+	 */
+	public synchronized void setVisibleTiles(Object layer, int zoom, int left, int top, int right, int bottom) {
+		int[] v = visibleTiles.get(layer);
+		if (v == null || v[0] != zoom || v[1] != left || v[2] != top || v[3] != right || v[4] != bottom) {
+			Map<Object, int[]> m = new HashMap<Object, int[]>(visibleTiles);
+			m.put(layer, new int[] { zoom, left, top, right, bottom });
+			visibleTiles = m;
+		}
+	}
+
+	public synchronized void removeVisibleTiles(Object layer) {
+		if (visibleTiles.containsKey(layer)) {
+			Map<Object, int[]> m = new HashMap<Object, int[]>(visibleTiles);
+			m.remove(layer);
+			visibleTiles = m;
+		}
+	}
+
+	/**
+	 * Should be called before bitmaps are requested for drawing and paired with {@link #finishDrawing()}
+	 */
+	public void startDrawing() {
+		synchronized (reusePool) {
+			activeDrawings++;
+		}
+	}
+
+	/**
+	 * Bitmaps evicted during the drawings are given to the reuse pool when the last drawing is finished
+	 */
+	public void finishDrawing() {
+		synchronized (reusePool) {
+			activeDrawings--;
+			if (activeDrawings == 0) {
+				for (Bitmap bmp : retiredBitmaps) {
+					putToReusePoolLocked(bmp, getBitmapBytes(bmp));
+				}
+				retiredBitmaps.clear();
+			}
+		}
+	}
+
+	public Bitmap get(long tileKey) {
+		CacheEntry e = getSegment(tileKey).get(tileKey);
+		if (e == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return e.bitmap;
+	}
+
+	/**
+	 * Doesn't update access order and statistics
+	 */
+	public boolean contains(long tileKey) {
+		return getSegment(tileKey).contains(tileKey);
+	}
+
+	public void put(long tileKey, Bitmap bmp, int x, int y, int zoom) {
+		getSegment(tileKey).put(new CacheEntry(tileKey, bmp, x, y, zoom));
+		if (totalBytes.get() > maxBytes) {
+			trimToSize(maxBytes);
+		}
+	}
+
+	public void remove(long tileKey) {
+		getSegment(tileKey).remove(tileKey);
+	}
+
+	public void clear() {
+		for (Segment s : segments) {
+			s.clear();
+		}
+		synchronized (reusePool) {
+			reusePool.clear();
+			retiredBitmaps.clear();
+			poolBytes = 0;
+		}
+	}
+
+	/**
+	 * Evicts tiles furthest from the visible area till cache size is less than the limit
+	 */
+	public void trimToSize(long limit) {
+		synchronized (evictionLock) {
+			if (totalBytes.get() <= limit) {
+				return;
+			}
+			List<CacheEntry> list = new ArrayList<CacheEntry>();
+			for (Segment s : segments) {
+				s.collectEntries(list);
+			}
+			Collection<int[]> visible = visibleTiles.values();
+			for (CacheEntry e : list) {
+				e.distance = getDistanceToVisibleArea(e, visible);
+				e.evictionAccess = e.lastAccess;
+			}
+			Collections.sort(list, DISTANCE_COMPARATOR);
+			for (int i = 0; i < list.size() && totalBytes.get() > limit; i++) {
+				CacheEntry e = list.get(i);
+				if (getSegment(e.tileKey).remove(e)) {
+					evictionCount.incrementAndGet();
+					retireBitmap(e.bitmap);
+				}
+			}
+		}
+	}
+
+	private static double getDistanceToVisibleArea(CacheEntry e, Collection<int[]> visibleAreas) {
+		if (visibleAreas.isEmpty()) {
+			return 0;
+		}
+		double distance = Double.POSITIVE_INFINITY;
+		for (int[] visible : visibleAreas) {
+			int visibleZoom = visible[0];
+			// tile bounds in tiles of visible zoom
+			double scale = Math.pow(2, visibleZoom - e.zoom);
+			double left = e.x * scale;
+			double top = e.y * scale;
+			double dx = Math.max(0, Math.max(visible[1] - (left + scale), left - visible[3]));
+			double dy = Math.max(0, Math.max(visible[2] - (top + scale), top - visible[4]));
+			// parent tiles covering visible area are drawn for overzoom, so only children are further
+			int zoomDistance = Math.max(0, e.zoom - visibleZoom);
+			distance = Math.min(distance, Math.sqrt(dx * dx + dy * dy) + zoomDistance);
+		}
+		return distance;
+	}
+
+	private void retireBitmap(Bitmap bmp) {
+		if (!isReuseSupported() || !bmp.isMutable() || bmp.isRecycled()) {
+			return;
+		}
+		synchronized (reusePool) {
+			if (activeDrawings > 0) {
+				// could be still drawn
+				retiredBitmaps.add(bmp);
+			} else {
+				putToReusePoolLocked(bmp, getBitmapBytes(bmp));
+			}
+		}
+	}
+
+	private void putToReusePoolLocked(Bitmap bmp, int bytes) {
+		if (bytes > maxPoolBytes) {
+			return;
+		}
+		while (poolBytes + bytes > maxPoolBytes && !reusePool.isEmpty()) {
+			// drop from the eldest bucket
+			Iterator<ArrayDeque<Bitmap>> it = reusePool.values().iterator();
+			ArrayDeque<Bitmap> bucket = it.next();
+			Bitmap dropped = bucket.pollLast();
+			if (dropped != null) {
+				poolBytes -= getBitmapBytes(dropped);
+			}
+			if (bucket.isEmpty()) {
+				it.remove();
+			}
+		}
+		ArrayDeque<Bitmap> bucket = reusePool.get(bytes);
+		if (bucket == null) {
+			bucket = new ArrayDeque<Bitmap>();
+			reusePool.put(bytes, bucket);
+		}
+		bucket.push(bmp);
+		poolBytes += bytes;
+	}
+
+	/**
+	 * Prepares options to decode tile of given size reusing bitmap from the pool if possible
+	 */
+	public BitmapFactory.Options createDecodeOptions(int tileSize) {
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		if (isReuseSupported()) {
+			opts.inMutable = true;
+			// tiles are decoded to ARGB_8888 by default
+			opts.inBitmap = pollReusableBitmap(tileSize * tileSize * 4, tileSize);
+		}
+		return opts;
+	}
+
+	private Bitmap pollReusableBitmap(int bytes, int tileSize) {
+		Bitmap bmp;
+		synchronized (reusePool) {
+			ArrayDeque<Bitmap> bucket = reusePool.get(bytes);
+			if (bucket == null) {
+				return null;
+			}
+			bmp = bucket.poll();
+			if (bucket.isEmpty()) {
+				reusePool.remove(bytes);
+			}
+			if (bmp == null) {
+				return null;
+			}
+			poolBytes -= bytes;
+		}
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT
+				&& (bmp.getWidth() != tileSize || bmp.getHeight() != tileSize)) {
+			// before KitKat only bitmaps of the same size could be reused
+			return null;
+		}
+		reuseCount.incrementAndGet();
+		return bmp;
+	}
+
+	private static boolean isReuseSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+	}
+
+	private static int getBitmapBytes(Bitmap bmp) {
+		return bmp.getRowBytes() * bmp.getHeight();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getReuseCount() {
+		return reuseCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Tiles " + size() + " (" + (getSizeBytes() >> 10) + " / " + (maxBytes >> 10) + " KB), hits "
+				+ hitCount + ", misses " + missCount + ", evictions " + evictionCount + ", reused " + reuseCount;
+	}
+}
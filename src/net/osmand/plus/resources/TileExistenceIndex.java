@@ -0,0 +1,412 @@
+package net.osmand.plus.resources;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import net.osmand.PlatformUtil;
+import net.osmand.plus.SQLiteTileSource;
+import net.osmand.plus.SQLiteTileSource.TileVisitor;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Bloom filter of tiles stored by a tile source (tiles directory or sqlitedb file).
+ * It is built once in background by scanning the source and stored next to it, so checks
+ * of missing tiles (especially overzoom parents) become a bit test instead of file system or sql query.
+ * <p>
+ * The filter gives only false positives : if it says that tile is absent there is no tile,
+ * otherwise tile should be checked in the source. Downloaded tiles are added incrementally,
+ * deleted tiles stay as false positives till the index is rebuilt.
+ * Stored index is valid while the source is not modified outside of the application
+ * (sqlite tiles count & table definition, modification times of tile directories).
+ */
+public class TileExistenceIndex {
+
+	private static final Log log = PlatformUtil.getLog(TileExistenceIndex.class);
+
+	private static final int MAGIC = 0x7e1e1d;
+	private static final int VERSION = 2;
+	private static final int BITS_PER_TILE = 10;
+	private static final int HASHES = 7;
+	private static final int MIN_CAPACITY = 1 << 14;
+	private static final String TILE_EXT = ".tile"; //$NON-NLS-1$
+	public static final String INDEX_EXT = ".idx"; //$NON-NLS-1$
+	private static final String DIR_INDEX_FILE = ".tiles" + INDEX_EXT; //$NON-NLS-1$
+
+	private static final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Tile existence index saver"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final SQLiteTileSource sqliteSource;
+	private final File tilesDir;
+	private final File indexFile;
+
+	private long[] bits;
+	private long numBits;
+	private int capacity;
+	private int count;
+	// tiles downloaded while source is scanned before the filter is allocated
+	private TLongArrayList pending;
+	private boolean building;
+	private boolean dirty;
+	private volatile boolean ready;
+
+	private TileExistenceIndex(SQLiteTileSource sqliteSource, File tilesDir, File indexFile) {
+		this.sqliteSource = sqliteSource;
+		this.tilesDir = tilesDir;
+		this.indexFile = indexFile;
+	}
+
+	public static TileExistenceIndex forSQLiteSource(SQLiteTileSource source) {
+		File f = source.getFile();
+		if (f == null) {
+			return null;
+		}
+		return new TileExistenceIndex(source, null, new File(f.getParentFile(), f.getName() + INDEX_EXT));
+	}
+
+	public static TileExistenceIndex forTilesDirectory(File tilesDir) {
+		return new TileExistenceIndex(null, tilesDir, new File(tilesDir, DIR_INDEX_FILE));
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @return false only if tile doesn't exist for sure (true if index is not ready)
+	 */
+	public boolean mightContain(int x, int y, int zoom) {
+		long[] bits = this.bits;
+		if (!ready || bits == null) {
+			return true;
+		}
+		long key = encode(x, y, zoom);
+		long h1 = mix(key);
+		long h2 = mix(h1 ^ key) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public synchronized void add(int x, int y, int zoom) {
+		addKey(encode(x, y, zoom));
+	}
+
+	private void addKey(long key) {
+		if (bits == null) {
+			if (building) {
+				pending.add(key);
+			}
+			return;
+		}
+		long h1 = mix(key);
+		long h2 = mix(h1 ^ key) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+		count++;
+		dirty = true;
+	}
+
+	/**
+	 * Too many tiles were added since the index was built, false positives become frequent
+	 */
+	public synchronized boolean isOverfilled() {
+		return ready && count > capacity;
+	}
+
+	public synchronized boolean isBuilding() {
+		return building;
+	}
+
+	private synchronized void startBuild() {
+		building = true;
+		ready = false;
+		bits = null;
+		pending = new TLongArrayList();
+	}
+
+	private synchronized void allocate(int expectedTiles) {
+		capacity = Math.max(MIN_CAPACITY, expectedTiles * 2);
+		numBits = (long) capacity * BITS_PER_TILE;
+		bits = new long[(int) ((numBits + 63) >>> 6)];
+		count = 0;
+		for (int i = 0; i < pending.size(); i++) {
+			addKey(pending.get(i));
+		}
+		pending = null;
+	}
+
+	private synchronized void finishBuild(boolean success) {
+		building = false;
+		pending = null;
+		ready = success;
+		dirty = success;
+		if (!success) {
+			bits = null;
+		}
+	}
+
+	/**
+	 * Loads stored index or scans the source in a background thread
+	 */
+	public void loadOrBuildAsync() {
+		synchronized (this) {
+			if (building) {
+				return;
+			}
+			startBuild();
+		}
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				boolean success = false;
+				try {
+					success = load() || build();
+				} catch (RuntimeException e) {
+					log.error(e, e);
+				} catch (OutOfMemoryError e) {
+					log.error("Out of memory error", e); //$NON-NLS-1$
+				} finally {
+					finishBuild(success);
+				}
+				if (success) {
+					save();
+				}
+			}
+		}, "Tile existence index").start(); //$NON-NLS-1$
+	}
+
+	private boolean load() {
+		if (!indexFile.exists()) {
+			return false;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != calculateSourceStamp()) {
+				return false;
+			}
+			int cap = in.readInt();
+			int cnt = in.readInt();
+			long[] bs = new long[in.readInt()];
+			for (int i = 0; i < bs.length; i++) {
+				bs[i] = in.readLong();
+			}
+			synchronized (this) {
+				this.capacity = cap;
+				this.numBits = (long) cap * BITS_PER_TILE;
+				this.bits = bs;
+				this.count = cnt;
+				for (int i = 0; i < pending.size(); i++) {
+					addKey(pending.get(i));
+				}
+				pending = null;
+			}
+			return true;
+		} catch (IOException e) {
+			log.warn("Tile index " + indexFile.getName() + " couldn't be read", e); //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+		} finally {
+			Algorithms.closeStream(in);
+		}
+	}
+
+	private boolean build() {
+		long time = System.currentTimeMillis();
+		if (sqliteSource != null) {
+			allocate(sqliteSource.getTilesCount());
+			boolean read = sqliteSource.visitTiles(new TileVisitor() {
+				@Override
+				public void visitTile(int x, int y, int zoom) {
+					add(x, y, zoom);
+				}
+			});
+			if (!read) {
+				return false;
+			}
+		} else {
+			TLongArrayList keys = new TLongArrayList();
+			scanTilesDirectory(keys);
+			synchronized (this) {
+				allocate(keys.size());
+				for (int i = 0; i < keys.size(); i++) {
+					addKey(keys.get(i));
+				}
+			}
+		}
+		log.info("Tile index " + indexFile.getName() + " built for " + (System.currentTimeMillis() - time) //$NON-NLS-1$ //$NON-NLS-2$
+				+ " ms : " + count + " tiles"); //$NON-NLS-1$ //$NON-NLS-2$
+		return true;
+	}
+
+	private void scanTilesDirectory(TLongArrayList keys) {
+		File[] zooms = tilesDir.listFiles();
+		if (zooms == null) {
+			return;
+		}
+		for (File zf : zooms) {
+			int zoom = parseInt(zf.getName());
+			File[] xs = zoom >= 0 && zf.isDirectory() ? zf.listFiles() : null;
+			if (xs == null) {
+				continue;
+			}
+			for (File xf : xs) {
+				int x = parseInt(xf.getName());
+				String[] ys = x >= 0 ? xf.list() : null;
+				if (ys == null) {
+					continue;
+				}
+				for (String yf : ys) {
+					if (yf.endsWith(TILE_EXT)) {
+						int y = parseInt(yf.substring(0, yf.indexOf('.')));
+						if (y >= 0) {
+							keys.add(encode(x, y, zoom));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves index in a background thread if it was modified
+	 */
+	public void saveAsync() {
+		saveExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				save();
+			}
+		});
+	}
+
+	/**
+	 * Saves index if it was modified
+	 */
+	public void save() {
+		long[] bs;
+		int cap;
+		int cnt;
+		synchronized (this) {
+			if (!ready || !dirty) {
+				return;
+			}
+		}
+		// stamp is taken before the bits are copied, so tiles written meanwhile make the source
+		// not match the stamp instead of being missed by the stored index
+		long stamp = calculateSourceStamp();
+		synchronized (this) {
+			if (!ready) {
+				return;
+			}
+			dirty = false;
+			bs = bits.clone();
+			cap = capacity;
+			cnt = count;
+		}
+		// index of the same source could be loaded meanwhile, so it is replaced only when completely written
+		File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = null;
+		boolean written = false;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(stamp);
+			out.writeInt(cap);
+			out.writeInt(cnt);
+			out.writeInt(bs.length);
+			for (long l : bs) {
+				out.writeLong(l);
+			}
+			out.close();
+			out = null;
+			written = true;
+		} catch (IOException e) {
+			log.warn("Tile index " + indexFile.getName() + " couldn't be saved", e); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			Algorithms.closeStream(out);
+		}
+		if (!written || !tmpFile.renameTo(indexFile)) {
+			tmpFile.delete();
+			indexFile.delete();
+		}
+	}
+
+	private long calculateSourceStamp() {
+		if (sqliteSource != null) {
+			// file size & modification time are changed by own downloads as well
+			String schema = sqliteSource.getTilesTableSchema();
+			return sqliteSource.getTilesCount() * 31L + (schema == null ? 0 : schema.hashCode());
+		}
+		// files added or deleted change modification time of the parent directory
+		long stamp = 0;
+		File[] zooms = tilesDir.listFiles();
+		if (zooms != null) {
+			for (File zf : zooms) {
+				if (zf.isDirectory()) {
+					stamp = stamp * 31 + zf.getName().hashCode() + zf.lastModified();
+					File[] xs = zf.listFiles();
+					if (xs != null) {
+						for (File xf : xs) {
+							stamp = stamp * 31 + xf.getName().hashCode() + xf.lastModified();
+						}
+					}
+				}
+			}
+		}
+		return stamp;
+	}
+
+	private static int parseInt(String s) {
+		if (s.length() == 0 || s.length() > 9) {
+			return -1;
+		}
+		int r = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			r = r * 10 + (c - '0');
+		}
+		return r;
+	}
+
+	private static long encode(int x, int y, int zoom) {
+		return ((long) zoom << 58) | ((long) (x & 0x1fffffff) << 29) | (y & 0x1fffffff);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,67 @@
+package net.osmand.plus.resources;
+
+import gnu.trove.map.hash.TLongByteHashMap;
+
+/**
+ * Remembers which tiles (by key from {@link ResourceManager#calculateTileKey}) exist on the file system.
+ * Split into segments with own locks, file system checks are done by callers outside of them.
+ */
+class TileExistenceMap {
+
+	static final byte UNKNOWN = 0;
+	static final byte EXISTS = 1;
+	static final byte MISSING = 2;
+
+	private static final int SEGMENTS = 8;
+
+	private final TLongByteHashMap[] segments = new TLongByteHashMap[SEGMENTS];
+
+	TileExistenceMap() {
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new TLongByteHashMap();
+		}
+	}
+
+	private TLongByteHashMap getSegment(long tileKey) {
+		int h = (int) (tileKey ^ (tileKey >>> 32));
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % SEGMENTS];
+	}
+
+	byte get(long tileKey) {
+		TLongByteHashMap s = getSegment(tileKey);
+		synchronized (s) {
+			// no entry value is 0 (UNKNOWN)
+			return s.get(tileKey);
+		}
+	}
+
+	void put(long tileKey, boolean exists) {
+		TLongByteHashMap s = getSegment(tileKey);
+		synchronized (s) {
+			s.put(tileKey, exists ? EXISTS : MISSING);
+		}
+	}
+
+	/**
+	 * Stores result of a file system check unless the tile was marked as existing meanwhile (downloaded)
+	 */
+	boolean putChecked(long tileKey, boolean exists) {
+		TLongByteHashMap s = getSegment(tileKey);
+		synchronized (s) {
+			if (s.get(tileKey) == EXISTS) {
+				return true;
+			}
+			s.put(tileKey, exists ? EXISTS : MISSING);
+			return exists;
+		}
+	}
+
+	void clear() {
+		for (TLongByteHashMap s : segments) {
+			synchronized (s) {
+				s.clear();
+			}
+		}
+	}
+}
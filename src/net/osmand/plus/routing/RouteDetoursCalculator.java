@@ -0,0 +1,208 @@
+package net.osmand.plus.routing;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.Location;
+import net.osmand.PlatformUtil;
+import net.osmand.data.LatLon;
+import net.osmand.plus.ApplicationMode;
+import net.osmand.plus.OsmandApplication;
+import net.osmand.plus.OsmandSettings;
+import net.osmand.plus.routing.RouteProvider.RouteService;
+import net.osmand.router.RouteCalculationProgress;
+import net.osmand.router.TurnType;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Speculative calculation of detours while the route is followed. For the next junctions ahead the route is
+ * calculated from the point where the driver gets if the turn is missed (straight on in the incoming direction).
+ * Calculation reuses the current route (only start point is changed) and runs one at a time in a low priority thread.
+ * When deviation happens near such junction the detour replaces the route without waiting for recalculation.
+ */
+class RouteDetoursCalculator {
+
+	private static final Log log = PlatformUtil.getLog(RouteDetoursCalculator.class);
+
+	private static final int MAX_JUNCTIONS_AHEAD = 3;
+	private static final int MAX_DISTANCE_AHEAD = 3000;
+	// distance from the junction to the start of the detour
+	private static final int DETOUR_START_DISTANCE = 50;
+	// first points of the detour where the driver is looked for
+	private static final int DETOUR_MATCH_POINTS = 20;
+	private static final double METERS_IN_DEGREE = 111320;
+
+	private final OsmandApplication app;
+	private final RouteProvider provider;
+
+	private RouteCalculationResult route;
+	private int intermediatesToPass;
+	// detours of the route by index of the junction point
+	private final TIntObjectHashMap<RouteCalculationResult> detours = new TIntObjectHashMap<RouteCalculationResult>();
+	// junctions whose detours were calculated (successfully or not)
+	private final TIntHashSet processed = new TIntHashSet();
+	private Thread job;
+	private RouteCalculationParams jobParams;
+
+	RouteDetoursCalculator(OsmandApplication app, RouteProvider provider) {
+		this.app = app;
+		this.provider = provider;
+	}
+
+	/**
+	 * Starts calculation of the next missing detour of the followed route
+	 */
+	synchronized void update(RouteCalculationResult route, LatLon end, List<LatLon> intermediates,
+			ApplicationMode mode) {
+		if (this.route != route || intermediatesToPass != route.getIntermediatePointsToPass()) {
+			stop();
+			detours.clear();
+			processed.clear();
+			this.route = route;
+			this.intermediatesToPass = route.getIntermediatePointsToPass();
+		}
+		// junctions already passed
+		TIntObjectIterator<RouteCalculationResult> it = detours.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			if (it.key() < route.getCurrentRoute()) {
+				it.remove();
+			}
+		}
+		if (job != null || end == null) {
+			return;
+		}
+		int junction = getNextJunction(route);
+		if (junction > 0) {
+			processed.add(junction);
+			List<Location> routeNodes = route.getImmutableAllLocations();
+			Location start = getDetourStart(routeNodes.get(junction - 1), routeNodes.get(junction));
+			startJob(route, junction, createParams(route, start, end, intermediates, mode));
+		}
+	}
+
+	/**
+	 * Stops calculation (the readers of maps are shared with the main route calculation)
+	 * @return the thread which should be finished before the next route calculation or null
+	 */
+	synchronized Thread stop() {
+		Thread t = job;
+		if (jobParams != null) {
+			jobParams.calculationProgress.isCancelled = true;
+		}
+		job = null;
+		jobParams = null;
+		return t;
+	}
+
+	/**
+	 * @return detour going near the location in the direction of movement, null if there is no such one
+	 */
+	synchronized RouteCalculationResult takeDetour(Location location, double maxDistance) {
+		RouteCalculationResult best = null;
+		double bestDist = maxDistance;
+		TIntObjectIterator<RouteCalculationResult> it = detours.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			List<Location> locations = it.value().getImmutableAllLocations();
+			int last = Math.min(locations.size(), DETOUR_MATCH_POINTS);
+			for (int i = 1; i < last; i++) {
+				Location from = locations.get(i - 1);
+				Location to = locations.get(i);
+				double dist = MapUtils.getOrthogonalDistance(location.getLatitude(), location.getLongitude(),
+						from.getLatitude(), from.getLongitude(), to.getLatitude(), to.getLongitude());
+				if (dist <= bestDist && (!location.hasBearing()
+						|| Math.abs(MapUtils.degreesDiff(location.getBearing(), from.bearingTo(to))) < 90)) {
+					best = it.value();
+					bestDist = dist;
+				}
+			}
+		}
+		if (best != null) {
+			detours.clear();
+			processed.clear();
+			route = null;
+		}
+		return best;
+	}
+
+	private int getNextJunction(RouteCalculationResult route) {
+		int currentRoute = route.getCurrentRoute();
+		int junctions = 0;
+		for (RouteDirectionInfo info : route.getImmutableAllDirections()) {
+			int point = info.routePointOffset;
+			TurnType turnType = info.getTurnType();
+			if (point <= currentRoute || turnType == null || turnType.getValue() == TurnType.C
+					|| turnType.isSkipToSpeak()) {
+				continue;
+			}
+			if (route.getDistanceToPoint(point) > MAX_DISTANCE_AHEAD || junctions >= MAX_JUNCTIONS_AHEAD) {
+				break;
+			}
+			if (!processed.contains(point)) {
+				return point;
+			}
+			junctions++;
+		}
+		return -1;
+	}
+
+	private static Location getDetourStart(Location from, Location junction) {
+		float bearing = from.bearingTo(junction);
+		double rad = Math.toRadians(bearing);
+		Location start = new Location(junction);
+		start.setLatitude(junction.getLatitude() + DETOUR_START_DISTANCE * Math.cos(rad) / METERS_IN_DEGREE);
+		start.setLongitude(junction.getLongitude() + DETOUR_START_DISTANCE * Math.sin(rad)
+				/ (METERS_IN_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(junction.getLatitude())))));
+		start.setBearing(bearing);
+		return start;
+	}
+
+	private RouteCalculationParams createParams(RouteCalculationResult route, Location start, LatLon end,
+			List<LatLon> intermediates, ApplicationMode mode) {
+		OsmandSettings settings = app.getSettings();
+		RouteCalculationParams params = new RouteCalculationParams();
+		params.start = start;
+		params.end = end;
+		params.intermediates = intermediates == null ? null : new ArrayList<LatLon>(intermediates);
+		// router continues with the rest of the current route as soon as it is reached
+		params.previousToRecalculate = route;
+		params.onlyStartPointChanged = true;
+		params.leftSide = settings.DRIVING_REGION.get().leftHandDriving;
+		params.fast = settings.FAST_ROUTE_MODE.getModeValue(mode);
+		params.type = RouteService.OSMAND;
+		params.mode = mode;
+		params.ctx = app;
+		params.calculationProgress = new RouteCalculationProgress();
+		return params;
+	}
+
+	private void startJob(final RouteCalculationResult route, final int junction, final RouteCalculationParams params) {
+		jobParams = params;
+		job = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				RouteCalculationResult res = provider.calculateRouteImpl(params);
+				synchronized (RouteDetoursCalculator.this) {
+					if (!params.calculationProgress.isCancelled && res.isCalculated()
+							&& RouteDetoursCalculator.this.route == route) {
+						detours.put(junction, res);
+						log.info("Detour calculated for junction " + junction); //$NON-NLS-1$
+					}
+					if (jobParams == params) {
+						job = null;
+						jobParams = null;
+					}
+				}
+			}
+		}, "Calculating route detour"); //$NON-NLS-1$
+		job.setPriority(Thread.MIN_PRIORITY);
+		job.start();
+	}
+}
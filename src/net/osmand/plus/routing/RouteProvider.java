@@ -15,6 +15,15 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -48,6 +57,7 @@ import net.osmand.router.GeneralRouter.GeneralRouterProfile;
 import net.osmand.router.GeneralRouter.RoutingParameter;
 import net.osmand.router.GeneralRouter.RoutingParameterType;
 import net.osmand.router.PrecalculatedRouteDirection;
+import net.osmand.router.RouteCalculationProgress;
 import net.osmand.router.RoutePlannerFrontEnd;
 import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
 import net.osmand.router.RouteSegmentResult;
@@ -78,6 +88,10 @@ import btools.routingapp.IBRouterService;
 public class RouteProvider {
 	private static final org.apache.commons.logging.Log log = PlatformUtil.getLog(RouteProvider.class);
 	private static final String OSMAND_ROUTER = "OsmAndRouter";
+	// route legs between intermediate points calculated at the same time
+	private static final int MAX_PARALLEL_LEGS = 4;
+	private static final long LEGS_PROGRESS_INTERVAL = 200;
+	private static final long LEGS_STOP_WARNING_INTERVAL = 10000;
 
 	public enum RouteService {
 			OSMAND("OsmAnd (offline)"), YOURS("YOURS"), 
@@ -260,8 +274,8 @@ public class RouteProvider {
 				if (!useIntermediatePointsRTE) {
 					for (Track tr : file.tracks) {
 						for (TrkSegment tkSeg : tr.segments) {
-							for (WptPt pt : tkSeg.points) {
-								points.add(createLocation(pt));
+							for (int i = 0; i < tkSeg.points.size(); i++) {
+								points.add(createLocation(tkSeg, i));
 							}
 						}
 					}
@@ -282,16 +296,25 @@ public class RouteProvider {
 	}
 
 	private static Location createLocation(WptPt pt){
+		return createLocation(pt.lat, pt.lon, pt.time, pt.ele, pt.speed, pt.hdop);
+	}
+
+	// values are read by index, so points of compact segments are not created
+	private static Location createLocation(TrkSegment ts, int i) {
+		return createLocation(ts.getLat(i), ts.getLon(i), ts.getTime(i), ts.getEle(i), ts.getSpeed(i), ts.getHdop(i));
+	}
+
+	private static Location createLocation(double lat, double lon, long time, double ele, double speed, double hdop) {
 		Location loc = new Location("OsmandRouteProvider");
-		loc.setLatitude(pt.lat);
-		loc.setLongitude(pt.lon);
-		loc.setSpeed((float) pt.speed);
-		if(!Double.isNaN(pt.ele)) {
-			loc.setAltitude(pt.ele);
+		loc.setLatitude(lat);
+		loc.setLongitude(lon);
+		loc.setSpeed((float) speed);
+		if(!Double.isNaN(ele)) {
+			loc.setAltitude(ele);
 		}
-		loc.setTime(pt.time);
-		if(!Double.isNaN(pt.hdop)) {
-			loc.setAccuracy((float) pt.hdop);
+		loc.setTime(time);
+		if(!Double.isNaN(hdop)) {
+			loc.setAccuracy((float) hdop);
 		}
 		return loc;
 	}
@@ -685,16 +708,22 @@ public class RouteProvider {
 		
 		params.ctx.getResourceManager().getRenderer().checkInitialized(15, lib, leftX, rightX, bottomY, topY);
 		
+		boolean complex = params.mode.isDerivedRoutingFrom(ApplicationMode.CAR) && !settings.DISABLE_COMPLEX_ROUTING.get()
+				&& precalculated == null;
+		boolean recalculation = params.previousToRecalculate != null && params.onlyStartPointChanged;
+		// native library reads shared map files, so only java router calculates legs in parallel
+		if (lib == null && settings.PARALLEL_ROUTE_LEGS.get() && params.intermediates != null
+				&& !params.intermediates.isEmpty() && precalculated == null && !recalculation) {
+			return calcOfflineRouteByLegs(params, config, settings, generalRouter, complex);
+		}
 		RoutingContext ctx = router.buildRoutingContext(cf,
 				lib, files, 
 				RouteCalculationMode.NORMAL);
 		
 		RoutingContext complexCtx = null;
-		boolean complex = params.mode.isDerivedRoutingFrom(ApplicationMode.CAR) && !settings.DISABLE_COMPLEX_ROUTING.get()
-				&& precalculated == null;
 		ctx.leftSideNavigation = params.leftSide;
 		ctx.calculationProgress = params.calculationProgress;
-		if(params.previousToRecalculate != null && params.onlyStartPointChanged) {
+		if(recalculation) {
 			int currentRoute = params.previousToRecalculate.getCurrentRoute();
 			List<RouteSegmentResult> originalRoute = params.previousToRecalculate.getOriginalRoute();
 			if(originalRoute != null && currentRoute < originalRoute.size()) {
@@ -723,6 +752,15 @@ public class RouteProvider {
 
 	private RoutingConfiguration initOsmAndRoutingConfig(Builder config, final RouteCalculationParams params, OsmandSettings settings,
 			GeneralRouter generalRouter) throws IOException, FileNotFoundException {
+		return initOsmAndRoutingConfig(config, params, settings, generalRouter, 1, true);
+	}
+
+	/**
+	 * @param memoryParts number of routing contexts sharing available memory
+	 * @param useBearing whether direction of the start location is used
+	 */
+	private RoutingConfiguration initOsmAndRoutingConfig(Builder config, final RouteCalculationParams params, OsmandSettings settings,
+			GeneralRouter generalRouter, int memoryParts, boolean useBearing) throws IOException, FileNotFoundException {
 		GeneralRouterProfile p ;
 		if (params.mode.isDerivedRoutingFrom(ApplicationMode.BICYCLE)) {
 			p = GeneralRouterProfile.BICYCLE;
@@ -756,10 +794,10 @@ public class RouteProvider {
 		float mb = (1 << 20);
 		Runtime rt = Runtime.getRuntime();
 		// make visible
-		int memoryLimit = (int) (0.95 * ((rt.maxMemory() - rt.totalMemory()) + rt.freeMemory()) / mb);
+		int memoryLimit = (int) (0.95 * ((rt.maxMemory() - rt.totalMemory()) + rt.freeMemory()) / mb / memoryParts);
 		log.warn("Use " + memoryLimit +  " MB Free " + rt.freeMemory() / mb + " of " + rt.totalMemory() / mb + " max " + rt.maxMemory() / mb);
 		
-		RoutingConfiguration cf = config.build(p.name().toLowerCase(), params.start.hasBearing() ? 
+		RoutingConfiguration cf = config.build(p.name().toLowerCase(), useBearing && params.start.hasBearing() ? 
 				params.start.getBearing() / 180d * Math.PI : null, 
 				memoryLimit, paramsR);
 		return cf;
@@ -828,6 +866,193 @@ public class RouteProvider {
 		}
 	}
 
+	/**
+	 * Calculates legs between start, intermediate points and end in parallel (each leg has own routing context,
+	 * map readers and part of memory) and joins them into one route.
+	 */
+	private RouteCalculationResult calcOfflineRouteByLegs(final RouteCalculationParams params, Builder config,
+			OsmandSettings settings, GeneralRouter generalRouter, final boolean complex) throws IOException {
+		List<LatLon> points = new ArrayList<LatLon>();
+		points.add(new LatLon(params.start.getLatitude(), params.start.getLongitude()));
+		points.addAll(params.intermediates);
+		points.add(new LatLon(params.end.getLatitude(), params.end.getLongitude()));
+		int legs = points.size() - 1;
+		int threads = Math.min(legs, Math.min(MAX_PARALLEL_LEGS, Runtime.getRuntime().availableProcessors()));
+		final boolean useFastRecalculation = settings.USE_FAST_RECALCULATION.get();
+		// readers are not thread safe, so every thread takes own set of them
+		final BlockingQueue<BinaryMapIndexReader[]> filesPool = new ArrayBlockingQueue<BinaryMapIndexReader[]>(threads);
+		for (int i = 0; i < threads; i++) {
+			filesPool.add(params.ctx.getResourceManager().getRoutingMapFiles(i));
+		}
+		final RouteCalculationProgress[] progress = new RouteCalculationProgress[legs];
+		final float[] routingTime = new float[legs];
+		List<Future<List<RouteSegmentResult>>> results = new ArrayList<Future<List<RouteSegmentResult>>>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int k = 0; k < legs; k++) {
+				// start direction is known only for the first leg
+				final RoutingConfiguration cf = initOsmAndRoutingConfig(config, params, settings, generalRouter, threads,
+						k == 0);
+				if (cf == null) {
+					return applicationModeNotSupported(params);
+				}
+				final int leg = k;
+				final LatLon st = points.get(k);
+				final LatLon en = points.get(k + 1);
+				progress[k] = new RouteCalculationProgress();
+				results.add(executor.submit(new Callable<List<RouteSegmentResult>>() {
+					@Override
+					public List<RouteSegmentResult> call() throws Exception {
+						BinaryMapIndexReader[] files = filesPool.take();
+						try {
+							RoutePlannerFrontEnd router = new RoutePlannerFrontEnd(false);
+							router.setUseFastRecalculation(useFastRecalculation);
+							RoutingContext ctx = buildLegContext(router, cf, files, complex, params, progress[leg]);
+							List<RouteSegmentResult> result;
+							try {
+								result = router.searchRoute(ctx, st, en, new ArrayList<LatLon>());
+							} catch (RuntimeException e) {
+								if (!complex) {
+									throw e;
+								}
+								log.warn("Complex calculation of route leg " + leg + " failed", e); //$NON-NLS-1$
+								ctx = buildLegContext(router, cf, files, false, params, progress[leg]);
+								result = router.searchRoute(ctx, st, en, new ArrayList<LatLon>());
+							}
+							routingTime[leg] = ctx.routingTime;
+							return result;
+						} finally {
+							filesPool.put(files);
+						}
+					}
+				}));
+			}
+			List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>();
+			float time = 0;
+			for (int k = 0; k < legs; k++) {
+				List<RouteSegmentResult> legResult = waitForLeg(results.get(k), params.calculationProgress, progress);
+				if (params.calculationProgress.isCancelled) {
+					return interrupted();
+				}
+				if (legResult == null || legResult.isEmpty()) {
+					return legNotFound(params, progress[k], k, legs);
+				}
+				result.addAll(legResult);
+				time += routingTime[k];
+			}
+			return new RouteCalculationResult(result, params.start, params.end, params.intermediates, params.ctx,
+					params.leftSide, time, params.gpxRoute == null ? null : params.gpxRoute.wpt, params.mode);
+		} catch (InterruptedException e) {
+			return interrupted();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof OutOfMemoryError) {
+				int max = (int) (Runtime.getRuntime().maxMemory() / (1 << 20));
+				int avl = (int) (Runtime.getRuntime().freeMemory() / (1 << 20));
+				String s = " (" + avl + " MB available of " + max  + ") ";
+				return new RouteCalculationResult("Not enough process memory "+ s);
+			} else if (cause instanceof InterruptedException) {
+				return interrupted();
+			}
+			return new RouteCalculationResult(cause.getMessage());
+		} finally {
+			stopLegs(executor, results, progress);
+		}
+	}
+
+	/**
+	 * Cancels legs through progress of their routing contexts and waits until all of them are stopped :
+	 * readers of the legs could be used by the next calculation only after that
+	 */
+	private void stopLegs(ExecutorService executor, List<Future<List<RouteSegmentResult>>> results,
+			RouteCalculationProgress[] progress) {
+		for (RouteCalculationProgress p : progress) {
+			if (p != null) {
+				p.isCancelled = true;
+			}
+		}
+		// legs not started yet are not run at all
+		for (Future<List<RouteSegmentResult>> f : results) {
+			f.cancel(false);
+		}
+		executor.shutdown();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(LEGS_STOP_WARNING_INTERVAL, TimeUnit.MILLISECONDS)) {
+					break;
+				}
+				log.warn("Route legs calculation is not stopped yet"); //$NON-NLS-1$
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private RoutingContext buildLegContext(RoutePlannerFrontEnd router, RoutingConfiguration cf,
+			BinaryMapIndexReader[] files, boolean complex, RouteCalculationParams params, RouteCalculationProgress progress) {
+		RoutingContext ctx = router.buildRoutingContext(cf, null, files,
+				complex ? RouteCalculationMode.COMPLEX : RouteCalculationMode.NORMAL);
+		ctx.leftSideNavigation = params.leftSide;
+		ctx.calculationProgress = progress;
+		return ctx;
+	}
+
+	/**
+	 * Waits for the leg and shows progress of all legs as progress of the route
+	 * @return null if calculation was cancelled
+	 */
+	private List<RouteSegmentResult> waitForLeg(Future<List<RouteSegmentResult>> leg, RouteCalculationProgress total,
+			RouteCalculationProgress[] progress) throws InterruptedException, ExecutionException {
+		while (true) {
+			try {
+				return leg.get(LEGS_PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// update progress
+			}
+			float estimated = 0;
+			float calculated = 0;
+			for (RouteCalculationProgress p : progress) {
+				if (total.isCancelled) {
+					p.isCancelled = true;
+				}
+				estimated += p.totalEstimatedDistance;
+				calculated += Math.max(p.distanceFromBegin, p.distanceFromEnd);
+			}
+			if (total.isCancelled) {
+				return null;
+			}
+			total.totalEstimatedDistance = estimated;
+			total.distanceFromBegin = calculated;
+			total.distanceFromEnd = 0;
+		}
+	}
+
+	private RouteCalculationResult legNotFound(RouteCalculationParams params, RouteCalculationProgress progress,
+			int leg, int legs) {
+		// points of the leg are 0 - its start and 1 - its end
+		int point = progress.segmentNotFound == 0 ? leg : (progress.segmentNotFound == 1 ? leg + 1 : -1);
+		if (point == 0) {
+			return new RouteCalculationResult(params.ctx.getString(R.string.starting_point_too_far));
+		} else if (point == legs) {
+			return new RouteCalculationResult(params.ctx.getString(R.string.ending_point_too_far));
+		} else if (point > 0) {
+			return new RouteCalculationResult(params.ctx.getString(R.string.intermediate_point_too_far, "'" + point + "'"));
+		}
+		if (progress.directSegmentQueueSize == 0) {
+			return new RouteCalculationResult("Route can not be found from start point (" + progress.distanceFromBegin / 1000f + " km)");
+		} else if (progress.reverseSegmentQueueSize == 0) {
+			return new RouteCalculationResult("Route can not be found from end point (" + progress.distanceFromEnd / 1000f + " km)");
+		}
+		if (progress.isCancelled) {
+			return interrupted();
+		}
+		return emptyResult();
+	}
+
 	private RouteCalculationResult applicationModeNotSupported(RouteCalculationParams params) {
 		return new RouteCalculationResult("Application mode '"+ params.mode.toHumanStringCtx(params.ctx)+ "'is not supported.");
 	}
@@ -850,8 +1075,8 @@ public class RouteProvider {
 		} else {
 			for (Track tr : gpxFile.tracks) {
 				for (TrkSegment ts : tr.segments) {
-					for (WptPt p : ts.points) {
-						res.add(createLocation(p));
+					for (int i = 0; i < ts.points.size(); i++) {
+						res.add(createLocation(ts, i));
 					}
 				}
 			}
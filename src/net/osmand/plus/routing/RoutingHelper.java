@@ -79,6 +79,7 @@ public class RoutingHelper {
 	private OsmandSettings settings;
 	
 	private RouteProvider provider;
+	private RouteDetoursCalculator detours;
 	private VoiceRouter voiceRouter;
 
 	private static boolean isDeviatedFromRoute = false;
@@ -100,6 +101,7 @@ public class RoutingHelper {
 		settings = context.getSettings();
 		voiceRouter = new VoiceRouter(this, settings);
 		provider = new RouteProvider();
+		detours = new RouteDetoursCalculator(context, provider);
 		setAppMode(settings.APPLICATION_MODE.get());
 	}
 	
@@ -168,6 +170,7 @@ public class RoutingHelper {
 		route = new RouteCalculationResult("");
 		isDeviatedFromRoute = false;
 		evalWaitInterval = 0;
+		detours.stop();
 		app.getWaypointHelper().setNewRoute(route);
 		app.runInUIThread(new Runnable() {
 			@Override
@@ -380,7 +383,14 @@ public class RoutingHelper {
 			lastProjection = locationProjection;
 		}
 
-		if (calculateRoute) {
+		RouteCalculationResult detour = null;
+		if (calculateRoute && isDeviatedFromRoute && isFollowingMode) {
+			detour = detours.takeDetour(currentLocation, 1.7 * posTolerance);
+		}
+		if (detour != null) {
+			log.info("Route is replaced by precalculated detour"); //$NON-NLS-1$
+			setDetourRoute(detour);
+		} else if (calculateRoute) {
 			recalculateRouteInBackground(currentLocation, finalLocation, intermediatePoints, currentGPXRoute, 
 					previousRoute.isCalculated() ? previousRoute : null, false, !targetPointsChanged);
 		} else {
@@ -394,6 +404,11 @@ public class RoutingHelper {
 					voiceRouter.announceBackOnRoute();
 				}
 			}
+			if (isFollowingMode && settings.SPECULATIVE_ROUTE_DETOURS.get() && currentRunningJob == null
+					&& currentGPXRoute == null && route.isCalculated()
+					&& settings.ROUTER_SERVICE.getModeValue(mode) == RouteService.OSMAND) {
+				detours.update(route, finalLocation, intermediatePoints, mode);
+			}
 		}
 
 		double projectDist = mode != null && mode.hasFastSpeed() ? posTolerance : posTolerance / 2;
@@ -404,6 +419,16 @@ public class RoutingHelper {
 		}
 	}
 
+	private void setDetourRoute(RouteCalculationResult detour) {
+		RouteCalculationResult prev = route;
+		synchronized (this) {
+			route = detour;
+		}
+		lastTimeEvaluatedRoute = System.currentTimeMillis();
+		setNewRoute(prev, detour, lastFixedLocation);
+		app.getNotificationHelper().refreshNotification(NAVIGATION);
+	}
+
 	private static double getOrthogonalDistance(Location loc, Location from, Location to) {
 		return MapUtils.getOrthogonalDistance(loc.getLatitude(),
 				loc.getLongitude(), from.getLatitude(), from.getLongitude(),
@@ -941,7 +966,9 @@ public class RoutingHelper {
 				updateProgress(params);
 			}
 			synchronized (this) {
-				final Thread prevRunningJob = currentRunningJob;
+				// detour calculation uses the same map readers, so it should be finished before
+				Thread detourJob = detours.stop();
+				final Thread prevRunningJob = currentRunningJob != null ? currentRunningJob : detourJob;
 				RouteRecalculationThread newThread = new RouteRecalculationThread(
 						"Calculating route", params, paramsChanged); //$NON-NLS-1$
 				currentRunningJob = newThread;
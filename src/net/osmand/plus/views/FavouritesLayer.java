@@ -17,12 +17,12 @@ import net.osmand.data.FavouritePoint;
 import net.osmand.data.LatLon;
 import net.osmand.data.PointDescription;
 import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.data.RotatedTileBox;
 import net.osmand.plus.FavouritesDbHelper;
 import net.osmand.plus.OsmandSettings;
 import net.osmand.plus.R;
 import net.osmand.plus.base.FavoriteImageDrawable;
+import net.osmand.plus.render.LabelCollisionGrid;
 import net.osmand.plus.views.ContextMenuLayer.ApplyMovedObjectCallback;
 import net.osmand.plus.views.MapTextLayer.MapTextProvider;
 
@@ -107,7 +107,7 @@ public class FavouritesLayer extends OsmandMapLayer implements ContextMenuLayer.
 			if (tileBox.getZoom() >= startZoom) {
 				float iconSize = FavoriteImageDrawable.getOrCreate(view.getContext(), 0,
 						 true).getIntrinsicWidth() * 3 / 2.5f;
-				QuadTree<QuadRect> boundIntersections = initBoundIntersections(tileBox);
+				LabelCollisionGrid boundIntersections = initBoundIntersections(tileBox);
 
 				// request to load
 				final QuadRect latLonBounds = tileBox.getLatLonBounds();
@@ -21,7 +21,6 @@ import android.support.v4.content.ContextCompat;
 import net.osmand.data.LatLon;
 import net.osmand.data.PointDescription;
 import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.data.RotatedTileBox;
 import net.osmand.plus.GPXUtilities;
 import net.osmand.plus.GPXUtilities.GPXFile;
@@ -35,6 +34,7 @@ import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.OsmandSettings.CommonPreference;
 import net.osmand.plus.R;
 import net.osmand.plus.base.FavoriteImageDrawable;
+import net.osmand.plus.render.LabelCollisionGrid;
 import net.osmand.plus.render.OsmandRenderer;
 import net.osmand.plus.render.OsmandRenderer.RenderingContext;
 import net.osmand.plus.views.MapTextLayer.MapTextProvider;
@@ -304,7 +304,7 @@ public class GPXLayer extends OsmandMapLayer implements ContextMenuLayer.IContex
 		if (tileBox.getZoom() >= startZoom) {
 			float iconSize = FavoriteImageDrawable.getOrCreate(view.getContext(), 0,
 					true).getIntrinsicWidth() * 3 / 2.5f;
-			QuadTree<QuadRect> boundIntersections = initBoundIntersections(tileBox);
+			LabelCollisionGrid boundIntersections = initBoundIntersections(tileBox);
 
 			List<LatLon> fullObjectsLatLon = new ArrayList<>();
 			List<LatLon> smallObjectsLatLon = new ArrayList<>();
@@ -372,9 +372,9 @@ public class GPXLayer extends OsmandMapLayer implements ContextMenuLayer.IContex
 				if (ts.renders.isEmpty()                // only do once (CODE HERE NEEDS TO BE UI INSTEAD)
 						&& !ts.points.isEmpty()) {        // hmmm. 0-point tracks happen, but.... how?
 					if (g.isShowCurrentTrack()) {
-						ts.renders.add(new Renderable.CurrentTrack(ts.points));
+						ts.renders.add(new Renderable.CurrentTrack(ts));
 					} else {
-						ts.renders.add(new Renderable.StandardTrack(ts.points, 17.2));
+						ts.renders.add(new Renderable.StandardTrack(ts, 17.2));
 					}
 				}
 				updatePaints(ts.getColor(cachedColor), g.isRoutePoints(), g.isShowCurrentTrack(), settings, tileBox);
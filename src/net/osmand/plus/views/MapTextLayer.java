@@ -8,6 +8,7 @@ import android.graphics.Paint.Style;
 
 import net.osmand.data.LatLon;
 import net.osmand.data.RotatedTileBox;
+import net.osmand.plus.render.LabelCollisionGrid;
 
 import java.util.Collection;
 import java.util.Comparator;
@@ -15,7 +16,6 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
-import gnu.trove.set.hash.TIntHashSet;
 
 public class MapTextLayer extends OsmandMapLayer {
 	
@@ -68,7 +68,8 @@ public class MapTextLayer extends OsmandMapLayer {
 		if (!isVisible()) {
 			return;
 		}
-		TIntHashSet set = new TIntHashSet();
+		LabelCollisionGrid boundIntersections = initBoundIntersections(tileBox);
+		float textSize = paintTextIcon.getTextSize();
 		for (OsmandMapLayer l : textObjects.keySet()) {
 			if (view.isLayerVisible(l)) {
 				for (Object o : textObjects.get(l)) {
@@ -77,31 +78,22 @@ public class MapTextLayer extends OsmandMapLayer {
 							.getLongitude());
 					int y = (int) tileBox.getPixYFromLatLon(location.getLatitude(), location
 							.getLongitude());
-					int tx = tileBox.getPixXFromLonNoRot(location.getLongitude());
-					int ty = tileBox.getPixYFromLatNoRot(location.getLatitude());
 					String name = ((MapTextProvider) l).getText(o);
 					if (name != null && name.length() > 0) {
-						int lines = 0;
-						while (lines < TEXT_LINES) {
-							if (set.contains(division(tx, ty, 0, lines)) || set.contains(division(tx, ty, -1, lines))
-									|| set.contains(division(tx, ty, +1, lines))) {
+						int r = ((MapTextProvider) l).getTextShift(o, tileBox);
+						float width = paintTextIcon.measureText(name, 0, Math.min(name.length(), TEXT_WRAP));
+						float top = y + r + 2 - textSize / 2;
+						// as many lines as fit between already placed labels
+						int lines = Math.min(TEXT_LINES, (name.length() + TEXT_WRAP - 1) / TEXT_WRAP);
+						while (lines > 0) {
+							float height = lines * (textSize + 2);
+							if (boundIntersections.place(x, top + height / 2, width, height, 0)) {
 								break;
 							}
-							lines++;
+							lines--;
 						}
-						if (lines == 0) {
-							// drawWrappedText(canvas, "...", paintTextIcon.getTextSize(), x, y + r + 2 +
-							// paintTextIcon.getTextSize() / 2, 1);
-						} else {
-							int r = ((MapTextProvider) l).getTextShift(o, tileBox);
-							drawWrappedText(canvas, name, paintTextIcon.getTextSize(), x,
-									y + r + 2 + paintTextIcon.getTextSize() / 2, lines);
-							while (lines > 0) {
-								set.add(division(tx, ty, 1, lines - 1));
-								set.add(division(tx, ty, -1, lines - 1));
-								set.add(division(tx, ty, 0, lines - 1));
-								lines--;
-							}
+						if (lines > 0) {
+							drawWrappedText(canvas, name, textSize, x, y + r + 2 + textSize / 2, lines);
 						}
 					}
 				}
@@ -109,11 +101,6 @@ public class MapTextLayer extends OsmandMapLayer {
 		}
 	}
 
-	private int division(int x, int y, int sx, int sy) {
-		// make numbers positive
-		return ((((x + 10000) >> 4) + sx) << 16) | (((y + 10000) >> 4) + sy);
-	}
-	
 	private void drawWrappedText(Canvas cv, String text, float textSize, float x, float y, int lines) {
 		if(text.length() > TEXT_WRAP){
 			int start = 0;
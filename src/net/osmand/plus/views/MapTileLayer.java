@@ -10,6 +10,7 @@ import net.osmand.plus.OsmandSettings;
 import net.osmand.plus.R;
 import net.osmand.plus.rastermaps.OsmandRasterMapsPlugin;
 import net.osmand.plus.resources.ResourceManager;
+import net.osmand.plus.resources.TileBitmapCache;
 import net.osmand.util.MapUtils;
 import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
@@ -132,6 +133,17 @@ public class MapTileLayer extends BaseMapLayer {
 		if (map == null) {
 			return;
 		}
+		// evicted bitmaps are not reused to decode other tiles while they are drawn
+		TileBitmapCache cache = resourceManager.getTilesCache();
+		cache.startDrawing();
+		try {
+			drawTiles(canvas, tileBox, map);
+		} finally {
+			cache.finishDrawing();
+		}
+	}
+
+	private void drawTiles(Canvas canvas, RotatedTileBox tileBox, ITileSource map) {
 		ResourceManager mgr = resourceManager;
 		int nzoom = tileBox.getZoom();
 		final QuadRect tilesRect = tileBox.getTileBounds();
@@ -147,6 +159,7 @@ public class MapTileLayer extends BaseMapLayer {
 		int top = (int) Math.floor(tilesRect.top + ellipticTileCorrection);
 		int width = (int) Math.ceil(tilesRect.right - left);
 		int height = (int) Math.ceil(tilesRect.bottom + ellipticTileCorrection - top);
+		mgr.updateVisibleTiles(this, nzoom, left, top, left + width, top + height);
 
 		boolean useInternet = OsmandPlugin.getEnabledPlugin(OsmandRasterMapsPlugin.class) != null && 
 				settings.USE_INTERNET_TO_DOWNLOAD_TILES.get() && settings.isInternetConnectionAvailable() && map.couldBeDownloadedFromInternet();
@@ -169,7 +182,7 @@ public class MapTileLayer extends BaseMapLayer {
 				final int tileX = leftPlusI;
 				final int tileY = topPlusJ;
 				Bitmap bmp = null;
-				String ordImgTile = mgr.calculateTileId(map, tileX, tileY, nzoom);
+				long ordImgTile = mgr.calculateTileKey(map, tileX, tileY, nzoom);
 				// asking tile image async
 				boolean imgExist = mgr.tileExistOnFileSystem(ordImgTile, map, tileX, tileY, nzoom);
 				boolean originalWillBeLoaded = useInternet && nzoom <= maxLevel;
@@ -185,7 +198,7 @@ public class MapTileLayer extends BaseMapLayer {
 					int kzoom = 1;
 					for (; kzoom <= allowedScale; kzoom++) {
 						div *= 2;
-						String imgTileId = mgr.calculateTileId(map, tileX / div, tileY / div, nzoom - kzoom);
+						long imgTileId = mgr.calculateTileKey(map, tileX / div, tileY / div, nzoom - kzoom);
 						if (readFromCache) {
 							bmp = mgr.getTileImageFromCache(imgTileId);
 							if (bmp != null) {
@@ -242,7 +255,7 @@ public class MapTileLayer extends BaseMapLayer {
 									bitmapToZoom.width(), bitmapToZoom.height(), m, true);
 							bitmapToZoom.set(0, 0, tileSize, tileSize);
 							// very expensive that's why put in the cache
-							mgr.putTileInTheCache(ordImgTile, sampled);
+							mgr.putTileInTheCache(ordImgTile, sampled, tileX, tileY, nzoom);
 							canvas.drawBitmap(sampled, bitmapToZoom, bitmapToDraw, paintBitmap);
 						}
 					}
@@ -282,6 +295,9 @@ public class MapTileLayer extends BaseMapLayer {
 	@Override
 	public void destroyLayer() {
 		setMapTileAdapter(null);
+		if (resourceManager != null) {
+			resourceManager.getTilesCache().removeVisibleTiles(this);
+		}
 	}
 
 	public boolean isVisible() {
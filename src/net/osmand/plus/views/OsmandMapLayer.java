@@ -2,18 +2,17 @@ package net.osmand.plus.views;
 
 import gnu.trove.list.array.TIntArrayList;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import net.osmand.data.LatLon;
 import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.data.RotatedTileBox;
 import net.osmand.plus.ContextMenuAdapter;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.activities.MapActivity;
+import net.osmand.plus.render.LabelCollisionGrid;
 import net.osmand.plus.render.OsmandRenderer;
 import net.osmand.plus.render.OsmandRenderer.RenderingContext;
 import net.osmand.render.RenderingRuleSearchRequest;
@@ -38,6 +37,7 @@ public abstract class OsmandMapLayer {
 
 	protected List<LatLon> fullObjectsLatLon;
 	protected List<LatLon> smallObjectsLatLon;
+	private LabelCollisionGrid boundIntersections;
 
 	public abstract void initLayer(OsmandMapTileView view);
 
@@ -171,24 +171,19 @@ public abstract class OsmandMapLayer {
 	}
 
 	@NonNull
-	public QuadTree<QuadRect> initBoundIntersections(RotatedTileBox tileBox) {
-		QuadRect bounds = new QuadRect(0, 0, tileBox.getPixWidth(), tileBox.getPixHeight());
-		bounds.inset(-bounds.width() / 4, -bounds.height() / 4);
-		return new QuadTree<>(bounds, 4, 0.6f);
+	public LabelCollisionGrid initBoundIntersections(RotatedTileBox tileBox) {
+		float width = tileBox.getPixWidth();
+		float height = tileBox.getPixHeight();
+		// grid is reused by every drawing of the layer
+		if (boundIntersections == null) {
+			boundIntersections = new LabelCollisionGrid();
+		}
+		boundIntersections.reset(-width / 4, -height / 4, width * 5 / 4, height * 5 / 4);
+		return boundIntersections;
 	}
 
-	public boolean intersects(QuadTree<QuadRect> boundIntersections, float x, float y, float width, float height) {
-		List<QuadRect> result = new ArrayList<>();
-		QuadRect visibleRect = calculateRect(x, y, width, height);
-		boundIntersections.queryInBox(new QuadRect(visibleRect.left, visibleRect.top, visibleRect.right, visibleRect.bottom), result);
-		for (QuadRect r : result) {
-			if (QuadRect.intersects(r, visibleRect)) {
-				return true;
-			}
-		}
-		boundIntersections.insert(visibleRect,
-				new QuadRect(visibleRect.left, visibleRect.top, visibleRect.right, visibleRect.bottom));
-		return false;
+	public boolean intersects(LabelCollisionGrid boundIntersections, float x, float y, float width, float height) {
+		return !boundIntersections.place(x, y, width, height, 0);
 	}
 
 	public QuadRect calculateRect(float x, float y, float width, float height) {
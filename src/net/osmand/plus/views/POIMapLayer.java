@@ -42,7 +42,6 @@ import net.osmand.data.Amenity;
 import net.osmand.data.LatLon;
 import net.osmand.data.PointDescription;
 import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.data.RotatedTileBox;
 import net.osmand.osm.PoiType;
 import net.osmand.plus.OsmandApplication;
@@ -50,6 +49,7 @@ import net.osmand.plus.R;
 import net.osmand.plus.activities.MapActivity;
 import net.osmand.plus.helpers.FileNameTranslationHelper;
 import net.osmand.plus.poi.PoiUIFilter;
+import net.osmand.plus.render.LabelCollisionGrid;
 import net.osmand.plus.render.RenderingIcons;
 import net.osmand.plus.routing.RoutingHelper;
 import net.osmand.plus.routing.RoutingHelper.IRouteInformationListener;
@@ -227,7 +227,7 @@ public class POIMapLayer extends OsmandMapLayer implements ContextMenuLayer.ICon
 				objects = data.getResults();
 				if (objects != null) {
 					float iconSize = poiBackground.getWidth() * 3 / 2;
-					QuadTree<QuadRect> boundIntersections = initBoundIntersections(tileBox);
+					LabelCollisionGrid boundIntersections = initBoundIntersections(tileBox);
 
 					for (Amenity o : objects) {
 						float x = tileBox.getPixXFromLatLon(o.getLocation().getLatitude(), o.getLocation()
@@ -0,0 +1,203 @@
+package net.osmand.plus.views;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.List;
+
+import net.osmand.Location;
+import net.osmand.plus.GPXUtilities.TrkSegment;
+import net.osmand.util.MapUtils;
+
+/**
+ * Multi-resolution index of a polyline : it is built once and gives simplified geometry for any zoom.
+ * Significance of a point is the Ramer-Douglas-Peucker epsilon (meters) at which the point drops out,
+ * so the simplification for epsilon is the linear filter {@code getSignificance(i) > epsilon}
+ * (end points are always kept).
+ * Bounding boxes of blocks of points, grouped into a hierarchy, allow to skip invisible parts of long lines.
+ * Immutable after creation, so it can be built in background.
+ */
+public class PolylineSimplification {
+
+	// points of a block of the lowest level (neighbour blocks share a point, so every segment is in a block)
+	private static final int BLOCK_SIZE = 32;
+	// blocks of a block of the upper level
+	private static final int BRANCHING = 16;
+
+	private final float[] significance;
+	// bounds of block k of level l : levels[l][4k .. 4k + 3] - top, left, bottom, right (lat / lon)
+	private final double[][] levels;
+
+	public static PolylineSimplification fromLocations(List<Location> locations) {
+		int sz = locations.size();
+		double[] lats = new double[sz];
+		double[] lons = new double[sz];
+		for (int i = 0; i < sz; i++) {
+			Location l = locations.get(i);
+			lats[i] = l.getLatitude();
+			lons[i] = l.getLongitude();
+		}
+		return new PolylineSimplification(lats, lons);
+	}
+
+	public static PolylineSimplification fromSegment(TrkSegment segment) {
+		int sz = segment.points.size();
+		double[] lats = new double[sz];
+		double[] lons = new double[sz];
+		for (int i = 0; i < sz; i++) {
+			lats[i] = segment.getLat(i);
+			lons[i] = segment.getLon(i);
+		}
+		return new PolylineSimplification(lats, lons);
+	}
+
+	public PolylineSimplification(double[] lats, double[] lons) {
+		significance = new float[lats.length];
+		calculateSignificance(lats, lons);
+		levels = calculateBounds(lats, lons);
+	}
+
+	public int size() {
+		return significance.length;
+	}
+
+	public float getSignificance(int i) {
+		return significance[i];
+	}
+
+	/**
+	 * @return true if the point is kept by simplification with epsilon (meters)
+	 */
+	public boolean isKept(int i, double epsilon) {
+		return significance[i] > epsilon;
+	}
+
+	/**
+	 * @return last kept point before index, -1 if there is none
+	 */
+	public int previousKept(int index, double epsilon) {
+		int i = index - 1;
+		while (i >= 0 && significance[i] <= epsilon) {
+			i--;
+		}
+		return i;
+	}
+
+	/**
+	 * Skips blocks of points outside of the bounds. Simplified segments deviate from the original points
+	 * at most by epsilon, so bounds should be extended by it when the epsilon is large.
+	 * @return first index (not less than start) of a point whose block intersects the bounds, size() if there is none
+	 */
+	public int nextIntersecting(int start, double top, double left, double bottom, double right) {
+		int blocks = levels[0].length / 4;
+		int b = Math.max(start, 0) / BLOCK_SIZE;
+		while (b < blocks) {
+			if (intersects(levels[0], b, top, left, bottom, right)) {
+				return Math.max(start, b * BLOCK_SIZE);
+			}
+			// skip the whole upper block if it is invisible too
+			int level = 0;
+			int node = b;
+			int step = 1;
+			while (level + 1 < levels.length && node % BRANCHING == 0
+					&& !intersects(levels[level + 1], node / BRANCHING, top, left, bottom, right)) {
+				level++;
+				node /= BRANCHING;
+				step *= BRANCHING;
+			}
+			b = (node + 1) * step;
+		}
+		return size();
+	}
+
+	private static boolean intersects(double[] bounds, int k, double top, double left, double bottom, double right) {
+		return bounds[4 * k + 2] <= top && bounds[4 * k] >= bottom && bounds[4 * k + 1] <= right
+				&& bounds[4 * k + 3] >= left;
+	}
+
+	private void calculateSignificance(double[] lats, double[] lons) {
+		int sz = lats.length;
+		if (sz == 0) {
+			return;
+		}
+		significance[0] = Float.POSITIVE_INFINITY;
+		significance[sz - 1] = Float.POSITIVE_INFINITY;
+		// stack of (start, end) ranges instead of recursion : tracks could have hundreds of thousands of points
+		TIntArrayList stack = new TIntArrayList();
+		stack.add(0);
+		stack.add(sz - 1);
+		while (!stack.isEmpty()) {
+			int end = stack.removeAt(stack.size() - 1);
+			int start = stack.removeAt(stack.size() - 1);
+			if (end - start < 2) {
+				continue;
+			}
+			double dmax = Double.NEGATIVE_INFINITY;
+			int index = -1;
+			for (int i = start + 1; i < end; i++) {
+				double d = MapUtils.getOrthogonalDistance(lats[i], lons[i], lats[start], lons[start],
+						lats[end], lons[end]);
+				if (d > dmax) {
+					dmax = d;
+					index = i;
+				}
+			}
+			// the point is kept only if the range containing it is split, so significance can't exceed the parent one
+			float parent = Math.min(significance[start], significance[end]);
+			significance[index] = (float) Math.min(dmax, parent);
+			stack.add(start);
+			stack.add(index);
+			stack.add(index);
+			stack.add(end);
+		}
+	}
+
+	private static double[][] calculateBounds(double[] lats, double[] lons) {
+		int sz = lats.length;
+		int blocks = Math.max(1, (sz - 1 + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		int levelsCount = 1;
+		for (int n = blocks; n > 1; n = (n + BRANCHING - 1) / BRANCHING) {
+			levelsCount++;
+		}
+		double[][] levels = new double[levelsCount][];
+		double[] bounds = new double[blocks * 4];
+		for (int b = 0; b < blocks; b++) {
+			double top = Double.NEGATIVE_INFINITY;
+			double left = Double.POSITIVE_INFINITY;
+			double bottom = Double.POSITIVE_INFINITY;
+			double right = Double.NEGATIVE_INFINITY;
+			int last = Math.min((b + 1) * BLOCK_SIZE, sz - 1);
+			for (int i = b * BLOCK_SIZE; i <= last; i++) {
+				top = Math.max(top, lats[i]);
+				left = Math.min(left, lons[i]);
+				bottom = Math.min(bottom, lats[i]);
+				right = Math.max(right, lons[i]);
+			}
+			bounds[4 * b] = top;
+			bounds[4 * b + 1] = left;
+			bounds[4 * b + 2] = bottom;
+			bounds[4 * b + 3] = right;
+		}
+		levels[0] = bounds;
+		for (int l = 1; l < levelsCount; l++) {
+			double[] lower = levels[l - 1];
+			int lowerBlocks = lower.length / 4;
+			int upperBlocks = (lowerBlocks + BRANCHING - 1) / BRANCHING;
+			double[] upper = new double[upperBlocks * 4];
+			for (int b = 0; b < upperBlocks; b++) {
+				upper[4 * b] = Double.NEGATIVE_INFINITY;
+				upper[4 * b + 1] = Double.POSITIVE_INFINITY;
+				upper[4 * b + 2] = Double.POSITIVE_INFINITY;
+				upper[4 * b + 3] = Double.NEGATIVE_INFINITY;
+				int last = Math.min((b + 1) * BRANCHING, lowerBlocks);
+				for (int k = b * BRANCHING; k < last; k++) {
+					upper[4 * b] = Math.max(upper[4 * b], lower[4 * k]);
+					upper[4 * b + 1] = Math.min(upper[4 * b + 1], lower[4 * k + 1]);
+					upper[4 * b + 2] = Math.min(upper[4 * b + 2], lower[4 * k + 2]);
+					upper[4 * b + 3] = Math.max(upper[4 * b + 3], lower[4 * k + 3]);
+				}
+			}
+			levels[l] = upper;
+		}
+		return levels;
+	}
+}
@@ -5,29 +5,34 @@ import android.graphics.Paint;
 
 import net.osmand.data.QuadRect;
 import net.osmand.data.RotatedTileBox;
+import net.osmand.plus.GPXUtilities.TrkSegment;
 import net.osmand.plus.GPXUtilities.WptPt;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
 public class Renderable {
 
+    private static final double METERS_IN_DEGREE = 111320;
+
     public static abstract class RenderableSegment {
 
         public List<WptPt> points = null;                           // Original list of points
-        protected List<WptPt> culled = new ArrayList<>();           // Reduced/resampled list of points
+        protected TrkSegment segment;                               // Coordinates are read from it (columns if compact)
+        protected PolylineSimplification simplification = null;     // Multi-resolution index of points
         protected int pointSize;
         protected double segmentSize;
 
         protected QuadRect trackBounds;
-        protected double zoom = -1;
-        protected AsynchronousResampler culler = null;                        // The currently active resampler
+        protected AsynchronousResampler culler = null;              // Builds the index once
         protected Paint paint = null;                               // MUST be set by 'updateLocalPaint' before use
+        protected float[] lines = new float[256];                  // Projected visible segments (x1, y1, x2, y2), reused
 
-        public RenderableSegment(List <WptPt> points, double segmentSize) {
-            this.points = points;
-            calculateBounds(points);
+        public RenderableSegment(TrkSegment segment, double segmentSize) {
+            this.segment = segment;
+            this.points = segment.points;
+            calculateBounds();
             this.segmentSize = segmentSize;
         }
 
@@ -53,57 +58,103 @@ public class Renderable {
             }
         }
 
-        private void calculateBounds(List<WptPt> pts) {
+        private void calculateBounds() {
             trackBounds = new QuadRect(Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
                     Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
-            updateBounds(pts, 0);
+            updateBounds(0);
         }
 
-        protected void updateBounds(List<WptPt> pts, int startIndex) {
-            pointSize = pts.size();
+        protected void updateBounds(int startIndex) {
+            pointSize = segment.points.size();
             for (int i = startIndex; i < pointSize; i++) {
-                WptPt pt = pts.get(i);
-                trackBounds.right = Math.max(trackBounds.right, pt.lon);
-                trackBounds.left = Math.min(trackBounds.left, pt.lon);
-                trackBounds.top = Math.max(trackBounds.top, pt.lat);
-                trackBounds.bottom = Math.min(trackBounds.bottom, pt.lat);
+                double lat = segment.getLat(i);
+                double lon = segment.getLon(i);
+                trackBounds.right = Math.max(trackBounds.right, lon);
+                trackBounds.left = Math.min(trackBounds.left, lon);
+                trackBounds.top = Math.max(trackBounds.top, lat);
+                trackBounds.bottom = Math.min(trackBounds.bottom, lat);
             }
         }
 
-        public void setRDP(List<WptPt> cull) {
-            culled = cull;
+        public void setSimplification(PolylineSimplification simplification) {
+            this.simplification = simplification;
         }
 
-        protected void draw(List<WptPt> pts, Paint p, Canvas canvas, RotatedTileBox tileBox) {
-
-            if (pts.size() > 1) {
-
-                updateLocalPaint(p);
-                canvas.rotate(-tileBox.getRotate(), tileBox.getCenterPixelX(), tileBox.getCenterPixelY());
-                QuadRect tileBounds = tileBox.getLatLonBounds();
-
-                WptPt lastPt = pts.get(0);
-                float lastx = 0;
-                float lasty = 0;
-                boolean reCalculateLastXY = true;
+        protected void draw(Paint p, Canvas canvas, RotatedTileBox tileBox) {
+            drawLines(null, 0, p, canvas, tileBox);
+        }
 
-                int size = pts.size();
-                for (int i = 1; i < size; i++) {
-                    WptPt pt = pts.get(i);
+        protected void drawSimplified(PolylineSimplification ps, double epsilon, Paint p, Canvas canvas,
+                                      RotatedTileBox tileBox) {
+            drawLines(ps, epsilon, p, canvas, tileBox);
+        }
 
-                    if (Math.min(pt.lon, lastPt.lon) < tileBounds.right && Math.max(pt.lon, lastPt.lon) > tileBounds.left
-                            && Math.min(pt.lat, lastPt.lat) < tileBounds.top && Math.max(pt.lat, lastPt.lat) > tileBounds.bottom) {
+        /**
+         * Projects visible segments into the reused buffer and draws them with a single call
+         * @param ps index to skip invisible parts and to simplify with epsilon, null to draw all points
+         */
+        private void drawLines(PolylineSimplification ps, double epsilon, Paint p, Canvas canvas,
+                               RotatedTileBox tileBox) {
+
+            TrkSegment seg = segment;
+            int size = ps == null ? seg.points.size() : Math.min(ps.size(), seg.points.size());
+            if (size < 2) {
+                return;
+            }
+            QuadRect tileBounds = tileBox.getLatLonBounds();
+            // simplified segments deviate from the track at most by epsilon
+            double dlat = epsilon / METERS_IN_DEGREE;
+            double dlon = dlat / Math.max(0.01, Math.cos(Math.toRadians(tileBox.getLatitude())));
+            double top = tileBounds.top + dlat;
+            double bottom = tileBounds.bottom - dlat;
+            double left = tileBounds.left - dlon;
+            double right = tileBounds.right + dlon;
+
+            int count = 0;
+            int last = -1;
+            float lastx = 0;
+            float lasty = 0;
+            boolean reCalculateLastXY = true;
+
+            for (int i = 0; i < size; i++) {
+                if (ps != null) {
+                    int next = ps.nextIntersecting(i, top, left, bottom, right);
+                    if (next >= size) {
+                        break;
+                    } else if (next > i) {
+                        // invisible part is skipped, line continues from the last kept point before it
+                        last = ps.previousKept(next, epsilon);
+                        reCalculateLastXY = true;
+                        i = next;
+                    }
+                    if (!ps.isKept(i, epsilon)) {
+                        continue;
+                    }
+                }
+                double lat = seg.getLat(i);
+                double lon = seg.getLon(i);
+                if (last != -1) {
+                    double lastLat = seg.getLat(last);
+                    double lastLon = seg.getLon(last);
+                    if (Math.min(lon, lastLon) < tileBounds.right && Math.max(lon, lastLon) > tileBounds.left
+                            && Math.min(lat, lastLat) < tileBounds.top && Math.max(lat, lastLat) > tileBounds.bottom) {
 
                         if (reCalculateLastXY) {
-                            lastx = tileBox.getPixXFromLatLon(lastPt.lat, lastPt.lon);
-                            lasty = tileBox.getPixYFromLatLon(lastPt.lat, lastPt.lon);
+                            lastx = tileBox.getPixXFromLatLon(lastLat, lastLon);
+                            lasty = tileBox.getPixYFromLatLon(lastLat, lastLon);
                             reCalculateLastXY = false;
                         }
 
-                        float x = tileBox.getPixXFromLatLon(pt.lat, pt.lon);
-                        float y = tileBox.getPixYFromLatLon(pt.lat, pt.lon);
+                        float x = tileBox.getPixXFromLatLon(lat, lon);
+                        float y = tileBox.getPixYFromLatLon(lat, lon);
 
-                        canvas.drawLine(lastx, lasty, x, y, paint);
+                        if (count + 4 > lines.length) {
+                            lines = Arrays.copyOf(lines, lines.length * 2);
+                        }
+                        lines[count++] = lastx;
+                        lines[count++] = lasty;
+                        lines[count++] = x;
+                        lines[count++] = y;
 
                         lastx = x;
                         lasty = y;
@@ -111,8 +162,14 @@ public class Renderable {
                     } else {
                         reCalculateLastXY = true;
                     }
-                    lastPt = pt;
                 }
+                last = i;
+            }
+
+            if (count > 0) {
+                updateLocalPaint(p);
+                canvas.rotate(-tileBox.getRotate(), tileBox.getCenterPixelX(), tileBox.getCenterPixelY());
+                canvas.drawLines(lines, 0, count, paint);
                 canvas.rotate(tileBox.getRotate(), tileBox.getCenterPixelX(), tileBox.getCenterPixelY());
             }
         }
@@ -120,41 +177,38 @@ public class Renderable {
 
     public static class StandardTrack extends RenderableSegment {
 
-        public StandardTrack(List<WptPt> pt, double base) {
-            super(pt, base);
+        public StandardTrack(TrkSegment segment, double base) {
+            super(segment, base);
         }
 
         @Override public void startCuller(double newZoom) {
-
-            if (zoom != newZoom) {
-                if (culler != null) {
-                    culler.cancel(true);
-                }
-                if (zoom < newZoom) {            // if line would look worse (we're zooming in) then...
-                    culled.clear();              // use full-resolution until re-cull complete
-                }
-                zoom = newZoom;
-
-                double cullDistance = Math.pow(2.0, segmentSize - zoom);    // segmentSize == epsilon
-                culler = new AsynchronousResampler.RamerDouglasPeucer(this, cullDistance);
+            // the index doesn't depend on zoom, so it is built only once
+            if (simplification == null && culler == null) {
+                culler = new AsynchronousResampler.RamerDouglasPeucer(this);
                 culler.execute("");
             }
         }
 
         @Override public void drawSingleSegment(double zoom, Paint p, Canvas canvas, RotatedTileBox tileBox) {
-            draw(culled.isEmpty() ? points : culled, p, canvas, tileBox);
+            PolylineSimplification ps = simplification;
+            if (ps == null) {
+                draw(p, canvas, tileBox);               // full-resolution until the index is built
+            } else {
+                double cullDistance = Math.pow(2.0, segmentSize - zoom);    // segmentSize == epsilon
+                drawSimplified(ps, cullDistance, p, canvas, tileBox);
+            }
         }
     }
 
     public static class CurrentTrack extends RenderableSegment {
 
-        public CurrentTrack(List<WptPt> pt) {
-            super(pt, 0);
+        public CurrentTrack(TrkSegment segment) {
+            super(segment, 0);
         }
 
         @Override public void drawSegment(double zoom, Paint p, Canvas canvas, RotatedTileBox tileBox) {
-            if (points.size() != pointSize) {
-                updateBounds(points, pointSize);
+            if (segment.points.size() != pointSize) {
+                updateBounds(pointSize);
             }
             drawSingleSegment(zoom, p, canvas, tileBox);
         }
@@ -162,7 +216,7 @@ public class Renderable {
         @Override protected void startCuller(double newZoom) {}
 
         @Override public void drawSingleSegment(double zoom, Paint p, Canvas canvas, RotatedTileBox tileBox) {
-            draw(points, p, canvas, tileBox);
+            draw(p, canvas, tileBox);
         }
     }
 }
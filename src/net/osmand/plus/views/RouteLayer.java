@@ -1,6 +1,5 @@
 package net.osmand.plus.views;
 
-import gnu.trove.list.array.TByteArrayList;
 import gnu.trove.list.array.TIntArrayList;
 
 import java.util.ArrayList;
@@ -16,7 +15,6 @@ import net.osmand.plus.R;
 import net.osmand.plus.routing.RouteCalculationResult;
 import net.osmand.plus.routing.RouteDirectionInfo;
 import net.osmand.plus.routing.RoutingHelper;
-import net.osmand.util.MapUtils;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -32,6 +30,7 @@ import android.graphics.PorterDuffColorFilter;
 public class RouteLayer extends OsmandMapLayer {
 	
 	private static final float EPSILON_IN_DPI = 2;
+	private static final double METERS_IN_DEGREE = 111320;
 
 	private OsmandMapTileView view;
 	
@@ -183,31 +182,6 @@ public class RouteLayer extends OsmandMapLayer {
 		}
 	}
 	
-	private void cullRamerDouglasPeucker(TByteArrayList survivor, List<Location> points,
-			int start, int end, double epsillon) {
-        double dmax = Double.NEGATIVE_INFINITY;
-        int index = -1;
-        Location startPt = points.get(start);
-        Location endPt = points.get(end);
-
-        for (int i = start + 1; i < end; i++) {
-            Location pt = points.get(i);
-            double d = MapUtils.getOrthogonalDistance(pt.getLatitude(), pt.getLongitude(), 
-            		startPt.getLatitude(), startPt.getLongitude(), endPt.getLatitude(), endPt.getLongitude());
-            if (d > dmax) {
-                dmax = d;
-                index = i;
-            }
-        }
-        if (dmax > epsillon) {
-        	cullRamerDouglasPeucker(survivor, points, start, index, epsillon);
-        	cullRamerDouglasPeucker(survivor, points, index, end, epsillon);
-        } else {
-            survivor.set(end, (byte) 1);
-        }
-    }
-	
-
 	private void drawArrowsOverPath(Canvas canvas, RotatedTileBox tb, TIntArrayList tx, TIntArrayList ty,
 			List<Double> angles, List<Double> distances, Bitmap arrow, double distPixToFinish) {
 		int h = tb.getPixHeight();
@@ -261,30 +235,26 @@ public class RouteLayer extends OsmandMapLayer {
 	}
 	
 	private static class RouteGeometryZoom {
-		final TByteArrayList simplifyPoints;
+		final PolylineSimplification simplification;
+		final double cullDistance;
 		List<Double> distances;
 		List<Double> angles;
 		
-		public RouteGeometryZoom(List<Location> locations, RotatedTileBox tb) {
+		public RouteGeometryZoom(List<Location> locations, PolylineSimplification simplification, RotatedTileBox tb) {
 			//  this.locations = locations;
 			tb = new RotatedTileBox(tb);
 			tb.setZoomAndAnimation(tb.getZoom(), 0, tb.getZoomFloatPart());
-			simplifyPoints = new TByteArrayList(locations.size());
+			this.simplification = simplification;
 			distances = new ArrayList<Double>(locations.size());
 			angles = new ArrayList<Double>(locations.size());
-			simplifyPoints.fill(0, locations.size(), (byte)0);
-			if(locations.size() > 0) {
-				simplifyPoints.set(0, (byte) 1);
-			}
 			double distInPix = (tb.getDistance(0, 0, tb.getPixWidth(), 0) / tb.getPixWidth());
-			double cullDistance = (distInPix * (EPSILON_IN_DPI * Math.max(1, tb.getDensity())));
-			cullRamerDouglasPeucker(simplifyPoints, locations, 0, locations.size() - 1, cullDistance);
+			cullDistance = (distInPix * (EPSILON_IN_DPI * Math.max(1, tb.getDensity())));
 			
 			int previousIndex = -1;
 			for(int i = 0; i < locations.size(); i++) {
 				double d = 0;
 				double angle = 0;
-				if(simplifyPoints.get(i) > 0) {
+				if(isKept(i)) {
 					if(previousIndex > -1) {
 						Location loc = locations.get(i);
 						Location pr = locations.get(previousIndex);
@@ -310,32 +280,12 @@ public class RouteLayer extends OsmandMapLayer {
 			return distances;
 		}
 		
-		private void cullRamerDouglasPeucker(TByteArrayList survivor, List<Location> points,
-				int start, int end, double epsillon) {
-	        double dmax = Double.NEGATIVE_INFINITY;
-	        int index = -1;
-	        Location startPt = points.get(start);
-	        Location endPt = points.get(end);
-
-	        for (int i = start + 1; i < end; i++) {
-	            Location pt = points.get(i);
-	            double d = MapUtils.getOrthogonalDistance(pt.getLatitude(), pt.getLongitude(), 
-	            		startPt.getLatitude(), startPt.getLongitude(), endPt.getLatitude(), endPt.getLongitude());
-	            if (d > dmax) {
-	                dmax = d;
-	                index = i;
-	            }
-	        }
-	        if (dmax > epsillon) {
-	        	cullRamerDouglasPeucker(survivor, points, start, index, epsillon);
-	        	cullRamerDouglasPeucker(survivor, points, index, end, epsillon);
-	        } else {
-	            survivor.set(end, (byte) 1);
-	        }
-	    }
+		public boolean isKept(int i) {
+			return simplification.isKept(i, cullDistance);
+		}
 		
-		public TByteArrayList getSimplifyPoints() {
-			return simplifyPoints;
+		public int previousKept(int i) {
+			return simplification.previousKept(i, cullDistance);
 		}
 	}
 	
@@ -344,6 +294,8 @@ public class RouteLayer extends OsmandMapLayer {
 		double mapDensity;
 		TreeMap<Integer, RouteGeometryZoom> zooms = new TreeMap<>();
 		List<Location> locations = Collections.emptyList(); 
+		// simplification of the route for all zooms, calculated once
+		PolylineSimplification simplification;
 		
 		// cache arrays
 		TIntArrayList tx = new TIntArrayList();
@@ -353,13 +305,16 @@ public class RouteLayer extends OsmandMapLayer {
 		
 		public void updateRoute(RotatedTileBox tb, RouteCalculationResult route) {
 			if(tb.getMapDensity() != mapDensity || this.route != route) {
-				this.route = route;
 				if(route == null) {
 					locations = Collections.emptyList();
 				} else {
 					locations = route.getImmutableAllLocations();
 				}
 				this.mapDensity = tb.getMapDensity();
+				if (this.route != route || simplification == null) {
+					simplification = PolylineSimplification.fromLocations(locations);
+				}
+				this.route = route;
 				zooms.clear();
 			}
 		}
@@ -367,7 +322,7 @@ public class RouteLayer extends OsmandMapLayer {
 		private RouteGeometryZoom getGeometryZoom(RotatedTileBox tb) {
 			RouteGeometryZoom zm = zooms.get(tb.getZoom());
 			if(zm == null) {
-				zm = new RouteGeometryZoom(locations, tb);
+				zm = new RouteGeometryZoom(locations, simplification, tb);
 				zooms.put(tb.getZoom(), zm);
 			}
 			return zm;
@@ -377,7 +332,6 @@ public class RouteLayer extends OsmandMapLayer {
 		private void drawSegments(RotatedTileBox tb, Canvas canvas, double topLatitude, double leftLongitude,
 				double bottomLatitude, double rightLongitude, Location lastProjection, int currentRoute) {
 			RouteGeometryZoom geometryZoom = getGeometryZoom(tb);
-			TByteArrayList simplification = geometryZoom.getSimplifyPoints();
 			List<Double> odistances = geometryZoom.getDistances();
 			
 
@@ -391,11 +345,31 @@ public class RouteLayer extends OsmandMapLayer {
 					previousVisible = true;
 				}
 			}
+			// simplified segments deviate from the route at most by cull distance
+			double dlat = geometryZoom.cullDistance / METERS_IN_DEGREE;
+			double dlon = dlat / Math.max(0.01, Math.cos(Math.toRadians(tb.getLatitude())));
+			double top = topLatitude + dlat;
+			double bottom = bottomLatitude - dlat;
+			double left = leftLongitude - dlon;
+			double right = rightLongitude + dlon;
 			List<Location> routeNodes = locations;
 			int previous = -1;
 			for (int i = currentRoute; i < routeNodes.size(); i++) {
+				if (!previousVisible) {
+					// skip parts of the route outside of the bounds
+					int next = simplification.nextIntersecting(i, top, left, bottom, right);
+					if (next >= routeNodes.size()) {
+						break;
+					} else if (next > i) {
+						int prev = geometryZoom.previousKept(next);
+						if (prev >= currentRoute) {
+							previous = prev;
+						}
+						i = next;
+					}
+				}
 				Location ls = routeNodes.get(i);
-				if(simplification.getQuick(i) == 0) {
+				if(!geometryZoom.isKept(i)) {
 					continue;
 				}
 				if (leftLongitude <= ls.getLongitude() && ls.getLongitude() <= rightLongitude && bottomLatitude <= ls.getLatitude()
@@ -14,7 +14,6 @@ import net.osmand.ResultMatcher;
 import net.osmand.data.LatLon;
 import net.osmand.data.PointDescription;
 import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.data.RotatedTileBox;
 import net.osmand.data.TransportRoute;
 import net.osmand.data.TransportStop;
@@ -22,6 +21,7 @@ import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.Way;
 import net.osmand.plus.R;
 import net.osmand.plus.activities.MapActivity;
+import net.osmand.plus.render.LabelCollisionGrid;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -215,7 +215,7 @@ public class TransportStopsLayer extends OsmandMapLayer implements ContextMenuLa
 		
 		if (objects != null) {
 			float iconSize = stopBus.getWidth() * 3 / 2.5f;
-			QuadTree<QuadRect> boundIntersections = initBoundIntersections(tb);
+			LabelCollisionGrid boundIntersections = initBoundIntersections(tb);
 			List<TransportStop> fullObjects = new ArrayList<>();
 			for (TransportStop o : objects) {
 				float x = tb.getPixXFromLatLon(o.getLocation().getLatitude(), o.getLocation().getLongitude());